@@ -0,0 +1,233 @@
+// LabelBenchmark.java
+// Browsing the movies of one tag as PagedMovieAdapter pages through them,
+// and tagging a selection in one transaction as DatabaseConnector does
+package com.example.moviecollection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LabelBenchmark {
+	private static final int TAGGED_EVERY = 25; // 20k tagged of 500k
+	private static final int PAGE_SIZE = 100; // as PagedMovieAdapter
+	private static final int SELECTION = 500; // movies tagged at once
+
+	// a copy of the template with one tag on every TAGGED_EVERY-th movie
+	// and a second, empty one for the selections
+	@State(Scope.Thread)
+	public static class Database {
+		@Param({ "1000", "100000", "1000000" })
+		public int rows;
+
+		final Random random = new Random(42);
+		private File file;
+		Connection connection;
+		private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+		long tagId;
+		long selectionId;
+		int tagged;
+		String[] keys; // the tag's first title on each page, and its _id
+
+		@Setup(Level.Trial)
+		public void open() throws IOException, SQLException {
+			file = File.createTempFile("moviecollection-bench", ".db");
+			Files.copy(MovieCrudBenchmark.getTemplate(rows).toPath(), file
+					.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			connection = MovieCrudBenchmark.connect(file);
+
+			tagId = addLabel(this, "noir");
+			selectionId = addLabel(this, "selection");
+			connection.setAutoCommit(false);
+			PreparedStatement add = prepare(MovieContract.ADD_TO_LABEL);
+			for (long id = 1; id <= rows; id += TAGGED_EVERY) {
+				add.setLong(1, tagId);
+				add.setLong(2, id);
+				add.executeUpdate();
+				++tagged;
+			}
+			connection.commit();
+			connection.setAutoCommit(true);
+
+			// where each page starts, as keys it can be sought from
+			keys = new String[2 * ((tagged + PAGE_SIZE - 1) / PAGE_SIZE)];
+			PreparedStatement page = prepare(MovieContract.SELECT_LABEL_MOVIES_AT);
+			page.setLong(1, tagId);
+			page.setInt(2, tagged);
+			page.setInt(3, 0);
+			ResultSet result = page.executeQuery();
+			for (int i = 0; result.next(); ++i)
+				if (i % PAGE_SIZE == 0) {
+					keys[2 * (i / PAGE_SIZE)] = result.getString(2);
+					keys[2 * (i / PAGE_SIZE) + 1] = result.getString(1);
+				}
+			result.close();
+
+			explain(this, MovieContract.SELECT_LABEL_SECTIONS);
+			explain(this, MovieContract.SELECT_LABEL_MOVIES_AT);
+			explain(this, MovieContract.SELECT_LABEL_MOVIES_AFTER);
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws SQLException {
+			connection.close();
+			for (String suffix : new String[] { "", "-wal", "-shm" })
+				new File(file.getPath() + suffix).delete();
+		}
+
+		PreparedStatement prepare(String sql) throws SQLException {
+			PreparedStatement statement = statements.get(sql);
+			if (statement == null) {
+				statement = connection.prepareStatement(sql);
+				statements.put(sql, statement);
+			}
+			return statement;
+		}
+	} // end class Database
+
+	// what reload reads: the tag's sections, then its first page
+	@Benchmark
+	public void firstPage(Database database, Blackhole blackhole)
+			throws SQLException {
+		PreparedStatement sections = database
+				.prepare(MovieContract.SELECT_LABEL_SECTIONS);
+		sections.setLong(1, database.tagId);
+		consume(sections.executeQuery(), blackhole);
+
+		PreparedStatement page = database
+				.prepare(MovieContract.SELECT_LABEL_MOVIES_AT);
+		page.setLong(1, database.tagId);
+		page.setInt(2, PAGE_SIZE);
+		page.setInt(3, 0);
+		consume(page.executeQuery(), blackhole);
+	}
+
+	// scrolling on: the page after a known one's end
+	@Benchmark
+	public void pageAfterKey(Database database, Blackhole blackhole)
+			throws SQLException {
+		int key = database.random.nextInt(database.keys.length / 2);
+		PreparedStatement page = database
+				.prepare(MovieContract.SELECT_LABEL_MOVIES_AFTER);
+		page.setLong(1, database.tagId);
+		page.setString(2, database.keys[2 * key]);
+		page.setString(3, database.keys[2 * key]);
+		page.setString(4, database.keys[2 * key + 1]);
+		page.setInt(5, PAGE_SIZE);
+		consume(page.executeQuery(), blackhole);
+	}
+
+	// a jump with the fast-scroll thumb: a page by offset
+	@Benchmark
+	public void pageAtOffset(Database database, Blackhole blackhole)
+			throws SQLException {
+		PreparedStatement page = database
+				.prepare(MovieContract.SELECT_LABEL_MOVIES_AT);
+		page.setLong(1, database.tagId);
+		page.setInt(2, PAGE_SIZE);
+		page.setInt(3, database.random.nextInt(database.tagged));
+		consume(page.executeQuery(), blackhole);
+	}
+
+	// tag a selection in one transaction, then take the tag off again in
+	// another, so every run starts from the same database
+	@Benchmark
+	public int tagSelection(Database database) throws SQLException {
+		long[] ids = new long[SELECTION];
+		for (int i = 0; i < ids.length; ++i)
+			ids[i] = 1 + database.random.nextInt(database.rows);
+
+		return relabel(database, MovieContract.ADD_TO_LABEL, ids)
+				+ relabel(database, MovieContract.REMOVE_FROM_LABEL, ids);
+	}
+
+	// as DatabaseConnector.relabel
+	private static int relabel(Database database, String sql, long[] ids)
+			throws SQLException {
+		Connection connection = database.connection;
+		PreparedStatement statement = database.prepare(sql);
+		int changed = 0;
+		connection.setAutoCommit(false);
+		try {
+			for (long id : ids) {
+				statement.setLong(1, database.selectionId);
+				statement.setLong(2, id);
+				changed += statement.executeUpdate();
+			}
+			connection.commit();
+		} finally {
+			connection.setAutoCommit(true);
+		}
+		return changed;
+	}
+
+	// as DatabaseConnector.addLabel
+	private static long addLabel(Database database, String name)
+			throws SQLException {
+		PreparedStatement insert = database.prepare(MovieContract.INSERT_LABEL);
+		insert.setInt(1, Label.TAG);
+		insert.setString(2, name);
+		insert.executeUpdate();
+
+		PreparedStatement select = database
+				.prepare(MovieContract.SELECT_LABEL_ID);
+		select.setInt(1, Label.TAG);
+		select.setString(2, name);
+		ResultSet result = select.executeQuery();
+		try {
+			result.next();
+			return result.getLong(1);
+		} finally {
+			result.close();
+		}
+	}
+
+	// print sql's plan, which should name only movie_labels_title or
+	// label_sections, never movies
+	private static void explain(Database database, String sql)
+			throws SQLException {
+		PreparedStatement explain = database.connection
+				.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+		try {
+			ResultSet result = explain.executeQuery();
+			while (result.next())
+				System.out.println("  " + result.getString("detail"));
+		} finally {
+			explain.close();
+		}
+	}
+
+	private static void consume(ResultSet result, Blackhole blackhole)
+			throws SQLException {
+		try {
+			while (result.next()) {
+				blackhole.consume(result.getString(1));
+				blackhole.consume(result.getString(2));
+			}
+		} finally {
+			result.close();
+		}
+	}
+} // end class LabelBenchmark
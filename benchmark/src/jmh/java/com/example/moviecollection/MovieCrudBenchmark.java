@@ -0,0 +1,284 @@
+// MovieCrudBenchmark.java
+// Throughput and latency of the DatabaseConnector operations, run through
+// sqlite-jdbc on tables of 1k, 100k and 1M movies
+package com.example.moviecollection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MovieCrudBenchmark {
+	private static final String[] WORDS = { "star", "night", "return", "lost",
+			"city", "king", "dark", "love", "war", "river", "ghost", "last",
+			"blue", "empire", "house", "road" };
+	private static final String[] DIRECTORS = { "Kubrick", "Kurosawa",
+			"Hitchcock", "Varda", "Scorsese", "Bigelow", "Ozu", "Lynch" };
+
+	// a private copy of a populated database and its prepared statements
+	@State(Scope.Thread)
+	public static class Database {
+		@Param({ "1000", "100000", "1000000" })
+		public int rows;
+
+		final Random random = new Random(42);
+		private File file;
+		private Connection connection;
+
+		// prepared once per trial, as MovieDao compiles them once
+		PreparedStatement insert;
+		PreparedStatement update;
+		PreparedStatement trash;
+		PreparedStatement delete;
+		PreparedStatement restore;
+		PreparedStatement forget;
+		PreparedStatement selectOne;
+		PreparedStatement selectAll;
+
+		// copy a populated database of the requested size, building it once
+		@Setup(Level.Trial)
+		public void open() throws IOException, SQLException {
+			file = File.createTempFile("moviecollection-bench", ".db");
+			Files.copy(getTemplate(rows).toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+
+			connection = connect(file);
+			insert = connection.prepareStatement(MovieContract.INSERT_MOVIE);
+			update = connection.prepareStatement(MovieContract.UPDATE_MOVIE);
+			trash = connection.prepareStatement(MovieContract.TRASH_MOVIE);
+			delete = connection.prepareStatement(MovieContract.DELETE_MOVIE);
+			restore = connection.prepareStatement(MovieContract.RESTORE_MOVIES);
+			forget = connection.prepareStatement(MovieContract.FORGET_DELETED);
+			selectOne = connection
+					.prepareStatement(MovieContract.SELECT_ONE_MOVIE);
+			selectAll = connection
+					.prepareStatement(MovieContract.SELECT_ALL_MOVIES);
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws SQLException {
+			connection.close();
+			for (String suffix : new String[] { "", "-wal", "-shm" })
+				new File(file.getPath() + suffix).delete();
+		}
+
+		// drop rows inserted during the iteration so the table keeps its
+		// size
+		@TearDown(Level.Iteration)
+		public void trimInserted() throws SQLException {
+			Statement statement = connection.createStatement();
+			try {
+				statement.executeUpdate("DELETE FROM movies WHERE _id > "
+						+ rows);
+			} finally {
+				statement.close();
+			}
+		}
+
+		long randomId() {
+			return 1 + random.nextInt(rows);
+		}
+
+		// run statements in one transaction, as the app's writes do
+		void beginTransaction() throws SQLException {
+			connection.setAutoCommit(false);
+		}
+
+		void commit() throws SQLException {
+			connection.commit();
+			connection.setAutoCommit(true);
+		}
+	} // end class Database
+
+	// the row the last delete moved to deleted_movies, undone before the
+	// next one so the table keeps its size; a separate state so that only
+	// deleteMovie pays for per-invocation setup. The database is recorded
+	// by the delete because JMH would inject a second Database instance
+	@State(Scope.Thread)
+	public static class DeletedRow {
+		Database database;
+		long deletedAt = -1;
+
+		@Setup(Level.Invocation)
+		public void restore() throws SQLException {
+			if (deletedAt == -1)
+				return;
+
+			database.beginTransaction();
+			database.restore.setLong(1, deletedAt);
+			database.restore.executeUpdate();
+			database.forget.setLong(1, deletedAt);
+			database.forget.executeUpdate();
+			database.commit();
+			deletedAt = -1;
+		}
+	} // end class DeletedRow
+
+	@Benchmark
+	public long insertMovie(Database database) throws SQLException {
+		bindMovie(database.insert, 1, database.random);
+		return database.insert.executeUpdate();
+	}
+
+	@Benchmark
+	public long updateMovie(Database database) throws SQLException {
+		bindMovie(database.update, 1, database.random);
+		database.update.setLong(5, database.randomId());
+		return database.update.executeUpdate();
+	}
+
+	@Benchmark
+	public long deleteMovie(Database database, DeletedRow deleted)
+			throws SQLException {
+		long id = database.randomId();
+		deleted.database = database;
+		deleted.deletedAt = System.currentTimeMillis();
+
+		// as MovieDao.delete does: move the row, then delete it
+		database.beginTransaction();
+		database.trash.setLong(1, deleted.deletedAt);
+		database.trash.setLong(2, id);
+		database.trash.executeUpdate();
+		database.delete.setLong(1, id);
+		int rows = database.delete.executeUpdate();
+		database.commit();
+		return rows;
+	}
+
+	@Benchmark
+	public void getOneMovie(Database database, Blackhole blackhole)
+			throws SQLException {
+		database.selectOne.setLong(1, database.randomId());
+		ResultSet result = database.selectOne.executeQuery();
+		try {
+			while (result.next()) {
+				blackhole.consume(result.getLong(1));
+				blackhole.consume(result.getString(2));
+				blackhole.consume(result.getInt(3));
+				blackhole.consume(result.getString(4));
+				blackhole.consume(result.getInt(5));
+			}
+		} finally {
+			result.close();
+		}
+	}
+
+	@Benchmark
+	public void getAllMovies(Database database, Blackhole blackhole)
+			throws SQLException {
+		ResultSet result = database.selectAll.executeQuery();
+		try {
+			while (result.next()) {
+				blackhole.consume(result.getLong(1));
+				blackhole.consume(result.getString(2));
+			}
+		} finally {
+			result.close();
+		}
+	}
+
+	// bind a generated movie to four parameters starting at first
+	private static void bindMovie(PreparedStatement statement, int first,
+			Random random) throws SQLException {
+		statement.setString(first, WORDS[random.nextInt(WORDS.length)] + " "
+				+ WORDS[random.nextInt(WORDS.length)] + " "
+				+ random.nextInt(1000));
+		statement.setInt(first + 1, 1920 + random.nextInt(100));
+		statement.setString(first + 2,
+				DIRECTORS[random.nextInt(DIRECTORS.length)]);
+		statement.setInt(first + 3, 80 + random.nextInt(100));
+	}
+
+	// return the populated database of rows movies in the current schema,
+	// building it on first use; benchmarks copy it before writing to it
+	static File getTemplate(int rows) throws IOException, SQLException {
+		File template = new File(System.getProperty("java.io.tmpdir"),
+				"moviecollection-bench-v" + MovieContract.SCHEMA_VERSION + "-"
+						+ rows + ".db");
+		if (!template.exists())
+			createTemplate(template, rows);
+		return template;
+	}
+
+	// open a connection configured as Android configures the app's: WAL
+	// with NORMAL syncs and autocommit per statement
+	static Connection connect(File file) throws SQLException {
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:"
+				+ file.getPath());
+		Statement statement = connection.createStatement();
+		try {
+			statement.execute("PRAGMA journal_mode=WAL");
+			statement.execute("PRAGMA synchronous=NORMAL");
+		} finally {
+			statement.close();
+		}
+		return connection;
+	}
+
+	// create the schema and rows movies in one transaction
+	private static void createTemplate(File template, int rows)
+			throws IOException, SQLException {
+		File building = new File(template.getPath() + ".tmp");
+		building.delete();
+
+		Connection connection = connect(building);
+		try {
+			connection.setAutoCommit(false);
+			Statement statement = connection.createStatement();
+			try {
+				for (String sql : MovieContract.SCHEMA)
+					statement.execute(sql);
+			} finally {
+				statement.close();
+			}
+
+			PreparedStatement insert = connection
+					.prepareStatement(MovieContract.INSERT_MOVIE);
+			try {
+				Random random = new Random(rows);
+				for (int i = 0; i < rows; ++i) {
+					bindMovie(insert, 1, random);
+					insert.executeUpdate();
+				}
+			} finally {
+				insert.close();
+			}
+			connection.commit();
+
+			connection.setAutoCommit(true);
+			statement = connection.createStatement();
+			try {
+				statement.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+			} finally {
+				statement.close();
+			}
+		} finally {
+			connection.close();
+		}
+
+		Files.move(building.toPath(), template.toPath(),
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+} // end class MovieCrudBenchmark
@@ -0,0 +1,155 @@
+// MovieQueryBenchmark.java
+// Latency of the filtered and sorted lists MovieQuery builds, run as
+// DatabaseConnector.queryMovies runs them, including its choice between
+// the filter's index and a scan of the sort's
+package com.example.moviecollection;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MovieQueryBenchmark {
+	private static final int LIMIT = 500; // as MovieListFragment's filters
+
+	// the populated template, read only, with statements compiled once per
+	// SQL string as Android's statement cache keeps them
+	@State(Scope.Thread)
+	public static class Database {
+		@Param({ "1000", "100000", "1000000" })
+		public int rows;
+
+		private Connection connection;
+		private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+		long rowCount;
+
+		@Setup(Level.Trial)
+		public void open() throws IOException, SQLException {
+			connection = MovieCrudBenchmark.connect(MovieCrudBenchmark
+					.getTemplate(rows));
+			ResultSet result = prepare(MovieContract.SELECT_MOVIE_COUNT)
+					.executeQuery();
+			try {
+				result.next();
+				rowCount = result.getLong(1);
+			} finally {
+				result.close();
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws SQLException {
+			connection.close();
+		}
+
+		PreparedStatement prepare(String sql) throws SQLException {
+			PreparedStatement statement = statements.get(sql);
+			if (statement == null) {
+				statement = connection.prepareStatement(sql);
+				statements.put(sql, statement);
+			}
+			return statement;
+		}
+	} // end class Database
+
+	@Benchmark
+	public void directorByTitle(Database database, Blackhole blackhole)
+			throws SQLException {
+		run(database, new MovieQuery().director("Kurosawa"), blackhole);
+	}
+
+	@Benchmark
+	public void decadeByYear(Database database, Blackhole blackhole)
+			throws SQLException {
+		run(database, new MovieQuery().yearBetween(1960, 1969).sortBy(
+				MovieQuery.Sort.YEAR, false), blackhole);
+	}
+
+	// a wide range sorted by another column: the scan of the sort's index
+	@Benchmark
+	public void yearsByRuntime(Database database, Blackhole blackhole)
+			throws SQLException {
+		run(database, new MovieQuery().yearBetween(1950, 2019).sortBy(
+				MovieQuery.Sort.RUNTIME, true), blackhole);
+	}
+
+	// a narrow range sorted by another column: the filter's index
+	@Benchmark
+	public void shortRuntimeByTitle(Database database, Blackhole blackhole)
+			throws SQLException {
+		run(database, new MovieQuery().runtimeBetween(80, 82), blackhole);
+	}
+
+	@Benchmark
+	public void yearAndRuntimeByYear(Database database, Blackhole blackhole)
+			throws SQLException {
+		run(database, new MovieQuery().yearBetween(1970, 1989)
+				.runtimeBetween(90, 120).sortBy(MovieQuery.Sort.YEAR, false),
+				blackhole);
+	}
+
+	@Benchmark
+	public void titlePrefixByDirector(Database database, Blackhole blackhole)
+			throws SQLException {
+		run(database, new MovieQuery().titleStartsWith("Star").sortBy(
+				MovieQuery.Sort.DIRECTOR, false), blackhole);
+	}
+
+	// as DatabaseConnector.queryMovies: count the matches up to the scan
+	// threshold, if a scan may win, then read the rows
+	private static void run(Database database, MovieQuery query,
+			Blackhole blackhole) throws SQLException {
+		query.limit(LIMIT);
+		String sql = query.getSql();
+		if (query.canScanInOrder()) {
+			long bound = query.getScanThreshold(database.rowCount);
+			PreparedStatement count = database.prepare(query.getCountSql());
+			bind(count, query.getCountArgs(bound));
+			ResultSet result = count.executeQuery();
+			try {
+				result.next();
+				if (result.getLong(1) >= bound)
+					sql = query.getScanSql();
+			} finally {
+				result.close();
+			}
+		}
+
+		PreparedStatement select = database.prepare(sql);
+		bind(select, query.getArgs());
+		ResultSet result = select.executeQuery();
+		try {
+			while (result.next()) {
+				blackhole.consume(result.getLong(1));
+				blackhole.consume(result.getString(2));
+			}
+		} finally {
+			result.close();
+		}
+	}
+
+	// bind strings, as SQLiteDatabase.rawQuery does
+	private static void bind(PreparedStatement statement, String[] args)
+			throws SQLException {
+		for (int i = 0; i < args.length; ++i)
+			statement.setString(i + 1, args[i]);
+	}
+} // end class MovieQueryBenchmark
@@ -0,0 +1,346 @@
+// SyncBenchmark.java
+// Time and bytes of a delta sync after a few edits on a fully synced
+// collection, run as SyncEngine runs it against an in-process SyncServer
+package com.example.moviecollection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SyncBenchmark {
+	private static final int EDITS = 5; // made on each side before a sync
+	private static final String OTHER_DEVICE = "other";
+	private static final int BATCH_SIZE = 500; // as SyncEngine, needs Android
+
+	// a synced copy of the template, the server, and a second device that
+	// edits movies through the server
+	@State(Scope.Thread)
+	public static class Database {
+		@Param({ "1000", "100000", "1000000" })
+		public int rows;
+
+		final Random random = new Random(42);
+		private File file;
+		Connection connection;
+		SyncServer server;
+		String device;
+		final Map<String, Long> otherVersions = new HashMap<String, Long>();
+
+		long syncs; // measured ones, and their bytes
+		long bytes;
+
+		// copy the template and push all of it, as a first sync does
+		@Setup(Level.Trial)
+		public void open() throws IOException, SQLException {
+			file = File.createTempFile("moviecollection-bench", ".db");
+			Files.copy(MovieCrudBenchmark.getTemplate(rows).toPath(), file
+					.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			connection = MovieCrudBenchmark.connect(file);
+			server = new SyncServer();
+
+			Statement statement = connection.createStatement();
+			try {
+				ResultSet result = statement
+						.executeQuery(MovieContract.SELECT_SYNC_DEVICE);
+				result.next();
+				device = result.getString(1);
+				result.close();
+			} finally {
+				statement.close();
+			}
+
+			long start = System.nanoTime();
+			long firstBytes = sync(this);
+			System.out.println(String.format(
+					"first sync of %d movies: %d bytes in %d ms", rows,
+					firstBytes, (System.nanoTime() - start) / 1000000));
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws SQLException {
+			System.out.println(String.format(
+					"%d edits on each side: %d bytes per sync", EDITS,
+					syncs == 0 ? 0 : bytes / syncs));
+			connection.close();
+			for (String suffix : new String[] { "", "-wal", "-shm" })
+				new File(file.getPath() + suffix).delete();
+		}
+
+		long randomId() {
+			return 1 + random.nextInt(rows);
+		}
+	} // end class Database
+
+	// edit here and on the other device, then sync
+	@Benchmark
+	public long syncAfterEdits(Database database) throws IOException,
+			SQLException {
+		PreparedStatement update = database.connection
+				.prepareStatement(MovieContract.UPDATE_MOVIE);
+		try {
+			for (int i = 0; i < EDITS; ++i) {
+				update.setString(1, "Edited " + database.random.nextInt());
+				update.setInt(2, 1920 + database.random.nextInt(100));
+				update.setString(3, "Varda");
+				update.setInt(4, 80 + database.random.nextInt(100));
+				update.setLong(5, database.randomId());
+				update.executeUpdate();
+			}
+		} finally {
+			update.close();
+		}
+
+		List<SyncProtocol.Change> changes = new ArrayList<SyncProtocol.Change>();
+		for (int i = 0; i < EDITS; ++i) {
+			String key = database.device + ":" + database.randomId();
+			Long version = database.otherVersions.get(key);
+			changes.add(new SyncProtocol.Change(key, version == null ? 1
+					: version, System.currentTimeMillis(), OTHER_DEVICE, i + 1,
+					new Movie("Remote " + database.random.nextInt(), 1999,
+							"Ozu", 120)));
+		}
+		SyncProtocol.Message pushed = SyncProtocol.decode(database.server
+				.exchange(SyncProtocol.encode(SyncProtocol.Message.push(
+						OTHER_DEVICE, changes))));
+		for (SyncProtocol.Change change : pushed.acknowledgments)
+			database.otherVersions.put(change.key, change.version);
+
+		long bytes = sync(database);
+		++database.syncs;
+		database.bytes += bytes;
+		return bytes;
+	}
+
+	// as SyncEngine.sync: push pending changes a batch at a time, then
+	// pull from the watermark; return the bytes sent and received
+	private static long sync(Database database) throws IOException,
+			SQLException {
+		long bytes = 0;
+		List<SyncProtocol.Change> pending;
+		long afterSequence = 0;
+		do {
+			pending = getPendingChanges(database, afterSequence);
+			if (pending.isEmpty())
+				break;
+
+			byte[] request = SyncProtocol.encode(SyncProtocol.Message.push(
+					database.device, pending));
+			byte[] answer = database.server.exchange(request);
+			bytes += request.length + answer.length;
+			SyncProtocol.Message response = SyncProtocol.decode(answer);
+			acknowledge(database, response.acknowledgments);
+			apply(database, response.changes, -1);
+			afterSequence = pending.get(pending.size() - 1).sequence;
+		} while (pending.size() == BATCH_SIZE);
+
+		long watermark = queryLong(database.connection,
+				MovieContract.SELECT_SYNC_PULLED);
+		SyncProtocol.Message response;
+		do {
+			byte[] request = SyncProtocol.encode(SyncProtocol.Message.pull(
+					database.device, watermark, BATCH_SIZE));
+			byte[] answer = database.server.exchange(request);
+			bytes += request.length + answer.length;
+			response = SyncProtocol.decode(answer);
+			apply(database, response.changes, response.position);
+			watermark = response.position;
+		} while (response.more);
+		return bytes;
+	}
+
+	private static List<SyncProtocol.Change> getPendingChanges(
+			Database database, long afterSequence) throws SQLException {
+		PreparedStatement select = database.connection
+				.prepareStatement(MovieContract.SELECT_PENDING_CHANGES);
+		try {
+			select.setLong(1, afterSequence);
+			select.setInt(2, BATCH_SIZE);
+			ResultSet result = select.executeQuery();
+			List<SyncProtocol.Change> changes = new ArrayList<SyncProtocol.Change>();
+			while (result.next()) {
+				Movie movie = result.getInt(5) != 0 ? null : new Movie(result
+						.getString(6), result.getInt(7), result.getString(8),
+						result.getInt(9));
+				changes.add(new SyncProtocol.Change(result.getString(2), result
+						.getLong(3), result.getLong(4), database.device, result
+						.getLong(1), movie));
+			}
+			return changes;
+		} finally {
+			select.close();
+		}
+	}
+
+	private static void acknowledge(Database database,
+			List<SyncProtocol.Change> acknowledgments) throws SQLException {
+		Connection connection = database.connection;
+		connection.setAutoCommit(false);
+		PreparedStatement acknowledge = connection
+				.prepareStatement(MovieContract.ACKNOWLEDGE_CHANGE);
+		try {
+			for (SyncProtocol.Change change : acknowledgments) {
+				acknowledge.setLong(1, change.version);
+				acknowledge.setLong(2, change.sequence);
+				acknowledge.setString(3, change.key);
+				acknowledge.executeUpdate();
+			}
+			connection.commit();
+		} finally {
+			acknowledge.close();
+			connection.setAutoCommit(true);
+		}
+	}
+
+	// as DatabaseConnector.applyRemoteChanges
+	private static void apply(Database database,
+			List<SyncProtocol.Change> changes, long watermark)
+			throws SQLException {
+		Connection connection = database.connection;
+		connection.setAutoCommit(false);
+		try {
+			execute(connection, MovieContract.SET_SYNC_APPLYING, 1);
+			for (SyncProtocol.Change change : changes)
+				applyChange(connection, change, database.device);
+			if (watermark >= 0)
+				execute(connection, MovieContract.SET_SYNC_PULLED, watermark);
+			execute(connection, MovieContract.SET_SYNC_APPLYING, 0);
+			connection.commit();
+		} finally {
+			connection.setAutoCommit(true);
+		}
+	}
+
+	// as DatabaseConnector.applyRemoteChange
+	private static void applyChange(Connection connection,
+			SyncProtocol.Change change, String device) throws SQLException {
+		long id;
+		PreparedStatement select = connection
+				.prepareStatement(MovieContract.SELECT_SYNC_VERSION);
+		try {
+			select.setString(1, change.key);
+			ResultSet result = select.executeQuery();
+			if (!result.next()) {
+				if (change.isDeleted())
+					return;
+				PreparedStatement insert = connection.prepareStatement(
+						MovieContract.INSERT_MOVIE,
+						Statement.RETURN_GENERATED_KEYS);
+				try {
+					bindMovie(insert, 1, change.movie);
+					insert.executeUpdate();
+					ResultSet keys = insert.getGeneratedKeys();
+					keys.next();
+					id = keys.getLong(1);
+				} finally {
+					insert.close();
+				}
+			} else {
+				id = result.getLong(1);
+				if (change.version <= result.getLong(2))
+					return;
+				if (result.getLong(4) != 0
+						&& !change.isNewerThan(result.getLong(3), device)) {
+					execute(connection, MovieContract.REBASE_SYNC_VERSION,
+							change.version, change.key);
+					return;
+				}
+
+				boolean wasDeleted = result.getInt(5) != 0;
+				if (change.isDeleted()) {
+					if (!wasDeleted)
+						execute(connection, MovieContract.DELETE_MOVIE, id);
+				} else if (wasDeleted) {
+					execute(connection, MovieContract.FORGET_DELETED_MOVIE, id);
+					PreparedStatement restore = connection
+							.prepareStatement(MovieContract.RESTORE_MOVIE);
+					try {
+						restore.setLong(1, id);
+						bindMovie(restore, 2, change.movie);
+						restore.executeUpdate();
+					} finally {
+						restore.close();
+					}
+				} else {
+					PreparedStatement update = connection
+							.prepareStatement(MovieContract.UPDATE_MOVIE);
+					try {
+						bindMovie(update, 1, change.movie);
+						update.setLong(5, id);
+						update.executeUpdate();
+					} finally {
+						update.close();
+					}
+				}
+			}
+		} finally {
+			select.close();
+		}
+		execute(connection, MovieContract.PUT_SYNC_VERSION, id, change.key,
+				change.version, change.changedAt, change.isDeleted() ? 1 : 0);
+	}
+
+	// bind movie to four parameters from first, NULL for unknown numbers
+	private static void bindMovie(PreparedStatement statement, int first,
+			Movie movie) throws SQLException {
+		statement.setString(first, movie.getTitle());
+		if (movie.getYear() == Movie.UNKNOWN)
+			statement.setNull(first + 1, Types.INTEGER);
+		else
+			statement.setInt(first + 1, movie.getYear());
+		statement.setString(first + 2, movie.getDirector());
+		if (movie.getRuntime() == Movie.UNKNOWN)
+			statement.setNull(first + 3, Types.INTEGER);
+		else
+			statement.setInt(first + 3, movie.getRuntime());
+	}
+
+	private static void execute(Connection connection, String sql,
+			Object... args) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(sql);
+		try {
+			for (int i = 0; i < args.length; ++i)
+				statement.setObject(i + 1, args[i]);
+			statement.executeUpdate();
+		} finally {
+			statement.close();
+		}
+	}
+
+	private static long queryLong(Connection connection, String sql)
+			throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			ResultSet result = statement.executeQuery(sql);
+			result.next();
+			return result.getLong(1);
+		} finally {
+			statement.close();
+		}
+	}
+} // end class SyncBenchmark
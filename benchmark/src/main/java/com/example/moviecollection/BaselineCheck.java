@@ -0,0 +1,136 @@
+// BaselineCheck.java
+// Compares JMH CSV results with the checked-in baseline and fails when a
+// score regressed by more than a threshold
+package com.example.moviecollection;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BaselineCheck {
+	// usage: BaselineCheck baseline.csv results.csv threshold
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3) {
+			System.err.println("usage: BaselineCheck <baseline.csv> "
+					+ "<results.csv> <threshold>");
+			System.exit(2);
+		}
+
+		Map<String, Score> baseline = read(args[0]);
+		Map<String, Score> results = read(args[1]);
+		double threshold = Double.parseDouble(args[2]);
+
+		int regressions = 0;
+		for (Map.Entry<String, Score> entry : results.entrySet()) {
+			Score current = entry.getValue();
+			Score expected = baseline.get(entry.getKey());
+			if (expected == null) {
+				System.out.println("NEW        " + entry.getKey() + " "
+						+ current);
+				continue;
+			}
+
+			// positive change is an improvement whatever the unit
+			double change = current.higherIsBetter() ? current.value
+					/ expected.value - 1 : expected.value / current.value - 1;
+			boolean regressed = change < -threshold;
+			if (regressed)
+				++regressions;
+
+			System.out.println(String.format("%-10s %s %s (baseline %s, %+.1f%%)",
+					regressed ? "REGRESSED" : "ok", entry.getKey(), current,
+					expected, change * 100));
+		}
+
+		if (regressions != 0) {
+			System.err.println(regressions + " score(s) regressed by more than "
+					+ Math.round(threshold * 100) + "%");
+			System.exit(1);
+		}
+	}
+
+	// read the primary scores of a JMH CSV file, keyed by benchmark, mode
+	// and parameters; the percentile rows of a sample run (".p0.99" and
+	// the like) are skipped
+	private static Map<String, Score> read(String path) throws IOException {
+		Map<String, Score> scores = new LinkedHashMap<String, Score>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(path), "UTF-8"));
+
+		try {
+			List<String> header = split(reader.readLine());
+			int benchmark = header.indexOf("Benchmark");
+			int mode = header.indexOf("Mode");
+			int score = header.indexOf("Score");
+			int unit = header.indexOf("Unit");
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				List<String> fields = split(line);
+				String name = fields.get(benchmark);
+				if (name.indexOf(':') != -1)
+					continue;
+
+				StringBuilder key = new StringBuilder(name.substring(name
+						.lastIndexOf('.') + 1));
+				key.append(' ').append(fields.get(mode));
+				for (int i = 0; i < header.size(); ++i)
+					if (header.get(i).startsWith("Param: "))
+						key.append(' ').append(header.get(i).substring(7))
+								.append('=').append(fields.get(i));
+
+				scores.put(key.toString(), new Score(Double.parseDouble(fields
+						.get(score)), fields.get(unit)));
+			}
+		} finally {
+			reader.close();
+		}
+		return scores;
+	}
+
+	// split a CSV line, removing the quotes around fields
+	private static List<String> split(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+
+		for (int i = 0; i < line.length(); ++i) {
+			char c = line.charAt(i);
+			if (c == '"')
+				quoted = !quoted;
+			else if (c == ',' && !quoted) {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else
+				field.append(c);
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	// one score and its unit, e.g. ops/ms or ms/op
+	private static class Score {
+		final double value;
+		final String unit;
+
+		Score(double value, String unit) {
+			this.value = value;
+			this.unit = unit;
+		}
+
+		// throughput units count operations per unit of time
+		boolean higherIsBetter() {
+			return unit.startsWith("ops/");
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%.4f %s", value, unit);
+		}
+	} // end class Score
+} // end class BaselineCheck
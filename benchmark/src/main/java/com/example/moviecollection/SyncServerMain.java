@@ -0,0 +1,63 @@
+// SyncServerMain.java
+// Serves an in-memory SyncServer at /sync on a local port, as a stand-in
+// for the real server while developing and testing sync
+package com.example.moviecollection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class SyncServerMain {
+	// usage: SyncServerMain [port]
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		final SyncServer server = new SyncServer();
+
+		HttpServer http = HttpServer.create(new InetSocketAddress(port), 0);
+		http.createContext("/sync", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					byte[] response;
+					int status = 200;
+					try {
+						response = server.exchange(readFully(exchange
+								.getRequestBody()));
+					} catch (IOException e) {
+						response = e.toString().getBytes("UTF-8");
+						status = 400;
+					}
+
+					exchange.sendResponseHeaders(status, response.length);
+					OutputStream output = exchange.getResponseBody();
+					output.write(response);
+					output.close();
+					System.out.println(String.format(
+							"%d: %d movies, %d bytes in, %d bytes out", status,
+							server.size(), server.getBytesReceived(),
+							server.getBytesSent()));
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		http.start();
+		System.out.println("Sync stand-in at http://localhost:" + port
+				+ "/sync");
+	}
+
+	private static byte[] readFully(InputStream input) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = input.read(buffer)) != -1)
+			bytes.write(buffer, 0, read);
+		return bytes.toByteArray();
+	}
+} // end class SyncServerMain
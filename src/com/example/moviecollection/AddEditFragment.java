@@ -2,14 +2,19 @@
 // Allows user to add a new contact or edit an existing one
 package com.example.moviecollection;
 
+import java.util.List;
+
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
 import android.app.Fragment;
 import android.content.Context;
-import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
@@ -17,6 +22,7 @@ import android.view.ViewGroup;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.TextView;
 
 public class AddEditFragment extends Fragment {
 	// callback method implemented by MainActivity
@@ -36,6 +42,12 @@ public class AddEditFragment extends Fragment {
 	private EditText directorEditText;
 	private EditText runtimeEditText;
 
+	private static final long DUPLICATE_DELAY_MS = 250; // typing pause
+	private static final int DUPLICATES_SHOWN = 3;
+	private TextView duplicateTextView; // warns of likely duplicates
+	private TaskScheduler.Handle duplicateHandle; // latest check, if running
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
 	// set AddEditFragmentListener when Fragment attached
 	@Override
 	public void onAttach(Activity activity) {
@@ -50,6 +62,14 @@ public class AddEditFragment extends Fragment {
 		listener = null;
 	}
 
+	// the fragment is going away, so nobody will show the save's result
+	@Override
+	public void onDestroy() {
+		handler.removeCallbacks(duplicateRunnable);
+		TaskScheduler.getInstance().cancelAll(this);
+		super.onDestroy();
+	}
+
 	// called when Fragment's view needs to be created
 	@Override
 	public View onCreateView(LayoutInflater inflater, ViewGroup container,
@@ -76,27 +96,124 @@ public class AddEditFragment extends Fragment {
 			runtimeEditText.setText(movieInfoBundle.getString("runtime"));
 		}
 
+		// look for duplicates as the title or year is typed
+		duplicateTextView = (TextView) view
+				.findViewById(R.id.duplicateTextView);
+		titleEditText.addTextChangedListener(duplicateWatcher);
+		yearEditText.addTextChangedListener(duplicateWatcher);
+
 		// set Save Contact Button's event listener
 		Button saveMovieButton = (Button) view.findViewById(R.id.saveMovie);
 		saveMovieButton.setOnClickListener(saveMovieButtonClicked);
 		return view;
 	}
 
+	// checks for duplicates once the user pauses typing
+	TextWatcher duplicateWatcher = new TextWatcher() {
+		@Override
+		public void afterTextChanged(Editable text) {
+			handler.removeCallbacks(duplicateRunnable); // debounce keystrokes
+			handler.postDelayed(duplicateRunnable, DUPLICATE_DELAY_MS);
+		}
+
+		@Override
+		public void beforeTextChanged(CharSequence text, int start,
+				int count, int after) {
+		}
+
+		@Override
+		public void onTextChanged(CharSequence text, int start, int before,
+				int count) {
+		}
+	}; // end duplicateWatcher
+
+	private final Runnable duplicateRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if (getActivity() == null)
+				return;
+
+			// a newer check replaces an older one, whose result is stale;
+			// checks of different titles never share a result
+			if (duplicateHandle != null) {
+				duplicateHandle.cancel();
+				duplicateHandle = null;
+			}
+
+			String title = titleEditText.getText().toString().trim();
+			if (title.length() == 0) {
+				duplicateTextView.setVisibility(View.GONE);
+				return;
+			}
+
+			duplicateHandle = TaskScheduler.getInstance().submit(
+					AddEditFragment.this, null, TaskScheduler.PRIORITY_UI_READ,
+					new DuplicateTask(title, Movie.parseYear(yearEditText
+							.getText().toString())));
+		}
+	};
+
+	// looks up likely duplicates outside GUI thread
+	private class DuplicateTask extends
+			TaskScheduler.Task<List<TitleIndex.Match>> {
+		DatabaseConnector databaseConnector = new DatabaseConnector(
+				getActivity());
+		private final String title;
+		private final int year;
+		private final long excludeId; // the movie being edited
+
+		public DuplicateTask(String title, int year) {
+			this.title = title;
+			this.year = year;
+			this.excludeId = movieInfoBundle == null ? -1 : rowID;
+		}
+
+		// the first check reads every title into the index
+		@Override
+		protected List<TitleIndex.Match> doInBackground() {
+			return databaseConnector.getTitleIndex().findSimilar(title, year,
+					excludeId, TitleIndex.DEFAULT_THRESHOLD,
+					DUPLICATES_SHOWN);
+		}
+
+		// name the likely duplicates, or hide the warning if there are none
+		@Override
+		protected void onResult(List<TitleIndex.Match> matches) {
+			duplicateHandle = null;
+			if (matches.isEmpty()) {
+				duplicateTextView.setVisibility(View.GONE);
+				return;
+			}
+
+			StringBuilder titles = new StringBuilder();
+			for (TitleIndex.Match match : matches) {
+				if (titles.length() != 0)
+					titles.append(", ");
+				titles.append(match.title);
+				if (match.year != Movie.UNKNOWN)
+					titles.append(" (").append(match.year).append(')');
+			}
+			duplicateTextView.setText(getResources().getString(
+					R.string.duplicate_warning, titles));
+			duplicateTextView.setVisibility(View.VISIBLE);
+		}
+	} // end class DuplicateTask
+
 	// responds to event generated when user saves a movie
 	OnClickListener saveMovieButtonClicked = new OnClickListener() {
 		@Override
 		public void onClick(View v) {
 			if (titleEditText.getText().toString().trim().length() != 0) {
-				// AsyncTask to save contact, then notify listener
-				AsyncTask<Object, Object, Object> saveMovieTask = new AsyncTask<Object, Object, Object>() {
+				// task to save contact, then notify listener
+				TaskScheduler.Task<Object> saveMovieTask = new TaskScheduler.Task<Object>() {
 					@Override
-					protected Object doInBackground(Object... params) {
+					protected Object doInBackground() {
 						saveMovie(); // save contact to the database
 						return null;
 					}
 
 					@Override
-					protected void onPostExecute(Object result) {
+					protected void onResult(Object result) {
 						// hide soft keyboard
 						InputMethodManager imm = (InputMethodManager) getActivity()
 								.getSystemService(Context.INPUT_METHOD_SERVICE);
@@ -105,10 +222,11 @@ public class AddEditFragment extends Fragment {
 
 						listener.onAddEditCompleted(rowID);
 					}
-				}; // end AsyncTask
+				}; // end Task
 
 				// save the contact to the database using a separate thread
-				saveMovieTask.execute((Object[]) null);
+				TaskScheduler.getInstance().submit(AddEditFragment.this, null,
+						TaskScheduler.PRIORITY_WRITE, saveMovieTask);
 			} else // required contact name is blank, so display error dialog
 			{
 				DialogFragment errorSaving = new DialogFragment() {
@@ -127,24 +245,16 @@ public class AddEditFragment extends Fragment {
 		} // end method onClick
 	}; // end OnClickListener saveContactButtonClicked
 
-	// saves contact information to the database
+	// journals the contact information, and the database catches up
+	// shortly; a new movie is inserted at once and gets its row ID here
 	private void saveMovie() {
-		// get DatabaseConnector to interact with the SQLite database
-		DatabaseConnector databaseConnector = new DatabaseConnector(
-				getActivity());
+		if (movieInfoBundle == null)
+			rowID = -1; // not in the database yet
 
-		if (movieInfoBundle == null) {
-			// insert the contact information into the database
-			rowID = databaseConnector.insertMovie(titleEditText.getText()
-					.toString(), yearEditText.getText().toString(),
-					directorEditText.getText().toString(), runtimeEditText
-							.getText().toString());
-		} else {
-			databaseConnector.updateMovie(rowID, titleEditText.getText()
-					.toString(), yearEditText.getText().toString(),
-					directorEditText.getText().toString(), runtimeEditText
-							.getText().toString());
-		}
+		rowID = SaveJournal.getInstance(getActivity()).save(
+				DatabaseConnector.toMovie(rowID, titleEditText.getText()
+						.toString(), yearEditText.getText().toString(),
+						directorEditText.getText().toString(), runtimeEditText
+								.getText().toString()));
 	} // end method saveContact
 } // end class AddEditFragment
-
@@ -0,0 +1,141 @@
+// BitmapCache.java
+// Byte-bounded LRU of decoded posters, plus evicted bitmaps that no view
+// shows any more, which decodes of the same size reuse through inBitmap
+package com.example.moviecollection;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.LruCache;
+
+public class BitmapCache {
+	private static final int MAX_REUSABLE = 8; // evicted bitmaps kept
+
+	private final LruCache<String, Bitmap> cache;
+
+	// main thread: how many views show each bitmap, and evicted bitmaps
+	// waiting for their last view to let go before they can be reused
+	private final Map<Bitmap, Integer> displayed = new IdentityHashMap<Bitmap, Integer>();
+	private final Map<Bitmap, Boolean> evictedWhileDisplayed = new IdentityHashMap<Bitmap, Boolean>();
+
+	// bitmaps free for reuse; taken by decoding threads
+	private final List<Bitmap> reusable = new ArrayList<Bitmap>();
+
+	// constructor; maxBytes bounds the pixels held, not the entries
+	public BitmapCache(int maxBytes) {
+		cache = new LruCache<String, Bitmap>(maxBytes) {
+			@Override
+			protected int sizeOf(String key, Bitmap bitmap) {
+				return bitmap.getByteCount();
+			}
+
+			@Override
+			protected void entryRemoved(boolean evicted, String key,
+					Bitmap oldBitmap, Bitmap newBitmap) {
+				if (oldBitmap != newBitmap)
+					released(oldBitmap);
+			}
+		};
+	}
+
+	public Bitmap get(String key) {
+		return cache.get(key);
+	}
+
+	// call on the main thread
+	public void put(String key, Bitmap bitmap) {
+		cache.put(key, bitmap);
+	}
+
+	// drop every entry whose key starts with prefix; call on the main
+	// thread
+	public void removeAll(String prefix) {
+		for (String key : cache.snapshot().keySet())
+			if (key.startsWith(prefix))
+				cache.remove(key);
+	}
+
+	// a view started showing bitmap; call on the main thread
+	public void attach(Bitmap bitmap) {
+		Integer count = displayed.get(bitmap);
+		displayed.put(bitmap, count == null ? 1 : count + 1);
+	}
+
+	// a view stopped showing bitmap; call on the main thread
+	public void detach(Bitmap bitmap) {
+		Integer count = displayed.get(bitmap);
+		if (count == null)
+			return;
+
+		if (count > 1)
+			displayed.put(bitmap, count - 1);
+		else {
+			displayed.remove(bitmap);
+			if (evictedWhileDisplayed.remove(bitmap) != null)
+				addReusable(bitmap);
+		}
+	}
+
+	// return a bitmap a decode of width x height pixels in config can
+	// draw into, or null
+	public Bitmap takeReusable(int width, int height, Bitmap.Config config) {
+		synchronized (reusable) {
+			for (Iterator<Bitmap> iterator = reusable.iterator(); iterator
+					.hasNext();) {
+				Bitmap bitmap = iterator.next();
+				if (canReuse(bitmap, width, height, config)) {
+					iterator.remove();
+					return bitmap;
+				}
+			}
+		}
+		return null;
+	}
+
+	// hits, misses and size, for diagnostics
+	@Override
+	public String toString() {
+		return cache.toString() + " bytes=" + cache.size();
+	}
+
+	// the cache let go of bitmap; reuse it once no view shows it
+	private void released(Bitmap bitmap) {
+		if (displayed.containsKey(bitmap))
+			evictedWhileDisplayed.put(bitmap, Boolean.TRUE);
+		else
+			addReusable(bitmap);
+	}
+
+	// only mutable bitmaps can be decoded into
+	private void addReusable(Bitmap bitmap) {
+		if (!bitmap.isMutable())
+			return;
+
+		synchronized (reusable) {
+			if (reusable.size() == MAX_REUSABLE)
+				reusable.remove(0);
+			reusable.add(bitmap);
+		}
+	}
+
+	// before KitKat inBitmap needs the exact size; since then any
+	// allocation that is large enough will do
+	@TargetApi(Build.VERSION_CODES.KITKAT)
+	private static boolean canReuse(Bitmap bitmap, int width, int height,
+			Bitmap.Config config) {
+		if (bitmap.getConfig() != config)
+			return false;
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT)
+			return bitmap.getWidth() == width && bitmap.getHeight() == height;
+
+		int bytesPerPixel = config == Bitmap.Config.ARGB_8888 ? 4 : 2;
+		return bitmap.getAllocationByteCount() >= width * height
+				* bytesPerPixel;
+	}
+} // end class BitmapCache
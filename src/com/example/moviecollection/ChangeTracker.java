@@ -0,0 +1,115 @@
+// ChangeTracker.java
+// Counts committed changes to the movies table and publishes a change URI
+// for each changed row
+package com.example.moviecollection;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.net.Uri;
+
+public class ChangeTracker {
+	// notified for every change; row URIs are MOVIES_URI/<_id>
+	public static final Uri MOVIES_URI = Uri
+			.parse("content://com.example.moviecollection/movies");
+
+	private static final int LOG_SIZE = 256; // row changes remembered
+	private static final int MAX_ROW_NOTIFICATIONS = 32; // per commit
+
+	private final ContentResolver resolver;
+
+	private long generation; // number of committed writes so far
+
+	// ring buffer of recent (generation, _id) changes
+	private final long[] logGenerations = new long[LOG_SIZE];
+	private final long[] logIds = new long[LOG_SIZE];
+	private int logNext; // slot for the next entry
+	private int logSize; // entries in use
+
+	// every change after this generation is in the log
+	private long coveredFrom;
+
+	// constructor
+	public ChangeTracker(Context context) {
+		resolver = context.getApplicationContext().getContentResolver();
+	}
+
+	// return the current generation; it grows with every committed write
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	// record a committed change to one row
+	public void rowChanged(long id) {
+		rowsChanged(new long[] { id });
+	}
+
+	// record one commit that changed the given rows
+	public void rowsChanged(long[] ids) {
+		synchronized (this) {
+			++generation;
+			for (long id : ids) {
+				if (logSize == LOG_SIZE) // overwriting the oldest entry
+					coveredFrom = Math.max(coveredFrom, logGenerations[logNext]);
+				else
+					++logSize;
+
+				logGenerations[logNext] = generation;
+				logIds[logNext] = id;
+				logNext = (logNext + 1) % LOG_SIZE;
+			}
+		}
+
+		// notify outside the lock; large batches publish the table URI
+		if (ids.length > MAX_ROW_NOTIFICATIONS)
+			resolver.notifyChange(MOVIES_URI, null);
+		else
+			for (long id : ids)
+				resolver.notifyChange(ContentUris.withAppendedId(MOVIES_URI, id),
+						null);
+	}
+
+	// record a commit whose changed rows are not known, such as an import
+	public void tableChanged() {
+		synchronized (this) {
+			++generation;
+			coveredFrom = generation; // earlier generations can't be patched
+		}
+		resolver.notifyChange(MOVIES_URI, null);
+	}
+
+	// return the IDs of rows changed after generation, or null if they are
+	// no longer known and the caller must reload everything
+	public synchronized long[] getChangesSince(long since) {
+		if (since < coveredFrom)
+			return null;
+
+		Set<Long> changed = new LinkedHashSet<Long>();
+		for (int i = 0; i < logSize; ++i) {
+			int slot = (logNext - logSize + i + LOG_SIZE) % LOG_SIZE;
+			if (logGenerations[slot] > since)
+				changed.add(logIds[slot]);
+		}
+
+		long[] ids = new long[changed.size()];
+		int i = 0;
+		for (long id : changed)
+			ids[i++] = id;
+		return ids;
+	}
+
+	// true if row id may have changed after generation since
+	public boolean hasRowChangedSince(long id, long since) {
+		long[] changed = getChangesSince(since);
+		if (changed == null)
+			return true;
+
+		for (long changedId : changed)
+			if (changedId == id)
+				return true;
+		return false;
+	}
+} // end class ChangeTracker
@@ -0,0 +1,34 @@
+// CollectionStats.java
+// Totals for the whole movie collection
+package com.example.moviecollection;
+
+public class CollectionStats {
+	private final int movies; // number of movies
+	private final long totalRuntime; // minutes, over movies with a runtime
+	private final int timedMovies; // movies with a runtime
+
+	// constructor
+	public CollectionStats(int movies, long totalRuntime, int timedMovies) {
+		this.movies = movies;
+		this.totalRuntime = totalRuntime;
+		this.timedMovies = timedMovies;
+	}
+
+	public int getMovies() {
+		return movies;
+	}
+
+	public long getTotalRuntime() {
+		return totalRuntime;
+	}
+
+	public int getTimedMovies() {
+		return timedMovies;
+	}
+
+	// mean runtime in minutes of the movies that have one, or Movie.UNKNOWN
+	public int getAverageRuntime() {
+		return timedMovies == 0 ? Movie.UNKNOWN
+				: (int) (totalRuntime / timedMovies);
+	}
+} // end class CollectionStats
@@ -2,98 +2,1590 @@
 // Provides easy connection and creation of UserContacts database.
 package com.example.moviecollection;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.database.sqlite.SQLiteDatabase.CursorFactory;
 
 public class DatabaseConnector {
 	// database name
 	private static final String DATABASE_NAME = "MoviesDB";
+	static final int DATABASE_VERSION = MovieContract.SCHEMA_VERSION;
+
+	// rows written per transaction by the bulk methods
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	// how long the list offers to undo a delete; maintenance purges deleted
+	// movies only once this has passed
+	public static final long UNDO_WINDOW_MS = 10 * 1000;
+
+	// PRAGMA auto_vacuum value of a database in incremental mode
+	private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+	// one helper, connection and scheduler shared by the whole process
+	private static DatabaseOpenHelper databaseOpenHelper; // creates the database
+	private static SQLiteDatabase sharedDatabase; // stays open once opened
+	private static final int SQL_CACHE_SIZE = 100; // the most Android allows
+	private static final DatabaseScheduler scheduler = new DatabaseScheduler();
+	private static ChangeTracker changeTracker; // publishes committed changes
+	private static final Profiler profiler = Profiler.getInstance();
+
+	// recently read movies; writes below replace or drop their entries
+	private static final int CACHED_MOVIES = 500;
+	private static final MovieCache movieCache = new MovieCache(
+			CACHED_MOVIES, false);
+
+	// each database thread's DAO and row holder, so statements compiled
+	// on one thread are never bound concurrently by another
+	private static final ThreadLocal<MovieDao> daos = new ThreadLocal<MovieDao>();
+	private static final ThreadLocal<MovieDao.Row> rows = new ThreadLocal<MovieDao.Row>() {
+		@Override
+		protected MovieDao.Row initialValue() {
+			return new MovieDao.Row();
+		}
+	};
+
+	// normalized titles for duplicate warnings; loaded on first use, then
+	// kept current by every write below
+	private static final TitleIndex titleIndex = new TitleIndex();
+	private static final Object titleIndexLoad = new Object();
+	private static final int TITLE_PAGE_SIZE = 8192; // rows per load query
+
+	private static long lastDeletedAt; // deleted_at of the latest delete
 
 	private SQLiteDatabase database; // for interacting with the database
-	private DatabaseOpenHelper databaseOpenHelper; // creates the database
 
 	// public constructor for DatabaseConnector
 	public DatabaseConnector(Context context) {
-		// create a new DatabaseOpenHelper
-		databaseOpenHelper = new DatabaseOpenHelper(context, DATABASE_NAME,
-				null, 1);
+		initialize(context);
+	}
+
+	// create the shared DatabaseOpenHelper and ChangeTracker on first use
+	private static synchronized void initialize(Context context) {
+		if (databaseOpenHelper == null) {
+			databaseOpenHelper = new DatabaseOpenHelper(
+					context.getApplicationContext(), DATABASE_NAME, null,
+					DATABASE_VERSION);
+			changeTracker = new ChangeTracker(context);
+		}
+	}
+
+	// open the database, running any upgrade, and compile the writer's
+	// statements on the writer thread, so a cold start does this while its
+	// views are inflated instead of in front of the first query
+	public static void warmUp(Context context) {
+		initialize(context);
+		scheduler.submitWrite(timed("warmUp", new Callable<Void>() {
+			@Override
+			public Void call() {
+				getDao();
+				StartupTrace.mark("databaseOpen");
+				return null;
+			}
+		}));
+	}
+
+	// return the process-wide connection, opening it with WAL if needed
+	private static synchronized SQLiteDatabase getSharedDatabase()
+			throws SQLException {
+		if (sharedDatabase == null || !sharedDatabase.isOpen()) {
+			long start = System.nanoTime();
+			sharedDatabase = databaseOpenHelper.getWritableDatabase();
+			sharedDatabase.enableWriteAheadLogging(); // readers skip writers
+			// keep every MovieQuery shape's statement compiled
+			sharedDatabase.setMaxSqlCacheSize(SQL_CACHE_SIZE);
+			profiler.connectionOpened();
+			profiler.record("connection.open", start, -1);
+		}
+		return sharedDatabase;
+	}
+
+	// return the calling thread's DAO over the shared connection; call only
+	// from tasks run by the scheduler
+	private static MovieDao getDao() {
+		SQLiteDatabase db = getSharedDatabase();
+		MovieDao dao = daos.get();
+		if (dao == null || !dao.isFor(db)) { // first use or reopened
+			dao = new MovieDao(db);
+			daos.set(dao);
+		}
+		return dao;
+	}
+
+	// run a query on the shared connection and fill its window on this
+	// thread, timing the two steps separately; call only from tasks run by
+	// the scheduler
+	private static Cursor query(String operation, String sql, String[] args) {
+		long start = System.nanoTime();
+		Cursor cursor = getSharedDatabase().rawQuery(sql, args);
+		long filling = System.nanoTime();
+		int rows = cursor.getCount(); // fill the window on the reader thread
+		long end = System.nanoTime();
+
+		profiler.windowFilled();
+		profiler.get(operation + ".query").record(filling - start, -1);
+		profiler.get(operation + ".fill").record(end - filling, rows);
+		if (profiler.shouldCapturePlan(end - start))
+			profiler.recordPlan(sql, end - start, explain(sql, args));
+		return cursor;
+	}
+
+	// return the EXPLAIN QUERY PLAN rows of sql, one per line
+	private static String explain(String sql, String[] args) {
+		StringBuilder plan = new StringBuilder();
+		Cursor cursor = getSharedDatabase().rawQuery(
+				"EXPLAIN QUERY PLAN " + sql, args);
+		try {
+			int detail = cursor.getColumnIndex("detail");
+			while (cursor.moveToNext())
+				plan.append("  ").append(cursor.getString(detail)).append('\n');
+		} finally {
+			cursor.close();
+		}
+		return plan.toString();
+	}
+
+	// wrap task so each run is recorded under operation; an Integer result
+	// is counted as the number of rows written
+	private static <T> Callable<T> timed(final String operation,
+			final Callable<T> task) {
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				long start = System.nanoTime();
+				T result = task.call();
+				profiler.record(operation, start,
+						result instanceof Integer ? (Integer) result : -1);
+				return result;
+			}
+		};
+	}
+
+	// scheduler that serializes writes and pools reads
+	public static DatabaseScheduler getScheduler() {
+		return scheduler;
+	}
+
+	// cache of Movie records, for its statistics
+	public static MovieCache getMovieCache() {
+		return movieCache;
+	}
+
+	// return the title index, reading every title first if no one has;
+	// call off the main thread, and never on a database thread
+	public TitleIndex getTitleIndex() {
+		synchronized (titleIndexLoad) {
+			if (!titleIndex.isLoaded()) {
+				long start = System.nanoTime();
+				titleIndex.beginLoad();
+				long afterId = 0;
+				int pageRows;
+				do {
+					Cursor cursor = getMoviesById(afterId, TITLE_PAGE_SIZE);
+					try {
+						pageRows = cursor.getCount();
+						while (cursor.moveToNext()) {
+							afterId = cursor.getLong(0);
+							titleIndex.load(afterId, cursor.getString(1),
+									cursor.getInt(2));
+						}
+					} finally {
+						cursor.close();
+					}
+				} while (pageRows == TITLE_PAGE_SIZE);
+				titleIndex.finishLoad();
+				profiler.record("loadTitleIndex", start, -1);
+			}
+		}
+		return titleIndex;
+	}
+
+	// the title index as it is, loaded or not, for its statistics
+	public static TitleIndex getLoadedTitleIndex() {
+		return titleIndex;
+	}
+
+	// tracker of changes committed through any DatabaseConnector
+	public static ChangeTracker getChangeTracker(Context context) {
+		initialize(context);
+		return changeTracker;
 	}
 
 	// open the database connection
 	public void open() throws SQLException {
-		// create or open a database for reading/writing
-		database = databaseOpenHelper.getWritableDatabase();
+		// reuse the shared connection for reading/writing
+		long start = System.nanoTime();
+		database = getSharedDatabase();
+		profiler.record("open", start, -1);
 	}
 
-	// close the database connection
+	// release this connector; the shared connection stays open
 	public void close() {
-		if (database != null)
-			database.close(); // close the database connection
+		database = null;
 	}
 
 	// inserts a new contact in the database
 	public long insertMovie(String title, String year, String director,
 			String runtime) {
-		ContentValues newMovie = new ContentValues();
-		newMovie.put("title", title);
-		newMovie.put("year", year);
-		newMovie.put("director", director);
-		newMovie.put("runtime", runtime);
+		return insertMovie(toMovie(-1, title, year, director, runtime));
+	}
 
-		open(); // open the database
-		long rowID = database.insert("movies", null, newMovie);
-		close(); // close the database
-		return rowID;
+	// inserts movie, whose row ID is ignored; return its new row ID, or -1
+	public long insertMovie(final Movie movie) {
+		return scheduler.write(timed("insertMovie", new Callable<Long>() {
+			@Override
+			public Long call() {
+				long rowID = getDao().insert(movie);
+				if (rowID != -1) {
+					titleIndex.put(rowID, movie.getTitle(), movie.getYear());
+					changeTracker.rowChanged(rowID);
+				}
+				return rowID;
+			}
+		}));
 	}
 
 	// updates an existing contact in the database
-	public void updateMovie(long id, String title, String year,
+	public void updateMovie(final long id, String title, String year,
 			String director, String runtime) {
-		ContentValues editMovie = new ContentValues();
-		editMovie.put("title", title);
-		editMovie.put("year", year);
-		editMovie.put("director", director);
-		editMovie.put("runtime", runtime);
-
-		open(); // open the database
-		database.update("movies", editMovie, "_id=" + id, null);
-		close(); // close the database
+		final Movie movie = toMovie(id, title, year, director, runtime);
+
+		scheduler.write(timed("updateMovie", new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				int updated = getDao().update(movie);
+				if (updated != 0) {
+					movieCache.update(movie); // write through
+					titleIndex.put(id, movie.getTitle(), movie.getYear());
+				}
+				changeTracker.rowChanged(id);
+				return updated;
+			}
+		}));
 	} // end method updateContact
 
+	// convert the typed-in fields to a Movie
+	static Movie toMovie(long id, String title, String year,
+			String director, String runtime) {
+		return new Movie(id, title, Movie.parseYear(year), director,
+				Movie.parseRuntime(runtime));
+	}
+
 	// return a Cursor with all contact names in the database
 	public Cursor getAllMovies() {
-		return database.query("movies", new String[] { "_id", "title" }, null,
-				null, null, null, "title");
+		return scheduler.read(new Callable<Cursor>() {
+			@Override
+			public Cursor call() {
+				return query("getAllMovies", MovieContract.SELECT_ALL_MOVIES,
+						null);
+			}
+		});
+	}
+
+	// return the number of movies in the database
+	public int getMovieCount() {
+		return scheduler.read(new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				long start = System.nanoTime();
+				int count = getDao().count();
+				profiler.record("getMovieCount", start, 1);
+				return count;
+			}
+		});
+	}
+
+	// return a Cursor with each title section that has movies and its
+	// movie count, in list order; a read of a few dozen rows at any size
+	public Cursor getTitleSections() {
+		return scheduler.read(new Callable<Cursor>() {
+			@Override
+			public Cursor call() {
+				return query("getTitleSections",
+						MovieContract.SELECT_TITLE_SECTIONS, null);
+			}
+		});
+	}
+
+	// return a Cursor with _id and title of up to limit movies that sort
+	// after (afterTitle, afterId) in title order; a range scan of the
+	// movies_title index, so its cost does not depend on the position
+	public Cursor getMoviesAfter(final String afterTitle, final long afterId,
+			final int limit) {
+		return scheduler.read(new Callable<Cursor>() {
+			@Override
+			public Cursor call() {
+				return query("getMoviesAfter", "SELECT _id, title FROM movies "
+						+ "WHERE title >= ? COLLATE NOCASE "
+						+ "AND NOT (title = ? COLLATE NOCASE AND _id <= ?) "
+						+ "ORDER BY title COLLATE NOCASE, _id LIMIT "
+						+ limit, new String[] { afterTitle, afterTitle,
+						String.valueOf(afterId) });
+			}
+		});
+	}
+
+	// return a Cursor with _id and title of up to limit movies starting at
+	// position offset in title order; used to seek when no key is known
+	public Cursor getMoviesAt(final int offset, final int limit) {
+		return scheduler.read(new Callable<Cursor>() {
+			@Override
+			public Cursor call() {
+				return query("getMoviesAt", "SELECT _id, title FROM movies "
+						+ "ORDER BY title COLLATE NOCASE, _id LIMIT "
+						+ limit + " OFFSET " + offset, null);
+			}
+		});
+	}
+
+	// return a Cursor with _id and title of up to limit movies starting
+	// offset rows past the first title at or after start in title order;
+	// start is a title section's, so offset stays within the section
+	public Cursor getMoviesFrom(final String start, final int offset,
+			final int limit) {
+		return scheduler.read(new Callable<Cursor>() {
+			@Override
+			public Cursor call() {
+				return query("getMoviesFrom", MovieContract.SELECT_MOVIES_FROM,
+						new String[] { start, String.valueOf(limit),
+								String.valueOf(offset) });
+			}
+		});
+	}
+
+	// return a Cursor with every column of up to limit movies whose row
+	// IDs follow afterId, in row ID order; pages through the whole table
+	// at the same cost per page, for backups
+	public Cursor getMoviesById(final long afterId, final int limit) {
+		return scheduler.read(new Callable<Cursor>() {
+			@Override
+			public Cursor call() {
+				return query("getMoviesById",
+						MovieContract.SELECT_MOVIES_BY_ID, new String[] {
+								String.valueOf(afterId), String.valueOf(limit) });
+			}
+		});
 	}
 
 	// return a Cursor containing specified contact's information
-	public Cursor getOneMovie(long id) {
-		return database.query("movies", null, "_id=" + id, null, null, null,
-				null);
+	public Cursor getOneMovie(final long id) {
+		return scheduler.read(new Callable<Cursor>() {
+			@Override
+			public Cursor call() {
+				return query("getOneMovie", MovieContract.SELECT_ONE_MOVIE,
+						new String[] { String.valueOf(id) });
+			}
+		});
+	}
+
+	// return the specified movie, from memory if it was read recently, or
+	// null if it does not exist
+	public Movie getMovie(final long id) {
+		Movie movie = getCachedMovie(id);
+		if (movie != null)
+			return movie;
+
+		return scheduler.read(timed("getMovie", new Callable<Movie>() {
+			@Override
+			public Movie call() {
+				long stamp = movieCache.getStamp(); // before reading disk
+				MovieDao.Row row = rows.get();
+				if (!getDao().read(id, row))
+					return null;
+
+				Movie movie = row.toMovie();
+				movieCache.putIfUnchanged(movie, stamp);
+				return movie;
+			}
+		}));
+	}
+
+	// return the movie if the cache or the save journal holds it, without
+	// reading the database, else null; may be called on the GUI thread
+	public static Movie getCachedMovie(long id) {
+		long start = System.nanoTime();
+		Movie movie = movieCache.get(id);
+		if (movie == null)
+			movie = getJournaledMovie(id);
+		if (movie != null)
+			profiler.record("getMovie.cached", start, 1);
+		return movie;
+	}
+
+	// the movie's latest save still waiting in the journal, or null; a
+	// read from disk must not replace it in the cache
+	private static Movie getJournaledMovie(long id) {
+		SaveJournal journal = SaveJournal.getOpenInstance();
+		return journal == null ? null : journal.getPendingMovie(id);
+	}
+
+	// read the movies in ids into the cache with one query, so getMovie
+	// and getCachedMovie find them there; return the movies read
+	public int prefetchMovies(final List<Long> ids) {
+		return scheduler.read(new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				long stamp = movieCache.getStamp(); // before reading disk
+				int buckets = (ids.size() + MovieContract.IN_BUCKET - 1)
+						/ MovieContract.IN_BUCKET;
+				String[] args = new String[buckets * MovieContract.IN_BUCKET];
+				for (int i = 0; i < args.length; ++i)
+					args[i] = String.valueOf(ids.get(Math.min(i,
+							ids.size() - 1)));
+
+				Cursor cursor = query("prefetchMovies",
+						MovieContract.selectMoviesIn(args.length), args);
+				try {
+					while (cursor.moveToNext()) {
+						// NULL year and runtime read as UNKNOWN
+						Movie movie = new Movie(cursor.getLong(0),
+								cursor.getString(1), cursor.getInt(2),
+								cursor.getString(3), cursor.getInt(4));
+						if (getJournaledMovie(movie.getId()) == null)
+							movieCache.putIfUnchanged(movie, stamp);
+					}
+					return cursor.getCount();
+				} finally {
+					cursor.close();
+				}
+			}
+		});
+	}
+
+	// return a Cursor with up to limit movies whose title or director has
+	// words starting with the words typed in query
+	public Cursor searchMovies(String query, final int limit) {
+		final String match = toMatchExpression(query);
+
+		return scheduler.read(new Callable<Cursor>() {
+			@Override
+			public Cursor call() {
+				return query("searchMovies",
+						"SELECT docid AS _id, title FROM movies_fts "
+								+ "WHERE movies_fts MATCH ? ORDER BY title "
+								+ "LIMIT " + limit, new String[] { match });
+			}
+		});
+	}
+
+	// return a Cursor with _id and title of the movies query selects, in its
+	// order; when many movies match a range, counting them first shows
+	// whether reading the sort's index and skipping the rest beats sorting
+	public Cursor queryMovies(final MovieQuery query) {
+		return scheduler.read(new Callable<Cursor>() {
+			@Override
+			public Cursor call() {
+				String sql = query.getSql();
+				if (query.canScanInOrder()) {
+					SQLiteDatabase db = getSharedDatabase();
+					long bound = query.getScanThreshold(DatabaseUtils
+							.longForQuery(db, MovieContract.SELECT_MOVIE_COUNT,
+									null));
+					long start = System.nanoTime();
+					long matches = DatabaseUtils.longForQuery(db, query
+							.getCountSql(), query.getCountArgs(bound));
+					profiler.record("queryMovies.count", start, (int) matches);
+					if (matches >= bound)
+						sql = query.getScanSql();
+				}
+				return query("queryMovies", sql, query.getArgs());
+			}
+		});
+	}
+
+	// return every collection, then every tag, each in name order with the
+	// number of movies it holds
+	public List<Label> getLabels() {
+		return scheduler.read(timed("getLabels", new Callable<List<Label>>() {
+			@Override
+			public List<Label> call() {
+				Cursor cursor = getSharedDatabase().rawQuery(
+						MovieContract.SELECT_LABELS, null);
+				try {
+					List<Label> labels = new ArrayList<Label>(cursor.getCount());
+					while (cursor.moveToNext())
+						labels.add(new Label(cursor.getLong(0),
+								cursor.getInt(1), cursor.getString(2), cursor
+										.getInt(3)));
+					return labels;
+				} finally {
+					cursor.close();
+				}
+			}
+		}));
+	}
+
+	// return a Cursor with section and count for each title section of the
+	// label's movies, as getTitleSections does for the full list
+	public Cursor getLabelSections(final long labelId) {
+		return scheduler.read(new Callable<Cursor>() {
+			@Override
+			public Cursor call() {
+				return query("getLabelSections",
+						MovieContract.SELECT_LABEL_SECTIONS,
+						new String[] { String.valueOf(labelId) });
+			}
+		});
+	}
+
+	// the label's movies after (afterTitle, afterId), read from its range
+	// of movie_labels_title without touching movies
+	public Cursor getLabelMoviesAfter(final long labelId,
+			final String afterTitle, final long afterId, final int limit) {
+		return scheduler.read(new Callable<Cursor>() {
+			@Override
+			public Cursor call() {
+				return query("getLabelMoviesAfter",
+						MovieContract.SELECT_LABEL_MOVIES_AFTER, new String[] {
+								String.valueOf(labelId), afterTitle,
+								afterTitle, String.valueOf(afterId),
+								String.valueOf(limit) });
+			}
+		});
+	}
+
+	// the label's movies from offset rows past start, a title section's
+	// first title, as getMoviesFrom reads the full list
+	public Cursor getLabelMoviesFrom(final long labelId, final String start,
+			final int offset, final int limit) {
+		return scheduler.read(new Callable<Cursor>() {
+			@Override
+			public Cursor call() {
+				return query("getLabelMoviesFrom",
+						MovieContract.SELECT_LABEL_MOVIES_FROM, new String[] {
+								String.valueOf(labelId), start,
+								String.valueOf(limit), String.valueOf(offset) });
+			}
+		});
+	}
+
+	// the label's page at offset, read from movie_labels_title; for when
+	// no key is known and the page's title section cannot be sought
+	public Cursor getLabelMoviesAt(final long labelId, final int offset,
+			final int limit) {
+		return scheduler.read(new Callable<Cursor>() {
+			@Override
+			public Cursor call() {
+				return query("getLabelMoviesAt",
+						MovieContract.SELECT_LABEL_MOVIES_AT, new String[] {
+								String.valueOf(labelId), String.valueOf(limit),
+								String.valueOf(offset) });
+			}
+		});
 	}
 
-	// delete the contact specified by the given String name
-	public void deleteMovie(long id) {
-		open(); // open the database
-		database.delete("movies", "_id=" + id, null);
-		close(); // close the database
+	// return the collection's totals, kept up to date by triggers
+	public CollectionStats getCollectionStats() {
+		return scheduler.read(timed("getCollectionStats",
+				new Callable<CollectionStats>() {
+					@Override
+					public CollectionStats call() {
+						Cursor cursor = getSharedDatabase().rawQuery(
+								MovieContract.SELECT_COLLECTION_STATS, null);
+						try {
+							if (!cursor.moveToFirst())
+								return new CollectionStats(0, 0, 0);
+							return new CollectionStats(cursor.getInt(0),
+									cursor.getLong(1), cursor.getInt(2));
+						} finally {
+							cursor.close();
+						}
+					}
+				}));
+	}
+
+	// return a Cursor with decade (0 if unknown) and count for each decade
+	// that has movies, oldest first
+	public Cursor getDecadeStats() {
+		return scheduler.read(new Callable<Cursor>() {
+			@Override
+			public Cursor call() {
+				return query("getDecadeStats",
+						MovieContract.SELECT_DECADE_STATS, null);
+			}
+		});
+	}
+
+	// return a Cursor with director ("" if unknown) and count for the limit
+	// directors with the most movies
+	public Cursor getDirectorStats(final int limit) {
+		return scheduler.read(new Callable<Cursor>() {
+			@Override
+			public Cursor call() {
+				return query("getDirectorStats",
+						MovieContract.SELECT_DIRECTOR_STATS,
+						new String[] { String.valueOf(limit) });
+			}
+		});
+	}
+
+	// turn typed text into an FTS query of prefix terms, e.g. "star wa"
+	// becomes "star* wa*"; FTS operators in the text are not honoured
+	private static String toMatchExpression(String query) {
+		StringBuilder match = new StringBuilder();
+
+		for (String word : query.split("[^\\p{L}\\p{N}]+")) {
+			if (word.length() == 0)
+				continue;
+			if (match.length() != 0)
+				match.append(' ');
+			match.append(word).append('*');
+		}
+		return match.toString();
+	}
+
+	// delete the contact specified by the given String name; return the
+	// token that undoDelete takes to bring it back
+	public long deleteMovie(final long id) {
+		SaveJournal.flushPending(); // a pending save must not bring it back
+		return scheduler.write(timed("deleteMovie", new Callable<Long>() {
+			@Override
+			public Long call() {
+				SQLiteDatabase db = getSharedDatabase();
+				long deletedAt = nextDeletedAt();
+
+				db.beginTransaction();
+				try {
+					getDao().delete(id, deletedAt);
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+					movieCache.invalidate(id);
+					changeTracker.rowChanged(id);
+				}
+				titleIndex.remove(id);
+				return deletedAt;
+			}
+		}));
+	}
+
+	// put back the movies deleted with token; return the rows restored
+	public int undoDelete(final long token) {
+		return scheduler.write(timed("undoDelete", new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				SQLiteDatabase db = getSharedDatabase();
+				String[] tokenArgument = { String.valueOf(token) };
+				long[] ids;
+				List<Movie> movies = new ArrayList<Movie>();
+
+				db.beginTransaction();
+				try {
+					Cursor cursor = db.rawQuery(
+							MovieContract.SELECT_DELETED_MOVIES, tokenArgument);
+					try {
+						ids = new long[cursor.getCount()];
+						for (int i = 0; cursor.moveToNext(); ++i) {
+							ids[i] = cursor.getLong(0);
+							movies.add(new Movie(ids[i], cursor.getString(1),
+									cursor.getInt(2), null, Movie.UNKNOWN));
+						}
+					} finally {
+						cursor.close();
+					}
+
+					db.execSQL(MovieContract.RESTORE_MOVIES, tokenArgument);
+					db.execSQL(MovieContract.RESTORE_MOVIE_LABELS,
+							tokenArgument);
+					db.execSQL(MovieContract.FORGET_DELETED, tokenArgument);
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+				}
+
+				indexTitles(movies);
+				changeTracker.rowsChanged(ids);
+				return ids.length;
+			}
+		}));
+	}
+
+	// a deleted_at value later than any given before, so each delete can
+	// be undone on its own; call only on the writer thread
+	private static long nextDeletedAt() {
+		lastDeletedAt = Math.max(System.currentTimeMillis(), lastDeletedAt + 1);
+		return lastDeletedAt;
+	}
+
+	// inserts many movies, committing every DEFAULT_BATCH_SIZE rows
+	public int bulkInsert(Collection<Movie> movies) {
+		return bulkInsert(movies, DEFAULT_BATCH_SIZE);
+	}
+
+	// inserts many movies, committing every batchSize rows
+	public int bulkInsert(final Collection<Movie> movies, final int batchSize) {
+		return scheduler.write(timed("bulkInsert", new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				SQLiteDatabase db = getSharedDatabase();
+				MovieDao dao = getDao();
+				int inserted = 0;
+
+				try {
+					Iterator<Movie> iterator = movies.iterator();
+					while (iterator.hasNext()) {
+						List<Movie> batch = new ArrayList<Movie>();
+						db.beginTransaction();
+						try {
+							// insert up to batchSize rows in this transaction
+							for (int i = 0; i < batchSize
+									&& iterator.hasNext(); ++i) {
+								if (insert(dao, iterator.next(), batch))
+									++inserted;
+							}
+							db.setTransactionSuccessful();
+						} finally {
+							db.endTransaction();
+						}
+						indexTitles(batch);
+					}
+				} finally {
+					changeTracker.tableChanged(); // new IDs aren't collected
+				}
+				return inserted;
+			}
+		}));
+	}
+
+	// updates many movies by row ID, committing every DEFAULT_BATCH_SIZE rows
+	public int bulkUpdate(Collection<Movie> movies) {
+		return bulkUpdate(movies, DEFAULT_BATCH_SIZE);
+	}
+
+	// updates many movies by row ID, committing every batchSize rows
+	public int bulkUpdate(final Collection<Movie> movies, final int batchSize) {
+		return scheduler.write(timed("bulkUpdate", new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				SQLiteDatabase db = getSharedDatabase();
+				MovieDao dao = getDao();
+				int updated = 0;
+
+				try {
+					Iterator<Movie> iterator = movies.iterator();
+					while (iterator.hasNext()) {
+						// rows deleted meanwhile update nothing and stay
+						// out of the title index
+						List<Movie> batch = new ArrayList<Movie>();
+						db.beginTransaction();
+						try {
+							// update up to batchSize rows in this transaction
+							for (int i = 0; i < batchSize
+									&& iterator.hasNext(); ++i) {
+								Movie movie = iterator.next();
+								if (dao.update(movie) != 0)
+									batch.add(movie);
+							}
+							db.setTransactionSuccessful();
+						} finally {
+							db.endTransaction();
+						}
+						updated += batch.size();
+						indexTitles(batch);
+					}
+				} finally {
+					for (Movie movie : movies)
+						movieCache.invalidate(movie.getId());
+					changeTracker.rowsChanged(idsOf(movies));
+				}
+				return updated;
+			}
+		}));
 	}
 
-	private class DatabaseOpenHelper extends SQLiteOpenHelper {
+	// deletes many movies by row ID, committing every DEFAULT_BATCH_SIZE
+	// rows; return the token that undoDelete takes to bring them all back
+	public long bulkDelete(Collection<Long> ids) {
+		return bulkDelete(ids, DEFAULT_BATCH_SIZE);
+	}
+
+	// deletes many movies by row ID, committing every batchSize rows
+	public long bulkDelete(final Collection<Long> ids, final int batchSize) {
+		SaveJournal.flushPending();
+		return scheduler.write(timed("bulkDelete", new Callable<Long>() {
+			@Override
+			public Long call() {
+				SQLiteDatabase db = getSharedDatabase();
+				MovieDao dao = getDao();
+				long deletedAt = nextDeletedAt();
+
+				try {
+					Iterator<Long> iterator = ids.iterator();
+					while (iterator.hasNext()) {
+						db.beginTransaction();
+						try {
+							// delete up to batchSize rows in this transaction
+							for (int i = 0; i < batchSize
+									&& iterator.hasNext(); ++i) {
+								dao.delete(iterator.next(), deletedAt);
+							}
+							db.setTransactionSuccessful();
+						} finally {
+							db.endTransaction();
+						}
+					}
+					for (long id : ids)
+						titleIndex.remove(id);
+				} finally {
+					for (long id : ids)
+						movieCache.invalidate(id);
+					changeTracker.rowsChanged(toArray(ids));
+				}
+				return deletedAt;
+			}
+		}));
+	}
+
+	// inserts one parsed import batch and moves the file's checkpoint in
+	// the same transaction, so a resumed import never repeats a row; length
+	// and modified identify the version of the file being imported
+	public void importBatch(final Collection<Movie> movies,
+			final String source, final long length, final long modified,
+			final long offset, final long rows) {
+		scheduler.write(timed("importBatch", new Callable<Object>() {
+			@Override
+			public Object call() {
+				SQLiteDatabase db = getSharedDatabase();
+				MovieDao dao = getDao();
+				List<Movie> inserted = new ArrayList<Movie>(movies.size());
+
+				db.beginTransaction();
+				try {
+					for (Movie movie : movies)
+						insert(dao, movie, inserted);
+
+					ContentValues checkpoint = new ContentValues();
+					checkpoint.put("source", source);
+					checkpoint.put("offset", offset);
+					checkpoint.put("rows", rows);
+					checkpoint.put("length", length);
+					checkpoint.put("modified", modified);
+					db.replace("import_checkpoints", null, checkpoint);
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+					changeTracker.tableChanged();
+				}
+				indexTitles(inserted);
+				return null;
+			}
+		}));
+	}
+
+	// writes journaled saves, new movies and changes to existing ones, and
+	// moves the journal's checkpoint to sequence in the same transaction,
+	// so a replayed journal never inserts a movie twice
+	public void applySaves(final Collection<Movie> inserts,
+			final Collection<Movie> updates, final String source,
+			final long sequence) {
+		scheduler.write(timed("applySaves", new Callable<Object>() {
+			@Override
+			public Object call() {
+				SQLiteDatabase db = getSharedDatabase();
+				MovieDao dao = getDao();
+				List<Movie> inserted = new ArrayList<Movie>(inserts.size());
+				List<Movie> updated = new ArrayList<Movie>(updates.size());
+
+				db.beginTransaction();
+				try {
+					for (Movie movie : inserts)
+						insert(dao, movie, inserted);
+					for (Movie movie : updates)
+						if (dao.update(movie) != 0) // else deleted meanwhile
+							updated.add(movie);
+
+					ContentValues checkpoint = new ContentValues();
+					checkpoint.put("source", source);
+					checkpoint.put("offset", sequence);
+					checkpoint.put("rows", inserts.size() + updates.size());
+					db.replace("import_checkpoints", null, checkpoint);
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+					for (Movie movie : updates)
+						movieCache.invalidate(movie.getId());
+					changeTracker.rowsChanged(idsOf(updates));
+					if (!inserts.isEmpty())
+						changeTracker.tableChanged(); // new IDs aren't collected
+				}
+				indexTitles(inserted);
+				indexTitles(updated);
+				return null;
+			}
+		}));
+	}
+
+	// delete every movie, and every deleted one that could still be
+	// brought back, before a restore puts the snapshot's movies in; their
+	// labels are kept aside for restoreBatch
+	public void deleteAllMovies() {
+		SaveJournal.flushPending(); // or a pending save lands afterwards
+		scheduler.write(timed("deleteAllMovies", new Callable<Object>() {
+			@Override
+			public Object call() {
+				SQLiteDatabase db = getSharedDatabase();
+
+				db.beginTransaction();
+				try {
+					db.execSQL(MovieContract.STASH_MOVIE_LABELS);
+					db.execSQL(MovieContract.DELETE_ALL_MOVIES);
+					db.execSQL(MovieContract.DELETE_ALL_DELETED);
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+					movieCache.clear();
+					changeTracker.tableChanged();
+				}
+				titleIndex.clear();
+				return null;
+			}
+		}));
+	}
+
+	// inserts one restored batch under the movies' own row IDs in one
+	// transaction, giving back the labels those row IDs had
+	public void restoreBatch(final Collection<Movie> movies) {
+		scheduler.write(timed("restoreBatch", new Callable<Object>() {
+			@Override
+			public Object call() {
+				SQLiteDatabase db = getSharedDatabase();
+				MovieDao dao = getDao();
+				long firstId = Long.MAX_VALUE;
+				long lastId = Long.MIN_VALUE;
+
+				db.beginTransaction();
+				try {
+					for (Movie movie : movies) {
+						dao.restore(movie);
+						firstId = Math.min(firstId, movie.getId());
+						lastId = Math.max(lastId, movie.getId());
+					}
+					db.execSQL(MovieContract.RESTORE_STASHED_LABELS,
+							new Object[] { firstId, lastId });
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+					changeTracker.tableChanged();
+				}
+				indexTitles(movies);
+				return null;
+			}
+		}));
+	}
+
+	// drop the labels of movies the restored snapshot did not have
+	public void finishRestore() {
+		scheduler.write(timed("finishRestore", new Callable<Object>() {
+			@Override
+			public Object call() {
+				getSharedDatabase().execSQL(
+						MovieContract.CLEAR_STASHED_LABELS);
+				return null;
+			}
+		}));
+	}
+
+	// return a Cursor with the offset and rows imported so far from source,
+	// and the length and modification time source had then
+	public Cursor getImportCheckpoint(final String source) {
+		return scheduler.read(new Callable<Cursor>() {
+			@Override
+			public Cursor call() {
+				return query("getImportCheckpoint", "SELECT offset, rows, "
+						+ "length, modified FROM import_checkpoints "
+								+ "WHERE source=?", new String[] { source });
+			}
+		});
+	}
+
+	// forget the checkpoint of a finished or outdated import
+	public void clearImportCheckpoint(final String source) {
+		scheduler.write(timed("clearImportCheckpoint", new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				return getSharedDatabase().delete("import_checkpoints",
+						"source=?", new String[] { source });
+			}
+		}));
+	}
+
+	// permanently remove up to limit movies deleted before deletedBefore,
+	// oldest first; return the rows removed
+	public int purgeDeleted(final long deletedBefore, final int limit) {
+		return scheduler.write(timed("purgeDeleted", new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				SQLiteStatement purge = getSharedDatabase().compileStatement(
+						MovieContract.PURGE_DELETED);
+				try {
+					purge.bindLong(1, deletedBefore);
+					purge.bindLong(2, limit);
+					return purge.executeUpdateDelete();
+				} finally {
+					purge.close();
+				}
+			}
+		}));
+	}
+
+	// return the row ID of the label of kind named name, ignoring case,
+	// adding the label if there is none
+	public long addLabel(final int kind, final String name) {
+		return scheduler.write(timed("addLabel", new Callable<Long>() {
+			@Override
+			public Long call() {
+				SQLiteDatabase db = getSharedDatabase();
+				db.execSQL(MovieContract.INSERT_LABEL, new Object[] { kind,
+						name });
+				return DatabaseUtils.longForQuery(db,
+						MovieContract.SELECT_LABEL_ID, new String[] {
+								String.valueOf(kind), name });
+			}
+		}));
+	}
+
+	// delete a label; its movies stay, without it
+	public void deleteLabel(final long labelId) {
+		scheduler.write(timed("deleteLabel", new Callable<Object>() {
+			@Override
+			public Object call() {
+				try {
+					getSharedDatabase().execSQL(MovieContract.DELETE_LABEL,
+							new Object[] { labelId });
+				} finally {
+					changeTracker.tableChanged(); // lists of the label
+				}
+				return null;
+			}
+		}));
+	}
+
+	// give every movie in ids the label, in one transaction however many
+	// there are; return the movies that did not have it yet
+	public int addToLabel(long labelId, Collection<Long> ids) {
+		return relabel("addToLabel", MovieContract.ADD_TO_LABEL, labelId, ids);
+	}
+
+	// take the label off every movie in ids, in one transaction; return
+	// the movies that had it
+	public int removeFromLabel(long labelId, Collection<Long> ids) {
+		return relabel("removeFromLabel", MovieContract.REMOVE_FROM_LABEL,
+				labelId, ids);
+	}
+
+	// run sql, whose parameters are a label's row ID and a movie's, for
+	// each movie in one transaction; return the rows changed
+	private int relabel(String operation, final String sql,
+			final long labelId, final Collection<Long> ids) {
+		return scheduler.write(timed(operation, new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				SQLiteDatabase db = getSharedDatabase();
+				SQLiteStatement statement = db.compileStatement(sql);
+				int changed = 0;
+
+				db.beginTransaction();
+				try {
+					for (long id : ids) {
+						statement.bindLong(1, labelId);
+						statement.bindLong(2, id);
+						changed += statement.executeUpdateDelete();
+					}
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+					statement.close();
+					changeTracker.rowsChanged(toArray(ids));
+				}
+				return changed;
+			}
+		}));
+	}
+
+	// true if movie id exists, or was deleted but not yet purged
+	public boolean isMovieKept(final long id) {
+		return scheduler.read(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				String[] idArgument = { String.valueOf(id) };
+				return DatabaseUtils.longForQuery(getSharedDatabase(),
+						"SELECT EXISTS (SELECT 1 FROM movies WHERE _id=?1) "
+								+ "OR EXISTS (SELECT 1 FROM deleted_movies "
+								+ "WHERE _id=?1)", idArgument) != 0;
+			}
+		});
+	}
+
+	// return this device's name in sync keys
+	public String getSyncDevice() {
+		return scheduler.read(new Callable<String>() {
+			@Override
+			public String call() {
+				return DatabaseUtils.stringForQuery(getSharedDatabase(),
+						MovieContract.SELECT_SYNC_DEVICE, null);
+			}
+		});
+	}
+
+	// return the server position the last pull reached
+	public long getSyncWatermark() {
+		return scheduler.read(new Callable<Long>() {
+			@Override
+			public Long call() {
+				return DatabaseUtils.longForQuery(getSharedDatabase(),
+						MovieContract.SELECT_SYNC_PULLED, null);
+			}
+		});
+	}
+
+	// return up to limit local changes the server has not taken, in the
+	// order they were made, starting after change number afterSequence
+	public List<SyncProtocol.Change> getPendingChanges(final String device,
+			final long afterSequence, final int limit) {
+		return scheduler.read(timed("getPendingChanges",
+				new Callable<List<SyncProtocol.Change>>() {
+					@Override
+					public List<SyncProtocol.Change> call() {
+						Cursor cursor = getSharedDatabase().rawQuery(
+								MovieContract.SELECT_PENDING_CHANGES,
+								new String[] { String.valueOf(afterSequence),
+										String.valueOf(limit) });
+						try {
+							List<SyncProtocol.Change> changes = new ArrayList<SyncProtocol.Change>(
+									cursor.getCount());
+							while (cursor.moveToNext()) {
+								Movie movie = cursor.getInt(4) != 0 ? null
+										: new Movie(cursor.getString(5),
+												cursor.getInt(6), cursor
+														.getString(7), cursor
+														.getInt(8));
+								changes.add(new SyncProtocol.Change(cursor
+										.getString(1), cursor.getLong(2),
+										cursor.getLong(3), device, cursor
+												.getLong(0), movie));
+							}
+							return changes;
+						} finally {
+							cursor.close();
+						}
+					}
+				}));
+	}
+
+	// record the server versions of pushed changes; a movie changed again
+	// since it was pushed stays pending
+	public void acknowledgeChanges(
+			final List<SyncProtocol.Change> acknowledgments) {
+		scheduler.write(timed("acknowledgeChanges", new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				SQLiteDatabase db = getSharedDatabase();
+				SQLiteStatement acknowledge = db
+						.compileStatement(MovieContract.ACKNOWLEDGE_CHANGE);
+
+				db.beginTransaction();
+				try {
+					for (SyncProtocol.Change change : acknowledgments) {
+						acknowledge.bindLong(1, change.version);
+						acknowledge.bindLong(2, change.sequence);
+						acknowledge.bindString(3, change.key);
+						acknowledge.executeUpdateDelete();
+					}
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+					acknowledge.close();
+				}
+				return acknowledgments.size();
+			}
+		}));
+	}
+
+	// apply changes from the server, made on other devices, in one
+	// transaction that also moves the pull watermark unless it is
+	// negative; return the movies changed
+	public int applyRemoteChanges(final List<SyncProtocol.Change> changes,
+			final String device, final long watermark) {
+		return scheduler.write(timed("applyRemoteChanges",
+				new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						SQLiteDatabase db = getSharedDatabase();
+						MovieDao dao = getDao();
+						List<Movie> kept = new ArrayList<Movie>();
+						List<Long> ids = new ArrayList<Long>();
+						List<Long> deleted = new ArrayList<Long>();
+
+						db.beginTransaction();
+						try {
+							// the triggers must not log these as local changes
+							db.execSQL(MovieContract.SET_SYNC_APPLYING,
+									new Object[] { 1 });
+							for (SyncProtocol.Change change : changes) {
+								long id = applyRemoteChange(db, dao, change,
+										device);
+								if (id == -1)
+									continue;
+
+								ids.add(id);
+								if (change.isDeleted())
+									deleted.add(id);
+								else
+									kept.add(new Movie(id, change.movie
+											.getTitle(), change.movie
+											.getYear(), change.movie
+											.getDirector(), change.movie
+											.getRuntime()));
+							}
+							if (watermark >= 0)
+								db.execSQL(MovieContract.SET_SYNC_PULLED,
+										new Object[] { watermark });
+							db.execSQL(MovieContract.SET_SYNC_APPLYING,
+									new Object[] { 0 });
+							db.setTransactionSuccessful();
+						} finally {
+							db.endTransaction();
+							for (long id : ids)
+								movieCache.invalidate(id);
+							if (!ids.isEmpty())
+								changeTracker.rowsChanged(toArray(ids));
+						}
+						for (long id : deleted)
+							titleIndex.remove(id);
+						indexTitles(kept);
+						return ids.size();
+					}
+				}));
+	}
+
+	// apply one change from the server unless this device already has its
+	// version or made a later change of its own; return the movie's row
+	// ID, or -1 if nothing changed
+	private static long applyRemoteChange(SQLiteDatabase db, MovieDao dao,
+			SyncProtocol.Change change, String device) {
+		long id;
+		Cursor cursor = db.rawQuery(MovieContract.SELECT_SYNC_VERSION,
+				new String[] { change.key });
+		try {
+			if (!cursor.moveToFirst()) {
+				if (change.isDeleted())
+					return -1; // deleted before this device saw it
+				id = dao.insert(change.movie);
+			} else {
+				id = cursor.getLong(0);
+				if (change.version <= cursor.getLong(1))
+					return -1; // already applied
+
+				if (cursor.getLong(3) != 0
+						&& !change.isNewerThan(cursor.getLong(2), device)) {
+					// the local change is later and wins; base it on this
+					// version so the server takes it
+					db.execSQL(MovieContract.REBASE_SYNC_VERSION,
+							new Object[] { change.version, change.key });
+					return -1;
+				}
+
+				boolean wasDeleted = cursor.getInt(4) != 0;
+				if (change.isDeleted()) {
+					if (!wasDeleted)
+						db.execSQL(MovieContract.DELETE_MOVIE,
+								new Object[] { id });
+				} else {
+					Movie movie = new Movie(id, change.movie.getTitle(),
+							change.movie.getYear(),
+							change.movie.getDirector(),
+							change.movie.getRuntime());
+					if (wasDeleted) {
+						// back under its row ID, which undo must not reuse
+						db.execSQL(MovieContract.FORGET_DELETED_MOVIE,
+								new Object[] { id });
+						dao.restore(movie);
+					} else
+						dao.update(movie);
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		if (id == -1)
+			return -1;
+
+		db.execSQL(MovieContract.PUT_SYNC_VERSION, new Object[] { id,
+				change.key, change.version, change.changedAt,
+				change.isDeleted() ? 1 : 0 });
+		return id;
+	}
+
+	// return free pages in the file to the file system, at most pages of
+	// them; return the free pages left. Android creates android_metadata
+	// before onCreate, too late to turn on incremental auto-vacuum, so the
+	// first call rebuilds the file once with a full VACUUM instead
+	public int vacuumIncrementally(final int pages) {
+		return scheduler.write(timed("vacuumIncrementally",
+				new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						SQLiteDatabase db = getSharedDatabase();
+						if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum",
+								null) != AUTO_VACUUM_INCREMENTAL) {
+							db.execSQL("PRAGMA auto_vacuum=INCREMENTAL");
+							db.execSQL("VACUUM"); // applies the setting
+						} else
+							runPragma(db, "PRAGMA incremental_vacuum(" + pages
+									+ ")");
+
+						return (int) DatabaseUtils.longForQuery(db,
+								"PRAGMA freelist_count", null);
+					}
+				}));
+	}
+
+	// refresh the statistics the query planner chooses indexes by; SQLite
+	// 3.18 and later analyze only the tables that need it
+	public void optimize() {
+		scheduler.write(timed("optimize", new Callable<Object>() {
+			@Override
+			public Object call() {
+				SQLiteDatabase db = getSharedDatabase();
+				String version = DatabaseUtils.stringForQuery(db,
+						"SELECT sqlite_version()", null);
+				if (compareVersions(version, "3.18.0") >= 0)
+					runPragma(db, "PRAGMA optimize");
+				else
+					db.execSQL("ANALYZE");
+				return null;
+			}
+		}));
+	}
+
+	// run a pragma to completion; pragmas like incremental_vacuum return
+	// a row per step of work, which execSQL would reject
+	private static void runPragma(SQLiteDatabase db, String sql) {
+		Cursor cursor = db.rawQuery(sql, null);
+		try {
+			cursor.getCount(); // steps through every row
+		} finally {
+			cursor.close();
+		}
+	}
+
+	// compare dotted version numbers like "3.8.10.2" part by part
+	private static int compareVersions(String version, String other) {
+		String[] parts = version.split("\\.");
+		String[] otherParts = other.split("\\.");
+
+		for (int i = 0; i < Math.max(parts.length, otherParts.length); ++i) {
+			int part = i < parts.length ? Integer.parseInt(parts[i]) : 0;
+			int otherPart = i < otherParts.length ? Integer
+					.parseInt(otherParts[i]) : 0;
+			if (part != otherPart)
+				return part < otherPart ? -1 : 1;
+		}
+		return 0;
+	}
+
+	// insert movie, adding it with its new row ID to inserted; return
+	// false on failure
+	private static boolean insert(MovieDao dao, Movie movie,
+			List<Movie> inserted) {
+		long rowID = dao.insert(movie);
+		if (rowID == -1)
+			return false;
+		inserted.add(new Movie(rowID, movie.getTitle(), movie.getYear(),
+				movie.getDirector(), movie.getRuntime()));
+		return true;
+	}
+
+	// put committed movies' titles in the title index
+	private static void indexTitles(Collection<Movie> movies) {
+		for (Movie movie : movies)
+			titleIndex.put(movie.getId(), movie.getTitle(), movie.getYear());
+	}
+
+	// return the row IDs of movies
+	private static long[] idsOf(Collection<Movie> movies) {
+		long[] ids = new long[movies.size()];
+		int i = 0;
+		for (Movie movie : movies)
+			ids[i++] = movie.getId();
+		return ids;
+	}
+
+	// copy boxed row IDs to an array
+	private static long[] toArray(Collection<Long> ids) {
+		long[] array = new long[ids.size()];
+		int i = 0;
+		for (long id : ids)
+			array[i++] = id;
+		return array;
+	}
+
+	static class DatabaseOpenHelper extends SQLiteOpenHelper {
+		// schema changes in version order; MIGRATIONS[i] upgrades a
+		// database from version i + 1 to version i + 2
+		private static final Migration[] MIGRATIONS = new Migration[] {
+				// version 2: checkpoints for resumable imports
+				new Migration() {
+					@Override
+					public void apply(SQLiteDatabase db) {
+						db.execSQL("CREATE TABLE import_checkpoints"
+								+ "(source TEXT primary key, offset INTEGER, "
+								+ "rows INTEGER);");
+					}
+				},
+
+				// version 3: full-text index of titles and directors
+				new Migration() {
+					@Override
+					public void apply(SQLiteDatabase db) {
+						db.execSQL("CREATE VIRTUAL TABLE movies_fts "
+								+ "USING fts4(title, director);");
+						db.execSQL("INSERT INTO movies_fts "
+								+ "(docid, title, director) "
+								+ "SELECT _id, title, director FROM movies;");
+						createSearchTriggers(db);
+					}
+				},
+
+				// version 4: INTEGER year and runtime-in-minutes, plus indexes
+				// for the title ordering and the year/director/runtime filters
+				new Migration() {
+					@Override
+					public void apply(SQLiteDatabase db) {
+						retypeMovies(db);
+						db.execSQL("CREATE INDEX movies_title "
+								+ "ON movies (title COLLATE NOCASE);");
+						db.execSQL("CREATE INDEX movies_year "
+								+ "ON movies (year, title COLLATE NOCASE);");
+						db.execSQL("CREATE INDEX movies_director ON movies "
+								+ "(director COLLATE NOCASE, title COLLATE NOCASE);");
+						db.execSQL("CREATE INDEX movies_runtime "
+								+ "ON movies (runtime, title COLLATE NOCASE);");
+					}
+				},
+
+				// version 5: movies per first letter, for the fast-scroll index
+				new Migration() {
+					@Override
+					public void apply(SQLiteDatabase db) {
+						db.execSQL(MovieContract.CREATE_TITLE_SECTIONS);
+						db.execSQL(MovieContract.FILL_TITLE_SECTIONS);
+						for (String trigger : MovieContract.TITLE_SECTION_TRIGGERS)
+							db.execSQL(trigger);
+					}
+				},
+
+				// version 6: statistics by director and decade, and totals
+				new Migration() {
+					@Override
+					public void apply(SQLiteDatabase db) {
+						for (String sql : MovieContract.CREATE_STATS)
+							db.execSQL(sql);
+						for (String sql : MovieContract.FILL_STATS)
+							db.execSQL(sql);
+						for (String trigger : MovieContract.STATS_TRIGGERS)
+							db.execSQL(trigger);
+					}
+				},
+
+				// version 7: deleted movies kept for undo until purged
+				new Migration() {
+					@Override
+					public void apply(SQLiteDatabase db) {
+						db.execSQL(MovieContract.CREATE_DELETED_MOVIES);
+						db.execSQL(MovieContract.CREATE_DELETED_MOVIES_INDEX);
+					}
+				},
+
+				// version 8: year and runtime in the filter indexes, for
+				// MovieQuery's filters in any sort order
+				new Migration() {
+					@Override
+					public void apply(SQLiteDatabase db) {
+						for (String sql : MovieContract.DROP_FILTER_INDEXES)
+							db.execSQL(sql);
+						for (String sql : MovieContract.CREATE_FILTER_INDEXES)
+							db.execSQL(sql);
+					}
+				},
+
+				// version 9: the sync change log, with every existing movie
+				// as a change to push
+				new Migration() {
+					@Override
+					public void apply(SQLiteDatabase db) {
+						for (String sql : MovieContract.CREATE_SYNC)
+							db.execSQL(sql);
+						for (String sql : MovieContract.FILL_SYNC)
+							db.execSQL(sql);
+						for (String sql : MovieContract.SYNC_TRIGGERS)
+							db.execSQL(sql);
+					}
+				},
+
+				// version 10: collections and tags
+				new Migration() {
+					@Override
+					public void apply(SQLiteDatabase db) {
+						for (String sql : MovieContract.CREATE_LABELS)
+							db.execSQL(sql);
+						for (String sql : MovieContract.LABEL_TRIGGERS)
+							db.execSQL(sql);
+					}
+				},
+
+				// version 11: labels kept across a restore
+				new Migration() {
+					@Override
+					public void apply(SQLiteDatabase db) {
+						db.execSQL(MovieContract.CREATE_STASHED_MOVIE_LABELS);
+					}
+				},
+
+				// version 12: import checkpoints keyed by path alone, with
+				// the file's length and modification time beside them
+				new Migration() {
+					@Override
+					public void apply(SQLiteDatabase db) {
+						db.execSQL("ALTER TABLE import_checkpoints "
+								+ "ADD COLUMN length INTEGER;");
+						db.execSQL("ALTER TABLE import_checkpoints "
+								+ "ADD COLUMN modified INTEGER;");
+						rekeyImportCheckpoints(db);
+					}
+				} };
+
 		// constructor
 		public DatabaseOpenHelper(Context context, String name,
 				CursorFactory factory, int version) {
 			super(context, name, factory, version);
 		}
 
-		// creates the contacts table when the database is created
+		// creates the version 1 schema, then migrates it to the latest
 		@Override
 		public void onCreate(SQLiteDatabase db) {
+			createVersion1(db);
+			migrate(db, 1, DATABASE_VERSION);
+		}
+
+		@Override
+		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+			migrate(db, oldVersion, newVersion);
+		}
+
+		// the original schema, as shipped in version 1
+		static void createVersion1(SQLiteDatabase db) {
 			// query to create a new table named contacts
 			String createQuery = "CREATE TABLE movies"
 					+ "(_id integer primary key autoincrement,"
@@ -103,9 +1595,124 @@ public class DatabaseConnector {
 			db.execSQL(createQuery); // execute query to create the database
 		}
 
-		@Override
-		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		// apply each migration after oldVersion up to newVersion; the
+		// caller supplies the transaction
+		static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+			for (int version = oldVersion; version < newVersion; ++version)
+				MIGRATIONS[version - 1].apply(db);
+		}
+
+		// keep movies_fts in step with the movies table
+		private static void createSearchTriggers(SQLiteDatabase db) {
+			db.execSQL("CREATE TRIGGER movies_fts_insert AFTER INSERT ON movies "
+					+ "BEGIN INSERT INTO movies_fts (docid, title, director) "
+					+ "VALUES (new._id, new.title, new.director); END;");
+			db.execSQL("CREATE TRIGGER movies_fts_update "
+					+ "AFTER UPDATE OF title, director ON movies "
+					+ "BEGIN UPDATE movies_fts SET title=new.title, "
+					+ "director=new.director WHERE docid=old._id; END;");
+			db.execSQL("CREATE TRIGGER movies_fts_delete AFTER DELETE ON movies "
+					+ "BEGIN DELETE FROM movies_fts WHERE docid=old._id; END;");
+		}
+
+		// rebuild movies with INTEGER year and runtime columns; plain numbers
+		// convert in SQL and only free-form values are parsed in Java, by
+		// the same parsers new saves use
+		private static void retypeMovies(SQLiteDatabase db) {
+			db.execSQL("CREATE TABLE movies_typed"
+					+ "(_id integer primary key autoincrement,"
+					+ "title TEXT, year INTEGER, director TEXT, "
+					+ "runtime INTEGER);");
+			db.execSQL("INSERT INTO movies_typed "
+					+ "(_id, title, year, director, runtime) "
+					+ "SELECT _id, title, "
+					+ "CASE WHEN trim(year) GLOB '[0-9][0-9][0-9][0-9]*' "
+					+ "AND trim(year) NOT GLOB '*[^0-9]*' "
+					+ "THEN CAST(substr(trim(year), 1, 4) AS INTEGER) END, "
+					+ "director, "
+					+ "CASE WHEN trim(runtime) GLOB '[0-9]*' "
+					+ "AND trim(runtime) NOT GLOB '*[^0-9]*' "
+					+ "THEN CAST(trim(runtime) AS INTEGER) END FROM movies;");
+
+			// parse the years that are not plain numbers, like "(1999)" or
+			// "c. 1999"
+			SQLiteStatement update = db
+					.compileStatement("UPDATE movies_typed SET year=? WHERE _id=?");
+			Cursor cursor = db.rawQuery("SELECT _id, year FROM movies "
+					+ "WHERE trim(year) GLOB '*[^0-9]*'", null);
+			try {
+				while (cursor.moveToNext()) {
+					int year = Movie.parseYear(cursor.getString(1));
+					if (year != Movie.UNKNOWN) {
+						update.bindLong(1, year);
+						update.bindLong(2, cursor.getLong(0));
+						update.executeUpdateDelete();
+					}
+				}
+			} finally {
+				cursor.close();
+				update.close();
+			}
+
+			// parse the runtimes that are not plain numbers, like "2h 16m"
+			update = db
+					.compileStatement("UPDATE movies_typed SET runtime=? WHERE _id=?");
+			cursor = db.rawQuery("SELECT _id, runtime FROM movies "
+					+ "WHERE trim(runtime) GLOB '*[^0-9]*'", null);
+			try {
+				while (cursor.moveToNext()) {
+					int minutes = Movie.parseRuntime(cursor.getString(1));
+					if (minutes != Movie.UNKNOWN) {
+						update.bindLong(1, minutes);
+						update.bindLong(2, cursor.getLong(0));
+						update.executeUpdateDelete();
+					}
+				}
+			} finally {
+				cursor.close();
+				update.close();
+			}
+
+			// dropping movies drops its triggers, so recreate them
+			db.execSQL("DROP TABLE movies;");
+			db.execSQL("ALTER TABLE movies_typed RENAME TO movies;");
+			createSearchTriggers(db);
+		}
+
+		// split the old "path:length:modified" import keys into the path
+		// and the new columns, so an unfinished import still resumes
+		private static void rekeyImportCheckpoints(SQLiteDatabase db) {
+			SQLiteStatement update = db.compileStatement("UPDATE OR REPLACE "
+					+ "import_checkpoints SET source=?, length=?, modified=? "
+					+ "WHERE source=?");
+			Cursor cursor = db.rawQuery("SELECT source FROM "
+					+ "import_checkpoints WHERE source GLOB '*:*:*'", null);
+			try {
+				while (cursor.moveToNext()) {
+					String key = cursor.getString(0);
+					int modifiedAt = key.lastIndexOf(':');
+					int lengthAt = key.lastIndexOf(':', modifiedAt - 1);
+					try {
+						update.bindString(1, key.substring(0, lengthAt));
+						update.bindLong(2, Long.parseLong(key.substring(
+								lengthAt + 1, modifiedAt)));
+						update.bindLong(3,
+								Long.parseLong(key.substring(modifiedAt + 1)));
+						update.bindString(4, key);
+						update.executeUpdateDelete();
+					} catch (NumberFormatException e) {
+						// not an import key; leave it as it is
+					}
+				}
+			} finally {
+				cursor.close();
+				update.close();
+			}
 		}
 	} // end class DatabaseOpenHelper
-} // end class DatabaseConnector
 
+	// one step in the schema's history
+	private interface Migration {
+		public void apply(SQLiteDatabase db);
+	}
+} // end class DatabaseConnector
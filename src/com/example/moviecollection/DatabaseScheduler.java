@@ -0,0 +1,211 @@
+// DatabaseScheduler.java
+// Runs all database writes on one thread and reads on a small pool
+package com.example.moviecollection;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DatabaseScheduler {
+	private static final int READER_THREADS = 3; // concurrent WAL readers
+
+	private final ExecutorService writer; // the single writer thread
+	private final ExecutorService readers; // pool of reader threads
+	private volatile Thread writerThread; // lets nested writes run inline
+
+	// counters showing how the queues behave under load
+	private final AtomicInteger writeQueueDepth = new AtomicInteger();
+	private final AtomicInteger maxWriteQueueDepth = new AtomicInteger();
+	private final AtomicInteger readQueueDepth = new AtomicInteger();
+	private final AtomicInteger maxReadQueueDepth = new AtomicInteger();
+	private final AtomicLong writeLockWaitNanos = new AtomicLong();
+	private final AtomicLong readLockWaitNanos = new AtomicLong();
+	private final AtomicLong writesCompleted = new AtomicLong();
+	private final AtomicLong readsCompleted = new AtomicLong();
+
+	// constructor
+	public DatabaseScheduler() {
+		writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				writerThread = new WorkerThread(runnable, "db-writer");
+				return writerThread;
+			}
+		});
+
+		readers = Executors.newFixedThreadPool(READER_THREADS,
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						return new WorkerThread(runnable, "db-reader-"
+								+ count.incrementAndGet());
+					}
+				});
+	}
+
+	// queue a write and return immediately
+	public <T> Future<T> submitWrite(Callable<T> task) {
+		return writer.submit(new TimedTask<T>(task, writeQueueDepth,
+				maxWriteQueueDepth, writeLockWaitNanos, writesCompleted));
+	}
+
+	// queue a write and wait for it to commit
+	public <T> T write(Callable<T> task) {
+		// a write issued from the writer thread would wait on itself
+		if (Thread.currentThread() == writerThread)
+			return callInline(task);
+
+		return await(submitWrite(task));
+	}
+
+	// queue a read and return immediately
+	public <T> Future<T> submitRead(Callable<T> task) {
+		return readers.submit(new TimedTask<T>(task, readQueueDepth,
+				maxReadQueueDepth, readLockWaitNanos, readsCompleted));
+	}
+
+	// queue a read and wait for its result
+	public <T> T read(Callable<T> task) {
+		// reads issued from a scheduler thread run where they are
+		Thread current = Thread.currentThread();
+		if (current instanceof WorkerThread
+				&& ((WorkerThread) current).getScheduler() == this)
+			return callInline(task);
+
+		return await(submitRead(task));
+	}
+
+	// number of writes waiting for the writer thread
+	public int getWriteQueueDepth() {
+		return writeQueueDepth.get();
+	}
+
+	// deepest the write queue has been
+	public int getMaxWriteQueueDepth() {
+		return maxWriteQueueDepth.get();
+	}
+
+	// number of reads waiting for a reader thread
+	public int getReadQueueDepth() {
+		return readQueueDepth.get();
+	}
+
+	// deepest the read queue has been
+	public int getMaxReadQueueDepth() {
+		return maxReadQueueDepth.get();
+	}
+
+	// total time writes spent waiting for the writer, in nanoseconds
+	public long getWriteLockWaitNanos() {
+		return writeLockWaitNanos.get();
+	}
+
+	// total time reads spent waiting for a reader, in nanoseconds
+	public long getReadLockWaitNanos() {
+		return readLockWaitNanos.get();
+	}
+
+	// number of writes that have finished
+	public long getWritesCompleted() {
+		return writesCompleted.get();
+	}
+
+	// number of reads that have finished
+	public long getReadsCompleted() {
+		return readsCompleted.get();
+	}
+
+	// counters as one line for logging
+	@Override
+	public String toString() {
+		return "writes=" + getWritesCompleted() + " writeQueue="
+				+ getWriteQueueDepth() + "/" + getMaxWriteQueueDepth()
+				+ " writeWaitMs=" + getWriteLockWaitNanos() / 1000000
+				+ " reads=" + getReadsCompleted() + " readQueue="
+				+ getReadQueueDepth() + "/" + getMaxReadQueueDepth()
+				+ " readWaitMs=" + getReadLockWaitNanos() / 1000000;
+	}
+
+	// run a task on the calling thread, rethrowing unchecked
+	private static <T> T callInline(Callable<T> task) {
+		try {
+			return task.call();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// wait for a queued task, passing its exception on to the caller
+	private static <T> T await(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
+	// thread owned by this scheduler
+	private class WorkerThread extends Thread {
+		public WorkerThread(Runnable runnable, String name) {
+			super(runnable, name);
+		}
+
+		public DatabaseScheduler getScheduler() {
+			return DatabaseScheduler.this;
+		}
+	} // end class WorkerThread
+
+	// wraps a task to track queue depth and time spent waiting
+	private static class TimedTask<T> implements Callable<T> {
+		private final Callable<T> task;
+		private final AtomicInteger depth;
+		private final AtomicLong waitNanos;
+		private final AtomicLong completed;
+		private final long queuedAt = System.nanoTime();
+
+		public TimedTask(Callable<T> task, AtomicInteger depth,
+				AtomicInteger maxDepth, AtomicLong waitNanos,
+				AtomicLong completed) {
+			this.task = task;
+			this.depth = depth;
+			this.waitNanos = waitNanos;
+			this.completed = completed;
+
+			// record the new depth and raise the high-water mark
+			int current = depth.incrementAndGet();
+			int max;
+			while (current > (max = maxDepth.get())
+					&& !maxDepth.compareAndSet(max, current)) {
+			}
+		}
+
+		@Override
+		public T call() throws Exception {
+			depth.decrementAndGet();
+			waitNanos.addAndGet(System.nanoTime() - queuedAt);
+
+			try {
+				return task.call();
+			} finally {
+				completed.incrementAndGet();
+			}
+		}
+	} // end class TimedTask
+} // end class DatabaseScheduler
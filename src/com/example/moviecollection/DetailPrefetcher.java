@@ -0,0 +1,137 @@
+// DetailPrefetcher.java
+// Reads ahead the details of the movies on screen and near it whenever a
+// list comes to rest, all in one query, into the movie cache, so the
+// tablet's details pane shows a tapped movie without waiting on a read
+package com.example.moviecollection;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import android.app.Fragment;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.AbsListView;
+import android.widget.ListAdapter;
+
+public class DetailPrefetcher implements AbsListView.OnScrollListener {
+	private static final int NEARBY_ROWS = 20; // read past each end of screen
+	private static final long SETTLE_DELAY_MS = 100; // coalesces layouts
+
+	private final Fragment owner; // fragment displaying the list
+	private final AbsListView listView;
+	private final DatabaseConnector databaseConnector;
+	private final ChangeTracker changeTracker;
+	private final TaskScheduler taskScheduler = TaskScheduler.getInstance();
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	private int scrollState = SCROLL_STATE_IDLE;
+	private TaskScheduler.Handle pending; // read in flight, if any
+
+	// the movies the last read covered, and the ChangeTracker generation
+	// it started at; once that changes their cached copies may be gone
+	private Set<Long> fetched = new HashSet<Long>();
+	private long fetchedGeneration = -1;
+
+	// constructor
+	public DetailPrefetcher(Fragment owner, AbsListView listView) {
+		this.owner = owner;
+		this.listView = listView;
+		this.databaseConnector = new DatabaseConnector(owner.getActivity());
+		this.changeTracker = DatabaseConnector.getChangeTracker(owner
+				.getActivity());
+	}
+
+	// a fling's rows go by too fast to be tapped; read once it stops
+	@Override
+	public void onScrollStateChanged(AbsListView view, int scrollState) {
+		this.scrollState = scrollState;
+		if (scrollState == SCROLL_STATE_IDLE)
+			schedule();
+	}
+
+	// also called after each layout, e.g. when a page of rows arrives
+	@Override
+	public void onScroll(AbsListView view, int firstVisibleItem,
+			int visibleItemCount, int totalItemCount) {
+		if (scrollState == SCROLL_STATE_IDLE)
+			schedule();
+	}
+
+	// read ahead once the list has been still for SETTLE_DELAY_MS
+	private void schedule() {
+		handler.removeCallbacks(prefetchRunnable);
+		handler.postDelayed(prefetchRunnable, SETTLE_DELAY_MS);
+	}
+
+	private final Runnable prefetchRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if (owner.isResumed())
+				prefetch();
+		}
+	};
+
+	// read the movies around the screen that the last read did not cover;
+	// rows whose page is still loading have no ID yet and are skipped
+	private void prefetch() {
+		ListAdapter adapter = listView.getAdapter();
+		if (adapter == null || adapter.getCount() == 0)
+			return;
+
+		cancel(); // a read still queued is superseded
+		long generation = changeTracker.getGeneration();
+		if (generation != fetchedGeneration)
+			fetched.clear(); // cached copies may have been dropped
+
+		int first = Math.max(0, listView.getFirstVisiblePosition()
+				- NEARBY_ROWS);
+		int last = Math.min(adapter.getCount() - 1,
+				listView.getLastVisiblePosition() + NEARBY_ROWS);
+		Set<Long> window = new HashSet<Long>();
+		List<Long> ids = new ArrayList<Long>();
+		for (int position = first; position <= last; ++position) {
+			long id = adapter.getItemId(position);
+			if (id >= 0 && window.add(id) && !fetched.contains(id))
+				ids.add(id);
+		}
+
+		fetched = window;
+		fetchedGeneration = generation;
+		if (ids.isEmpty())
+			return;
+
+		pending = taskScheduler.submit(owner, null,
+				TaskScheduler.PRIORITY_PREFETCH, new PrefetchTask(ids));
+	}
+
+	// stop a read that has not started, forgetting what it was to read
+	public void cancel() {
+		handler.removeCallbacks(prefetchRunnable);
+		if (pending != null) {
+			pending.cancel();
+			pending = null;
+			fetched.clear();
+		}
+	}
+
+	// reads one window of movies outside GUI thread
+	private class PrefetchTask extends TaskScheduler.Task<Integer> {
+		private final List<Long> ids;
+
+		public PrefetchTask(List<Long> ids) {
+			this.ids = ids;
+		}
+
+		@Override
+		protected Integer doInBackground() {
+			return databaseConnector.prefetchMovies(ids);
+		}
+
+		@Override
+		protected void onResult(Integer movies) {
+			pending = null;
+		}
+	} // end class PrefetchTask
+} // end class DetailPrefetcher
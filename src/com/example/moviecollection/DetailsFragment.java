@@ -2,28 +2,33 @@
 // Displays one contact's details
 package com.example.moviecollection;
 
+import java.io.IOException;
+
 import android.app.Activity;
-import android.app.AlertDialog;
-import android.app.Dialog;
-import android.app.DialogFragment;
 import android.app.Fragment;
-import android.content.DialogInterface;
-import android.database.Cursor;
-import android.os.AsyncTask;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.Intent;
+import android.database.ContentObserver;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 public class DetailsFragment extends Fragment {
 	// callback methods implemented by MainActivity
 	public interface DetailsFragmentListener {
-		// called when a movie is deleted
-		public void onMovieDeleted();
+		// called when a movie is deleted; undoDelete takes undoToken
+		public void onMovieDeleted(long undoToken);
 
 		// called to pass Bundle of contact's info for editing
 		public void onEditMovie(Bundle arguments);
@@ -36,6 +41,14 @@ public class DetailsFragment extends Fragment {
 	private TextView yearTextView; // displays contact's phone
 	private TextView directorTextView; // displays contact's email
 	private TextView runtimeTextView; // displays contact's street
+	private ImageView posterImageView; // displays the movie's poster
+	private PosterLoader posterLoader; // decodes the poster off the GUI thread
+
+	private static final int PICK_POSTER = 1; // request code for the picker
+
+	private long loadedGeneration = -1; // ChangeTracker generation shown
+	private TaskScheduler.Handle loadHandle; // load in flight, if any
+	private final Handler handler = new Handler(Looper.getMainLooper());
 
 	// set DetailsFragmentListener when fragment attached
 	@Override
@@ -79,14 +92,90 @@ public class DetailsFragment extends Fragment {
 		yearTextView = (TextView) view.findViewById(R.id.yearTextView);
 		directorTextView = (TextView) view.findViewById(R.id.directorTextView);
 		runtimeTextView = (TextView) view.findViewById(R.id.runtimeTextView);
+		posterImageView = (ImageView) view.findViewById(R.id.posterImageView);
+		posterLoader = new PosterLoader(this);
+		loadedGeneration = -1; // new views are empty
 		return view;
 	}
 
+	// watch this contact's row while the fragment is visible
+	@Override
+	public void onStart() {
+		super.onStart();
+		getActivity().getContentResolver().registerContentObserver(
+				ContentUris.withAppendedId(ChangeTracker.MOVIES_URI, rowID),
+				false, movieObserver);
+	}
+
+	// show another movie in this fragment's views, as the tablet's details
+	// pane does for each movie tapped, instead of replacing the fragment
+	public void showMovie(long id) {
+		if (loadHandle != null) { // for the movie shown so far
+			loadHandle.cancel();
+			loadHandle = null;
+		}
+
+		rowID = id;
+		getArguments().putLong(MainActivity.ROW_ID, id);
+		getActivity().getContentResolver().unregisterContentObserver(
+				movieObserver);
+		getActivity().getContentResolver().registerContentObserver(
+				ContentUris.withAppendedId(ChangeTracker.MOVIES_URI, rowID),
+				false, movieObserver);
+		loadedGeneration = -1;
+		loadIfChanged();
+	}
+
 	// called when the DetailsFragment resumes
 	@Override
 	public void onResume() {
 		super.onResume();
-		new LoadContactTask().execute(rowID); // load contact at rowID
+		loadIfChanged();
+	}
+
+	// reload when the displayed row changes, e.g. in a bulk edit
+	private final ContentObserver movieObserver = new ContentObserver(handler) {
+		@Override
+		public void onChange(boolean selfChange) {
+			if (isResumed())
+				loadIfChanged();
+		}
+	};
+
+	// load the contact unless the displayed data is still current
+	private void loadIfChanged() {
+		ChangeTracker changeTracker = DatabaseConnector
+				.getChangeTracker(getActivity());
+		long generation = changeTracker.getGeneration();
+		boolean current = loadedGeneration >= 0
+				&& !changeTracker.hasRowChangedSince(rowID, loadedGeneration);
+		loadedGeneration = generation;
+		if (current)
+			return;
+
+		// a movie read ahead or read before is shown at once
+		Movie cached = DatabaseConnector.getCachedMovie(rowID);
+		if (cached != null) {
+			displayMovie(cached);
+			return;
+		}
+
+		// load contact at rowID, sharing a load already in flight for it
+		loadHandle = TaskScheduler.getInstance().submit(this, "movie:" + rowID,
+				TaskScheduler.PRIORITY_UI_READ, new LoadContactTask(rowID));
+	}
+
+	// drop results that would arrive while the fragment is stopped
+	@Override
+	public void onStop() {
+		getActivity().getContentResolver().unregisterContentObserver(
+				movieObserver);
+		TaskScheduler.getInstance().cancelAll(this);
+		if (loadHandle != null) { // the load never arrived, so redo it
+			loadHandle = null;
+			loadedGeneration = -1;
+		}
+		super.onStop();
 	}
 
 	// save currently displayed contact's row ID
@@ -120,94 +209,132 @@ public class DetailsFragment extends Fragment {
 		case R.id.action_delete:
 			deleteContact();
 			return true;
+		case R.id.action_set_poster:
+			// let the user pick an image from any app that has some
+			Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+			intent.setType("image/*");
+			startActivityForResult(intent, PICK_POSTER);
+			return true;
 		}
 
 		return super.onOptionsItemSelected(item);
 	}
 
 	// performs database query outside GUI thread
-	private class LoadContactTask extends AsyncTask<Long, Object, Cursor> {
+	private class LoadContactTask extends TaskScheduler.Task<Movie> {
 		DatabaseConnector databaseConnector = new DatabaseConnector(
 				getActivity());
+		private final long id;
 
-		// open database & get Cursor representing specified contact's data
+		public LoadContactTask(long id) {
+			this.id = id;
+		}
+
+		// get the specified contact's data, or null if it no longer exists
 		@Override
-		protected Cursor doInBackground(Long... params) {
-			databaseConnector.open();
-			return databaseConnector.getOneMovie(params[0]);
+		protected Movie doInBackground() {
+			return databaseConnector.getMovie(id); // cached after first read
 		}
 
-		// use the Cursor returned from the doInBackground method
+		// use the Movie returned from the doInBackground method
 		@Override
-		protected void onPostExecute(Cursor result) {
-			super.onPostExecute(result);
-			result.moveToFirst(); // move to the first item
-
-			// get the column index for each data item
-			int titleIndex = result.getColumnIndex("title");
-			int yearIndex = result.getColumnIndex("year");
-			int directorIndex = result.getColumnIndex("director");
-			int runtimeIndex = result.getColumnIndex("runtime");
-
-			// fill TextViews with the retrieved data
-			titleTextView.setText(result.getString(titleIndex));
-			yearTextView.setText(result.getString(yearIndex));
-			directorTextView.setText(result.getString(directorIndex));
-			runtimeTextView.setText(result.getString(runtimeIndex));
-
-			result.close(); // close the result cursor
-			databaseConnector.close(); // close database connection
-		} // end method onPostExecute
+		protected void onResult(Movie movie) {
+			loadHandle = null;
+			if (movie != null && id == rowID)
+				displayMovie(movie);
+		} // end method onResult
 	} // end class LoadContactTask
 
-	// delete a movie
-	private void deleteContact() {
-		// use FragmentManager to display the confirmDelete DialogFragment
-		confirmDelete.show(getFragmentManager(), "confirm delete");
+	// fill the views with movie's data
+	private void displayMovie(Movie movie) {
+		titleTextView.setText(movie.getTitle());
+		yearTextView.setText(Movie.formatYear(movie.getYear()));
+		directorTextView.setText(movie.getDirector());
+		runtimeTextView.setText(Movie.formatRuntime(movie.getRuntime()));
+
+		// full width, downsampled in the background
+		posterLoader.loadPoster(posterImageView, movie.getId(), getResources()
+				.getDisplayMetrics().widthPixels, getResources()
+				.getDimensionPixelSize(R.dimen.poster_height));
+	}
+
+	// copy the picked image in as this movie's poster
+	@Override
+	public void onActivityResult(int requestCode, int resultCode, Intent data) {
+		if (requestCode != PICK_POSTER || resultCode != Activity.RESULT_OK
+				|| data == null || data.getData() == null)
+			return;
+
+		TaskScheduler.getInstance().submit(this, null,
+				TaskScheduler.PRIORITY_WRITE, new SetPosterTask(getActivity()
+						.getApplicationContext(), rowID, data.getData()));
 	}
 
-	// DialogFragment to confirm deletion of contact
-	private DialogFragment confirmDelete = new DialogFragment() {
-		// create an AlertDialog and return it
+	// copies a poster into app storage outside GUI thread
+	private class SetPosterTask extends TaskScheduler.Task<String> {
+		private final Context context;
+		private final long id;
+		private final Uri source;
+
+		public SetPosterTask(Context context, long id, Uri source) {
+			this.context = context;
+			this.id = id;
+			this.source = source;
+		}
+
+		// return null, or why the image could not be used
 		@Override
-		public Dialog onCreateDialog(Bundle bundle) {
-			// create a new AlertDialog Builder
-			AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
-
-			builder.setTitle(R.string.confirm_title);
-			builder.setMessage(R.string.confirm_message);
-
-			// provide an OK button that simply dismisses the dialog
-			builder.setPositiveButton(R.string.button_delete,
-					new DialogInterface.OnClickListener() {
-						@Override
-						public void onClick(DialogInterface dialog, int button) {
-							final DatabaseConnector databaseConnector = new DatabaseConnector(
-									getActivity());
-
-							// AsyncTask deletes contact and notifies listener
-							AsyncTask<Long, Object, Object> deleteTask = new AsyncTask<Long, Object, Object>() {
-								@Override
-								protected Object doInBackground(Long... params) {
-									databaseConnector.deleteMovie(params[0]);
-									return null;
-								}
-
-								@Override
-								protected void onPostExecute(Object result) {
-									listener.onMovieDeleted();
-								}
-							}; // end new AsyncTask
-
-							// execute the AsyncTask to delete contact at rowID
-							deleteTask.execute(new Long[] { rowID });
-						} // end method onClick
-					} // end anonymous inner class
-			); // end call to method setPositiveButton
-
-			builder.setNegativeButton(R.string.button_cancel, null);
-			return builder.create(); // return the AlertDialog
+		protected String doInBackground() {
+			try {
+				PosterStore.getInstance(context).setPoster(id, source);
+				return null;
+			} catch (IOException e) {
+				return context.getString(R.string.poster_failed, e.getMessage());
+			} catch (SecurityException e) {
+				return context.getString(R.string.poster_failed, e.getMessage());
+			}
 		}
-	}; // end DialogFragment anonymous inner class
-} // end class DetailsFragment
 
+		@Override
+		protected void onResult(String error) {
+			onDiscarded(error);
+		}
+
+		// drop the old poster's bitmaps; the row change makes this screen
+		// and the list show the new one
+		@Override
+		protected void onDiscarded(String error) {
+			if (error != null) {
+				Toast.makeText(context, error, Toast.LENGTH_LONG).show();
+				return;
+			}
+
+			posterLoader.invalidate(id);
+			DatabaseConnector.getChangeTracker(context).rowChanged(id);
+		}
+	} // end class SetPosterTask
+
+	// delete a movie at once; the list then offers to undo it
+	private void deleteContact() {
+		final DatabaseConnector databaseConnector = new DatabaseConnector(
+				getActivity());
+		final long id = rowID; // contact to delete
+
+		// task deletes contact and passes the undo token to the listener
+		TaskScheduler.Task<Long> deleteTask = new TaskScheduler.Task<Long>() {
+			@Override
+			protected Long doInBackground() {
+				return databaseConnector.deleteMovie(id);
+			}
+
+			@Override
+			protected void onResult(Long undoToken) {
+				listener.onMovieDeleted(undoToken);
+			}
+		}; // end new Task
+
+		// delete contact at rowID on a background thread
+		TaskScheduler.getInstance().submit(this, null,
+				TaskScheduler.PRIORITY_WRITE, deleteTask);
+	}
+} // end class DetailsFragment
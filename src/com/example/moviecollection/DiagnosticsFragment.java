@@ -0,0 +1,147 @@
+// DiagnosticsFragment.java
+// Debug-only screen showing what the Profiler has recorded
+package com.example.moviecollection;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import android.app.Fragment;
+import android.content.Context;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import android.widget.Toast;
+
+public class DiagnosticsFragment extends Fragment {
+	private final Profiler profiler = Profiler.getInstance();
+	private TextView diagnosticsTextView; // displays Profiler.dump()
+
+	// called when DiagnosticsFragment's view needs to be created
+	@Override
+	public View onCreateView(LayoutInflater inflater, ViewGroup container,
+			Bundle savedInstanceState) {
+		super.onCreateView(inflater, container, savedInstanceState);
+		View view = inflater.inflate(R.layout.fragment_diagnostics, container,
+				false);
+		setHasOptionsMenu(true); // this fragment has menu items to display
+
+		diagnosticsTextView = (TextView) view
+				.findViewById(R.id.diagnosticsTextView);
+		return view;
+	}
+
+	// show the latest numbers whenever the screen comes back
+	@Override
+	public void onResume() {
+		super.onResume();
+		diagnosticsTextView.setText(profiler.dump());
+	}
+
+	// drop a pending save's result
+	@Override
+	public void onStop() {
+		TaskScheduler.getInstance().cancelAll(this);
+		super.onStop();
+	}
+
+	// display this fragment's menu items
+	@Override
+	public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+		super.onCreateOptionsMenu(menu, inflater);
+		inflater.inflate(R.menu.fragment_diagnostics_menu, menu);
+		menu.findItem(R.id.action_capture_plans).setChecked(
+				profiler.isCapturingPlans());
+	}
+
+	// handle menu item selections
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+		switch (item.getItemId()) {
+		case R.id.action_refresh_diagnostics:
+			diagnosticsTextView.setText(profiler.dump());
+			return true;
+		case R.id.action_dump_diagnostics:
+			saveDump();
+			return true;
+		case R.id.action_capture_plans:
+			item.setChecked(!item.isChecked());
+			profiler.setCapturePlans(item.isChecked());
+			return true;
+		case R.id.action_sync:
+			sync();
+			return true;
+		case R.id.action_reset_diagnostics:
+			profiler.reset();
+			diagnosticsTextView.setText(profiler.dump());
+			return true;
+		}
+
+		return super.onOptionsItemSelected(item);
+	}
+
+	// sync with the stand-in server off the GUI thread and show what moved
+	private void sync() {
+		final Context context = getActivity().getApplicationContext();
+
+		TaskScheduler.getInstance().submit(this, "sync",
+				TaskScheduler.PRIORITY_WRITE, new TaskScheduler.Task<String>() {
+					@Override
+					protected String doInBackground() {
+						try {
+							SyncEngine.Result result = new SyncEngine(context,
+									new HttpSyncTransport(new URL(context
+											.getString(R.string.sync_server_url))))
+									.sync();
+							return context.getString(R.string.sync_done,
+									result.pushed, result.pulled,
+									result.conflicts, result.bytesSent
+											+ result.bytesReceived);
+						} catch (IOException e) {
+							return context.getString(R.string.sync_failed,
+									e.getMessage());
+						}
+					}
+
+					@Override
+					protected void onResult(String message) {
+						Toast.makeText(context, message, Toast.LENGTH_LONG)
+								.show();
+						diagnosticsTextView.setText(profiler.dump());
+					}
+				});
+	}
+
+	// write the numbers to a file off the GUI thread and show its path
+	private void saveDump() {
+		final Context context = getActivity().getApplicationContext();
+
+		TaskScheduler.getInstance().submit(this, "diagnosticsDump",
+				TaskScheduler.PRIORITY_MAINTENANCE,
+				new TaskScheduler.Task<String>() {
+					@Override
+					protected String doInBackground() {
+						try {
+							File file = profiler.dumpToFile(context);
+							return context.getString(R.string.diagnostics_saved,
+									file.getPath());
+						} catch (IOException e) {
+							return context.getString(
+									R.string.diagnostics_save_failed,
+									e.getMessage());
+						}
+					}
+
+					@Override
+					protected void onResult(String message) {
+						Toast.makeText(context, message, Toast.LENGTH_LONG)
+								.show();
+					}
+				});
+	}
+} // end class DiagnosticsFragment
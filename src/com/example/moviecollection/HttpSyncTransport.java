@@ -0,0 +1,61 @@
+// HttpSyncTransport.java
+// Posts SyncProtocol messages to a sync server over HTTP, such as the
+// benchmark module's stand-in on the development machine
+package com.example.moviecollection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+public class HttpSyncTransport implements SyncTransport {
+	private static final int TIMEOUT_MS = 15000;
+
+	private final URL url;
+
+	// constructor
+	public HttpSyncTransport(URL url) {
+		this.url = url;
+	}
+
+	@Override
+	public byte[] exchange(byte[] request) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url
+				.openConnection();
+		try {
+			connection.setConnectTimeout(TIMEOUT_MS);
+			connection.setReadTimeout(TIMEOUT_MS);
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(request.length);
+			connection.setRequestProperty("Content-Type",
+					"application/octet-stream");
+
+			OutputStream output = connection.getOutputStream();
+			try {
+				output.write(request);
+			} finally {
+				output.close();
+			}
+
+			int status = connection.getResponseCode();
+			if (status != HttpURLConnection.HTTP_OK)
+				throw new IOException("Sync server answered " + status);
+
+			InputStream input = connection.getInputStream();
+			try {
+				ByteArrayOutputStream response = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = input.read(buffer)) != -1)
+					response.write(buffer, 0, read);
+				return response.toByteArray();
+			} finally {
+				input.close();
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
+} // end class HttpSyncTransport
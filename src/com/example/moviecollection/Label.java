@@ -0,0 +1,43 @@
+// Label.java
+// A named collection, like a shelf, a format or the movies lent out, or a
+// free-form tag; a movie can have any number of either
+package com.example.moviecollection;
+
+public final class Label {
+	public static final int COLLECTION = 0; // kinds, in the order listed
+	public static final int TAG = 1;
+
+	private final long id; // database row ID
+	private final int kind; // COLLECTION or TAG
+	private final String name; // unique, ignoring case, within its kind
+	private final int count; // movies labeled, or Movie.UNKNOWN
+
+	// constructor
+	public Label(long id, int kind, String name, int count) {
+		this.id = id;
+		this.kind = kind;
+		this.name = name;
+		this.count = count;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public int getKind() {
+		return kind;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+} // end class Label
@@ -2,7 +2,9 @@
 package com.example.moviecollection;
 
 import android.app.Activity;
+import android.app.Fragment;
 import android.app.FragmentTransaction;
+import android.content.Context;
 import android.os.Bundle;
 
 public class MainActivity extends Activity implements
@@ -12,18 +14,55 @@ public class MainActivity extends Activity implements
 	// keys for storing row ID in Bundle passed to a fragment
 	public static final String ROW_ID = "row_id";
 
+	// tag of the phone layout's MovieListFragment
+	private static final String MOVIE_LIST_TAG = "movie_list";
+
+	// launch extra that times the schema migrations on this many rows in
+	// debug builds only, e.g.
+	// adb shell am start -n com.example.moviecollection/.MainActivity
+	// --ei migration_benchmark_rows 1000000
+	public static final String MIGRATION_BENCHMARK_ROWS = "migration_benchmark_rows";
+
 	MovieListFragment movieListFragment; // displays contact list
 
 	// display MovieListFragment when MainActivity first loads
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+
+		// on a cold start, open the database and read the saved first rows
+		// of the list in the background while the layout is inflated
+		StartupTrace.begin();
+		DatabaseConnector.warmUp(getApplicationContext());
+		StartupSnapshot.preload(getApplicationContext());
+
 		setContentView(R.layout.activity_main);
+		StartupTrace.traceFirstFrame(this);
+
+		// run the migration benchmark if requested; results go to logcat.
+		// Any app can launch this activity, so release builds ignore it
+		final int benchmarkRows = getIntent().getIntExtra(
+				MIGRATION_BENCHMARK_ROWS, 0);
+		if (BuildConfig.DEBUG && savedInstanceState == null
+				&& benchmarkRows > 0) {
+			final Context context = getApplicationContext();
+			new Thread("migration-benchmark") {
+				@Override
+				public void run() {
+					MigrationBenchmark.run(context, benchmarkRows);
+				}
+			}.start();
+		}
+
+		// write saves a crash left in the journal
+		SaveJournal.start(getApplicationContext());
 
 		// return if Activity is being restored, no need to recreate GUI
 		if (savedInstanceState != null)
 			return;
 
+		Maintenance.schedule(getApplicationContext()); // no-op once scheduled
+
 		// check whether layout contains fragmentContainer (phone layout);
 		// MovieListFragment is always displayed
 		if (findViewById(R.id.fragmentContainer) != null) {
@@ -33,7 +72,8 @@ public class MainActivity extends Activity implements
 			// add the fragment to the FrameLayout
 			FragmentTransaction transaction = getFragmentManager()
 					.beginTransaction();
-			transaction.add(R.id.fragmentContainer, movieListFragment);
+			transaction.add(R.id.fragmentContainer, movieListFragment,
+					MOVIE_LIST_TAG);
 			transaction.commit(); // causes MovieListFragment to display
 		}
 	}
@@ -43,12 +83,16 @@ public class MainActivity extends Activity implements
 	protected void onResume() {
 		super.onResume();
 
-		// if MovieListFragment is null, activity running on tablet,
-		// so get reference from FragmentManager
+		// if MovieListFragment is null, activity running on tablet or
+		// restored, so get reference from FragmentManager
 		if (movieListFragment == null) {
 			movieListFragment = (MovieListFragment) getFragmentManager()
 					.findFragmentById(R.id.movieListFragment);
 		}
+		if (movieListFragment == null) {
+			movieListFragment = (MovieListFragment) getFragmentManager()
+					.findFragmentByTag(MOVIE_LIST_TAG);
+		}
 	}
 
 	// display a movie
@@ -85,11 +129,11 @@ public class MainActivity extends Activity implements
 
 	// return to contact list when displayed contact deleted
 	@Override
-	public void onMovieDeleted() {
+	public void onMovieDeleted(long undoToken) {
 		getFragmentManager().popBackStack(); // removes top of back stack
-
-		if (findViewById(R.id.fragmentContainer) == null) // tablet
-			movieListFragment.updateMovieList();
+		// MovieListFragment refreshes itself when it sees the deletion
+		if (movieListFragment != null)
+			movieListFragment.showUndo(undoToken);
 	}
 
 	// display the AddEditFragment to edit an existing contact
@@ -110,10 +154,11 @@ public class MainActivity extends Activity implements
 		if (findViewById(R.id.fragmentContainer) == null) // tablet
 		{
 			getFragmentManager().popBackStack(); // removes top of back stack
-			movieListFragment.updateMovieList(); // refresh contacts
 
-			// on tablet, display contact that was just added or edited
-			displayMovie(rowID, R.id.rightPaneContainer);
+			// on tablet, display contact that was just added or edited,
+			// unless a new one could not be inserted
+			if (rowID != -1)
+				displayMovie(rowID, R.id.rightPaneContainer);
 		}
 	}
 
@@ -124,11 +169,43 @@ public class MainActivity extends Activity implements
 			displayMovie(rowID, R.id.fragmentContainer);
 		else // tablet
 		{
-			getFragmentManager().popBackStack(); // removes top of back stack
-			displayMovie(rowID, R.id.rightPaneContainer);
+			// a details pane already showing just switches movies, taking
+			// the movie from memory if it was read ahead
+			Fragment shown = getFragmentManager().findFragmentById(
+					R.id.rightPaneContainer);
+			if (shown instanceof DetailsFragment && shown.isResumed())
+				((DetailsFragment) shown).showMovie(rowID);
+			else {
+				getFragmentManager().popBackStack(); // removes top of back stack
+				displayMovie(rowID, R.id.rightPaneContainer);
+			}
 		}
 	}
 
+	// display the collection statistics
+	@Override
+	public void onShowStats() {
+		displayFragment(new StatsFragment());
+	}
+
+	// display the profiling numbers
+	@Override
+	public void onShowDiagnostics() {
+		displayFragment(new DiagnosticsFragment());
+	}
+
+	// display a screen in the phone's container or the tablet's right pane
+	private void displayFragment(Fragment fragment) {
+		int viewID = findViewById(R.id.fragmentContainer) != null ? R.id.fragmentContainer
+				: R.id.rightPaneContainer;
+
+		FragmentTransaction transaction = getFragmentManager()
+				.beginTransaction();
+		transaction.replace(viewID, fragment);
+		transaction.addToBackStack(null);
+		transaction.commit(); // causes the fragment to display
+	}
+
 	@Override
 	public void onAddMovie() {
 		// TODO Auto-generated method stub
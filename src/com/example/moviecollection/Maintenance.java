@@ -0,0 +1,129 @@
+// Maintenance.java
+// Database upkeep run while the device is idle and charging: purges
+// deleted movies and their posters, gives free pages back and refreshes
+// planner statistics
+package com.example.moviecollection;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+public class Maintenance {
+	private static final int JOB_ID = 1; // the JobScheduler job
+	private static final long INTERVAL_MS = AlarmManager.INTERVAL_DAY;
+	private static final int PURGE_BATCH = 500; // movies purged per write
+	private static final int VACUUM_PAGES = 256; // pages freed per write
+
+	// when maintenance last finished, for the alarm fallback
+	private static final String PREFERENCES = "maintenance";
+	private static final String LAST_RUN = "last_run";
+
+	// ask the system to run maintenance daily while the device is idle
+	// and charging; scheduling again replaces nothing already scheduled
+	public static void schedule(Context context) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+			scheduleJob(context);
+		else
+			scheduleAlarm(context);
+	}
+
+	// let JobScheduler pick the moment
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	private static void scheduleJob(Context context) {
+		JobScheduler jobScheduler = (JobScheduler) context
+				.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+		for (JobInfo job : jobScheduler.getAllPendingJobs())
+			if (job.getId() == JOB_ID)
+				return; // already scheduled
+
+		jobScheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(
+				context, MaintenanceService.class))
+				.setRequiresDeviceIdle(true).setRequiresCharging(true)
+				.setPeriodic(INTERVAL_MS).setPersisted(true).build());
+	}
+
+	// before JobScheduler, MaintenanceReceiver checks hourly whether the
+	// device is idle and charging and a run is due
+	private static void scheduleAlarm(Context context) {
+		Intent intent = new Intent(context, MaintenanceReceiver.class);
+		if (PendingIntent.getBroadcast(context, 0, intent,
+				PendingIntent.FLAG_NO_CREATE) != null)
+			return; // already scheduled
+
+		AlarmManager alarmManager = (AlarmManager) context
+				.getSystemService(Context.ALARM_SERVICE);
+		alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+				SystemClock.elapsedRealtime() + AlarmManager.INTERVAL_HOUR,
+				AlarmManager.INTERVAL_HOUR,
+				PendingIntent.getBroadcast(context, 0, intent, 0));
+	}
+
+	// true if the last run finished a full interval ago
+	static boolean isDue(Context context) {
+		return getPreferences(context).getLong(LAST_RUN, 0) + INTERVAL_MS <= System
+				.currentTimeMillis();
+	}
+
+	// true if power is connected and the screen is off
+	@SuppressWarnings("deprecation")
+	static boolean isIdleAndCharging(Context context) {
+		Intent battery = context.registerReceiver(null, new IntentFilter(
+				Intent.ACTION_BATTERY_CHANGED)); // sticky, so no receiver
+		PowerManager powerManager = (PowerManager) context
+				.getSystemService(Context.POWER_SERVICE);
+
+		return battery != null
+				&& battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0
+				&& !powerManager.isScreenOn();
+	}
+
+	// run each step, checking stopped between writes so the app's own
+	// writes are never held up for long; return true if all steps finished
+	public static boolean run(Context context, AtomicBoolean stopped) {
+		DatabaseConnector databaseConnector = new DatabaseConnector(context);
+		long start = System.nanoTime();
+
+		// a delete can no longer be undone once its window has passed
+		long deletedBefore = System.currentTimeMillis()
+				- DatabaseConnector.UNDO_WINDOW_MS;
+		while (!stopped.get()
+				&& databaseConnector.purgeDeleted(deletedBefore, PURGE_BATCH) == PURGE_BATCH)
+			;
+
+		// posters of movies that are gone for good
+		PosterStore posterStore = PosterStore.getInstance(context);
+		for (long id : posterStore.getAllPosterIds())
+			if (!stopped.get() && !databaseConnector.isMovieKept(id))
+				posterStore.removePoster(id);
+
+		int freePages = 1;
+		while (!stopped.get() && freePages > 0)
+			freePages = databaseConnector.vacuumIncrementally(VACUUM_PAGES);
+
+		if (stopped.get())
+			return false;
+
+		databaseConnector.optimize();
+		getPreferences(context).edit()
+				.putLong(LAST_RUN, System.currentTimeMillis()).commit();
+		Profiler.getInstance().record("maintenance", start, -1);
+		return true;
+	}
+
+	private static SharedPreferences getPreferences(Context context) {
+		return context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+	}
+} // end class Maintenance
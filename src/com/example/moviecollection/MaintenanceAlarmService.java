@@ -0,0 +1,75 @@
+// MaintenanceAlarmService.java
+// Runs Maintenance for MaintenanceReceiver on devices without JobScheduler,
+// holding the CPU awake and stopping as JobScheduler would once the screen
+// turns on or power is unplugged
+package com.example.moviecollection;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.app.IntentService;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.PowerManager;
+
+public class MaintenanceAlarmService extends IntentService {
+	private static final String WAKE_LOCK_TAG = "moviecollection:maintenance";
+	private static final long WAKE_LOCK_TIMEOUT_MS = 30 * 60 * 1000; // at most
+
+	// taken by start, before the alarm's broadcast ends, and released once
+	// the run is over, so the device cannot sleep in between
+	private static PowerManager.WakeLock wakeLock;
+
+	// start a run, keeping the CPU awake until it ends
+	static void start(Context context) {
+		synchronized (MaintenanceAlarmService.class) {
+			if (wakeLock == null) {
+				PowerManager powerManager = (PowerManager) context
+						.getSystemService(Context.POWER_SERVICE);
+				wakeLock = powerManager.newWakeLock(
+						PowerManager.PARTIAL_WAKE_LOCK, WAKE_LOCK_TAG);
+				wakeLock.setReferenceCounted(false);
+			}
+			wakeLock.acquire(WAKE_LOCK_TIMEOUT_MS);
+		}
+		context.startService(new Intent(context, MaintenanceAlarmService.class));
+	}
+
+	// constructor
+	public MaintenanceAlarmService() {
+		super("maintenance");
+	}
+
+	// run on the service's worker thread, checking again that the device
+	// is idle and charging whenever the screen or power changes
+	@Override
+	protected void onHandleIntent(Intent intent) {
+		final AtomicBoolean stopped = new AtomicBoolean();
+		BroadcastReceiver powerReceiver = new BroadcastReceiver() {
+			@Override
+			public void onReceive(Context context, Intent intent) {
+				if (Intent.ACTION_POWER_DISCONNECTED.equals(intent
+						.getAction())
+						|| !Maintenance.isIdleAndCharging(context))
+					stopped.set(true); // after the current write
+			}
+		};
+		IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+		filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+		registerReceiver(powerReceiver, filter);
+
+		try {
+			Context context = getApplicationContext();
+			if (Maintenance.isDue(context)
+					&& Maintenance.isIdleAndCharging(context))
+				Maintenance.run(context, stopped);
+		} finally {
+			unregisterReceiver(powerReceiver);
+			synchronized (MaintenanceAlarmService.class) {
+				if (wakeLock != null && wakeLock.isHeld())
+					wakeLock.release();
+			}
+		}
+	}
+} // end class MaintenanceAlarmService
@@ -0,0 +1,18 @@
+// MaintenanceReceiver.java
+// Starts MaintenanceAlarmService from an hourly alarm on devices without
+// JobScheduler, when it is due and the device is idle and charging
+package com.example.moviecollection;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+public class MaintenanceReceiver extends BroadcastReceiver {
+	@Override
+	public void onReceive(Context context, Intent intent) {
+		Context applicationContext = context.getApplicationContext();
+		if (Maintenance.isDue(applicationContext)
+				&& Maintenance.isIdleAndCharging(applicationContext))
+			MaintenanceAlarmService.start(applicationContext);
+	}
+} // end class MaintenanceReceiver
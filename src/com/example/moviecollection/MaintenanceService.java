@@ -0,0 +1,41 @@
+// MaintenanceService.java
+// Runs Maintenance when JobScheduler finds the device idle and charging
+package com.example.moviecollection;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class MaintenanceService extends JobService {
+	private AtomicBoolean stopped; // set when the job must stop
+
+	// run the maintenance off the main thread
+	@Override
+	public boolean onStartJob(final JobParameters parameters) {
+		final AtomicBoolean stopped = new AtomicBoolean();
+		this.stopped = stopped;
+
+		new Thread("maintenance") {
+			@Override
+			public void run() {
+				boolean finished = Maintenance.run(getApplicationContext(),
+						stopped);
+				jobFinished(parameters, !finished);
+			}
+		}.start();
+		return true; // still working
+	}
+
+	// the device is in use or unplugged again; stop after the current
+	// write and try again later
+	@Override
+	public boolean onStopJob(JobParameters parameters) {
+		if (stopped != null)
+			stopped.set(true);
+		return true;
+	}
+} // end class MaintenanceService
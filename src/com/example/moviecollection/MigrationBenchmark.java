@@ -0,0 +1,84 @@
+// MigrationBenchmark.java
+// Times the schema migrations on a generated version 1 database
+package com.example.moviecollection;
+
+import java.io.File;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+public class MigrationBenchmark {
+	private static final String TAG = "MigrationBenchmark";
+	private static final String DATABASE_NAME = "MigrationBenchmarkDB";
+	private static final int MAX_ROWS = 1000000; // bounds the file's size
+
+	// build a version 1 database with rows movies, at most MAX_ROWS,
+	// upgrade it to the current version and return the upgrade time in
+	// milliseconds
+	public static long run(Context context, int rows) {
+		rows = Math.min(rows, MAX_ROWS);
+		File file = context.getDatabasePath(DATABASE_NAME);
+		deleteDatabase(file); // start from a clean file
+		file.getParentFile().mkdirs();
+
+		SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+		try {
+			populate(db, rows);
+
+			long start = System.nanoTime();
+			db.beginTransaction();
+			try {
+				DatabaseConnector.DatabaseOpenHelper.migrate(db, 1,
+						DatabaseConnector.DATABASE_VERSION);
+				db.setVersion(DatabaseConnector.DATABASE_VERSION);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+			long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+			Log.i(TAG, "Upgraded " + rows + " rows from version 1 to "
+					+ DatabaseConnector.DATABASE_VERSION + " in " + elapsedMs
+					+ " ms");
+			return elapsedMs;
+		} finally {
+			db.close();
+			deleteDatabase(file);
+		}
+	}
+
+	// delete the database file and its journals
+	private static void deleteDatabase(File file) {
+		String[] suffixes = { "", "-journal", "-wal", "-shm" };
+		for (String suffix : suffixes)
+			new File(file.getPath() + suffix).delete();
+	}
+
+	// fill a version 1 schema with text years and mixed runtime formats
+	private static void populate(SQLiteDatabase db, int rows) {
+		DatabaseConnector.DatabaseOpenHelper.createVersion1(db);
+		db.setVersion(1);
+
+		String[] runtimes = { "136", "2h 16m", "1:42", "95 min", "" };
+		SQLiteStatement insert = db.compileStatement(
+				"INSERT INTO movies (title, year, director, runtime) "
+						+ "VALUES (?, ?, ?, ?)");
+
+		db.beginTransaction();
+		try {
+			for (int i = 0; i < rows; ++i) {
+				insert.bindString(1, "Movie " + i);
+				insert.bindString(2, String.valueOf(1920 + i % 100));
+				insert.bindString(3, "Director " + i % 5000);
+				insert.bindString(4, runtimes[i % runtimes.length]);
+				insert.executeInsert();
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			insert.close();
+		}
+	}
+} // end class MigrationBenchmark
@@ -0,0 +1,106 @@
+// Movie.java
+// Holds one movie's information
+package com.example.moviecollection;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class Movie {
+	// year or runtime that was not entered
+	public static final int UNKNOWN = 0;
+
+	// runtime formats such as "2h 16m", "2:16" and "136 min"
+	private static final Pattern HOURS_MINUTES = Pattern.compile(
+			"(\\d+)\\s*h\\w*\\s*(?:(\\d+)\\s*m\\w*)?", Pattern.CASE_INSENSITIVE);
+	private static final Pattern CLOCK = Pattern.compile("(\\d+):(\\d{1,2})");
+	private static final Pattern NUMBER = Pattern.compile("\\d+");
+	private static final Pattern YEAR = Pattern.compile("\\d{4}");
+
+	private final long id; // database row ID, or -1 if not yet stored
+	private final String title;
+	private final int year; // or UNKNOWN
+	private final String director;
+	private final int runtime; // in minutes, or UNKNOWN
+
+	// constructor for a movie that is not yet in the database
+	public Movie(String title, int year, String director, int runtime) {
+		this(-1, title, year, director, runtime);
+	}
+
+	// constructor for a stored movie
+	public Movie(long id, String title, int year, String director,
+			int runtime) {
+		this.id = id;
+		this.title = title;
+		this.year = year;
+		this.director = director;
+		this.runtime = runtime;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public int getYear() {
+		return year;
+	}
+
+	public String getDirector() {
+		return director;
+	}
+
+	public int getRuntime() {
+		return runtime;
+	}
+
+	// return the first four-digit number in text, or UNKNOWN
+	public static int parseYear(String text) {
+		if (text == null)
+			return UNKNOWN;
+
+		Matcher matcher = YEAR.matcher(text);
+		return matcher.find() ? Integer.parseInt(matcher.group()) : UNKNOWN;
+	}
+
+	// return the runtime in text converted to minutes, or UNKNOWN
+	public static int parseRuntime(String text) {
+		if (text == null)
+			return UNKNOWN;
+
+		try {
+			Matcher matcher = HOURS_MINUTES.matcher(text);
+			if (matcher.find()) {
+				int minutes = Integer.parseInt(matcher.group(1)) * 60;
+				if (matcher.group(2) != null)
+					minutes += Integer.parseInt(matcher.group(2));
+				return minutes;
+			}
+
+			matcher = CLOCK.matcher(text);
+			if (matcher.find())
+				return Integer.parseInt(matcher.group(1)) * 60
+						+ Integer.parseInt(matcher.group(2));
+
+			matcher = NUMBER.matcher(text); // plain minutes
+			if (matcher.find())
+				return Integer.parseInt(matcher.group());
+		} catch (NumberFormatException e) {
+			// too many digits to be a runtime
+		}
+		return UNKNOWN;
+	}
+
+	// return a year for display, "" if unknown
+	public static String formatYear(int year) {
+		return year == UNKNOWN ? "" : String.valueOf(year);
+	}
+
+	// return a runtime for display, "" if unknown
+	public static String formatRuntime(int runtime) {
+		return runtime == UNKNOWN ? "" : runtime + " min";
+	}
+} // end class Movie
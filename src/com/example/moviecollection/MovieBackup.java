@@ -0,0 +1,146 @@
+// MovieBackup.java
+// Backs the collection up to a MovieSnapshot file and restores it from
+// one, each on its own thread
+package com.example.moviecollection;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import android.content.Context;
+import android.database.Cursor;
+
+public class MovieBackup {
+	// callback methods invoked on the backup's thread
+	public interface BackupListener {
+		// called after each page is written or each batch is restored
+		public void onBackupProgress(long rows, long totalRows,
+				long rowsPerSecond);
+
+		// called once when the backup or restore is complete
+		public void onBackupFinished(long rows);
+
+		// called once if the database or the snapshot cannot be used
+		public void onBackupFailed(Exception error);
+	}
+
+	private static final int PAGE_SIZE = 8192; // rows read per query
+
+	private final DatabaseConnector databaseConnector;
+	private final File file;
+	private final BackupListener listener;
+	private final Profiler profiler = Profiler.getInstance();
+
+	// constructor
+	public MovieBackup(Context context, File file, BackupListener listener) {
+		this.databaseConnector = new DatabaseConnector(context);
+		this.file = file;
+		this.listener = listener;
+	}
+
+	// write every movie to the snapshot file, replacing it only once the
+	// new snapshot is complete
+	public void backup() {
+		new Thread("backup") {
+			@Override
+			public void run() {
+				try {
+					listener.onBackupFinished(writeSnapshot());
+				} catch (Exception e) {
+					listener.onBackupFailed(e);
+				}
+			}
+		}.start();
+	}
+
+	// replace every movie with the snapshot's, keeping their row IDs so
+	// posters stay with their movies; a damaged snapshot is rejected
+	// before anything is deleted
+	public void restore() {
+		new Thread("restore") {
+			@Override
+			public void run() {
+				try {
+					listener.onBackupFinished(readSnapshot());
+				} catch (Exception e) {
+					listener.onBackupFailed(e);
+				}
+			}
+		}.start();
+	}
+
+	// page through the table in row ID order into a new snapshot; each
+	// page is its own read, so saves made meanwhile may or may not be in
+	private long writeSnapshot() throws IOException {
+		SaveJournal.flushPending(); // saves made before the backup are in
+		long start = System.nanoTime();
+		long totalRows = databaseConnector.getMovieCount();
+		File partial = new File(file.getPath() + ".tmp");
+		MovieSnapshot.Writer writer = new MovieSnapshot.Writer(partial, true);
+		boolean complete = false;
+
+		try {
+			long afterId = 0;
+			int pageRows;
+			do {
+				Cursor cursor = databaseConnector.getMoviesById(afterId,
+						PAGE_SIZE);
+				try {
+					pageRows = cursor.getCount();
+					while (cursor.moveToNext()) {
+						afterId = cursor.getLong(0);
+						writer.write(new Movie(afterId, cursor.getString(1),
+								cursor.getInt(2), cursor.getString(3), cursor
+										.getInt(4))); // NULL reads as UNKNOWN
+					}
+				} finally {
+					cursor.close();
+				}
+				reportProgress(writer.getRows(), totalRows, start);
+			} while (pageRows == PAGE_SIZE);
+
+			writer.finish();
+			complete = true;
+		} finally {
+			writer.close();
+			if (!complete)
+				partial.delete();
+		}
+
+		if (!partial.renameTo(file))
+			throw new IOException("cannot replace " + file);
+		profiler.record("backup", start, (int) writer.getRows());
+		return writer.getRows();
+	}
+
+	// check the snapshot, empty the table and insert it a block at a time
+	private long readSnapshot() throws IOException {
+		long start = System.nanoTime();
+		MovieSnapshot.Reader reader = new MovieSnapshot.Reader(file);
+
+		try {
+			long totalRows = reader.verify();
+			databaseConnector.deleteAllMovies();
+
+			long rows = 0;
+			List<Movie> movies;
+			while ((movies = reader.next()) != null) {
+				databaseConnector.restoreBatch(movies);
+				rows += movies.size();
+				reportProgress(rows, totalRows, start);
+			}
+			databaseConnector.finishRestore();
+
+			profiler.record("restore", start, (int) rows);
+			return rows;
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void reportProgress(long rows, long totalRows, long start) {
+		long elapsed = Math.max(1, System.nanoTime() - start);
+		listener.onBackupProgress(rows, Math.max(rows, totalRows), rows
+				* 1000000000L / elapsed);
+	}
+} // end class MovieBackup
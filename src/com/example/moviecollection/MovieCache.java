@@ -0,0 +1,100 @@
+// MovieCache.java
+// Bounded LRU cache of Movie records keyed by row ID
+package com.example.moviecollection;
+
+import android.util.LruCache;
+
+public class MovieCache {
+	private static final int RECORD_OVERHEAD_BYTES = 64; // object headers
+
+	private final LruCache<Long, Movie> cache;
+	private long stamp; // bumped by every invalidation
+	private long invalidationCount;
+
+	// constructor; maxSize counts entries, or bytes if sizeInBytes is true
+	public MovieCache(int maxSize, final boolean sizeInBytes) {
+		cache = new LruCache<Long, Movie>(maxSize) {
+			@Override
+			protected int sizeOf(Long id, Movie movie) {
+				return sizeInBytes ? estimateBytes(movie) : 1;
+			}
+		};
+	}
+
+	// return the cached movie, or null
+	public Movie get(long id) {
+		return cache.get(id);
+	}
+
+	// return a stamp to pass to putIfUnchanged after reading from disk
+	public synchronized long getStamp() {
+		return stamp;
+	}
+
+	// cache a movie read from disk unless a write invalidated the cache
+	// since stamp was taken, in which case the movie may be stale
+	public synchronized void putIfUnchanged(Movie movie, long readStamp) {
+		if (readStamp == stamp)
+			cache.put(movie.getId(), movie);
+	}
+
+	// replace a movie after a committed write
+	public synchronized void update(Movie movie) {
+		++stamp;
+		++invalidationCount;
+		cache.put(movie.getId(), movie);
+	}
+
+	// drop a movie after it was deleted or changed
+	public synchronized void invalidate(long id) {
+		++stamp;
+		++invalidationCount;
+		cache.remove(id);
+	}
+
+	// drop every movie, after the whole table was replaced
+	public synchronized void clear() {
+		++stamp;
+		++invalidationCount;
+		cache.evictAll();
+	}
+
+	// number of lookups that found a movie
+	public int getHitCount() {
+		return cache.hitCount();
+	}
+
+	// number of lookups that did not
+	public int getMissCount() {
+		return cache.missCount();
+	}
+
+	// number of movies pushed out by newer ones
+	public int getEvictionCount() {
+		return cache.evictionCount();
+	}
+
+	// number of movies replaced or dropped by writes
+	public synchronized long getInvalidationCount() {
+		return invalidationCount;
+	}
+
+	// counters as one line for logging
+	@Override
+	public String toString() {
+		return "size=" + cache.size() + "/" + cache.maxSize() + " hits="
+				+ getHitCount() + " misses=" + getMissCount() + " evictions="
+				+ getEvictionCount() + " invalidations="
+				+ getInvalidationCount();
+	}
+
+	// rough heap size of a movie record
+	private static int estimateBytes(Movie movie) {
+		return RECORD_OVERHEAD_BYTES + 2 * (length(movie.getTitle()) + length(movie
+				.getDirector()));
+	}
+
+	private static int length(String text) {
+		return text == null ? 0 : text.length();
+	}
+} // end class MovieCache
@@ -0,0 +1,474 @@
+// MovieContract.java
+// SQL shared by the app and the JVM benchmarks; plain Java with no
+// Android dependencies so the benchmark module can compile it as is
+package com.example.moviecollection;
+
+public final class MovieContract {
+	// version of the schema below; a fresh app database ends up identical
+	// to it after its migrations run
+	public static final int SCHEMA_VERSION = 12;
+
+	// section of a title in the list's title COLLATE NOCASE order: "#" for
+	// titles sorting before the letters, "A" to "Z", then "~" for the rest
+	private static final String SECTION_OF_NEW = sectionOf("new.title");
+	private static final String SECTION_OF_OLD = sectionOf("old.title");
+
+	// number of movies in each title section, kept by the triggers below so
+	// the list's section offsets never need a scan of movies
+	public static final String CREATE_TITLE_SECTIONS = "CREATE TABLE "
+			+ "title_sections (section TEXT primary key, "
+			+ "count INTEGER NOT NULL)";
+	public static final String FILL_TITLE_SECTIONS = "INSERT INTO "
+			+ "title_sections (section, count) SELECT " + sectionOf("title")
+			+ ", COUNT(*) FROM movies GROUP BY 1";
+	public static final String[] TITLE_SECTION_TRIGGERS = {
+			"CREATE TRIGGER title_sections_insert AFTER INSERT ON movies "
+					+ "BEGIN " + addToSection(SECTION_OF_NEW) + " END",
+			"CREATE TRIGGER title_sections_delete AFTER DELETE ON movies "
+					+ "BEGIN " + removeFromSection(SECTION_OF_OLD) + " END",
+			"CREATE TRIGGER title_sections_update AFTER UPDATE OF title "
+					+ "ON movies WHEN " + SECTION_OF_OLD + " IS NOT "
+					+ SECTION_OF_NEW + " BEGIN "
+					+ removeFromSection(SECTION_OF_OLD) + " "
+					+ addToSection(SECTION_OF_NEW) + " END" };
+	public static final String SELECT_TITLE_SECTIONS = "SELECT section, "
+			+ "count FROM title_sections WHERE count > 0 ORDER BY section";
+
+	// a page by its position within a section: sought in movies_title from
+	// the section's first title, then stepped over the section's earlier
+	// rows only, so a fast-scroll jump never counts from the list's start
+	public static final String SELECT_MOVIES_FROM = "SELECT _id, title "
+			+ "FROM movies WHERE title >= ? COLLATE NOCASE "
+			+ "ORDER BY title COLLATE NOCASE, _id LIMIT ? OFFSET ?";
+
+	// collection statistics kept by triggers, so reading them costs the
+	// same at any size: movies per director (NOCASE, "" when unknown), per
+	// decade (0 when the year is unknown) and one row of totals
+	private static final String DIRECTOR_OF_NEW = "coalesce(new.director, '')";
+	private static final String DIRECTOR_OF_OLD = "coalesce(old.director, '')";
+	private static final String DECADE_OF_NEW = "coalesce(new.year / 10 * 10, 0)";
+	private static final String DECADE_OF_OLD = "coalesce(old.year / 10 * 10, 0)";
+
+	public static final String[] CREATE_STATS = {
+			"CREATE TABLE director_stats (director TEXT primary key "
+					+ "COLLATE NOCASE, count INTEGER NOT NULL)",
+			"CREATE INDEX director_stats_count ON director_stats (count)",
+			"CREATE TABLE decade_stats (decade INTEGER primary key, "
+					+ "count INTEGER NOT NULL)",
+			"CREATE TABLE collection_stats (_id INTEGER primary key "
+					+ "CHECK (_id = 0), movies INTEGER NOT NULL, "
+					+ "runtime INTEGER NOT NULL, timed INTEGER NOT NULL)" };
+	public static final String[] FILL_STATS = {
+			"INSERT INTO director_stats (director, count) "
+					+ "SELECT coalesce(director, ''), COUNT(*) FROM movies "
+					+ "GROUP BY coalesce(director, '') COLLATE NOCASE",
+			"INSERT INTO decade_stats (decade, count) "
+					+ "SELECT coalesce(year / 10 * 10, 0), COUNT(*) "
+					+ "FROM movies GROUP BY 1",
+			"INSERT INTO collection_stats (_id, movies, runtime, timed) "
+					+ "SELECT 0, COUNT(*), coalesce(SUM(runtime), 0), "
+					+ "COUNT(runtime) FROM movies" };
+	public static final String[] STATS_TRIGGERS = {
+			"CREATE TRIGGER stats_insert AFTER INSERT ON movies BEGIN "
+					+ addStats("new", 1, DIRECTOR_OF_NEW, DECADE_OF_NEW)
+					+ " END",
+			"CREATE TRIGGER stats_delete AFTER DELETE ON movies BEGIN "
+					+ addStats("old", -1, DIRECTOR_OF_OLD, DECADE_OF_OLD)
+					+ " END",
+			"CREATE TRIGGER stats_update AFTER UPDATE OF director, year, "
+					+ "runtime ON movies BEGIN "
+					+ addStats("old", -1, DIRECTOR_OF_OLD, DECADE_OF_OLD)
+					+ " "
+					+ addStats("new", 1, DIRECTOR_OF_NEW, DECADE_OF_NEW)
+					+ " END" };
+	public static final String SELECT_COLLECTION_STATS = "SELECT movies, "
+			+ "runtime, timed FROM collection_stats WHERE _id = 0";
+	public static final String SELECT_DECADE_STATS = "SELECT decade, count "
+			+ "FROM decade_stats WHERE count > 0 ORDER BY decade";
+	public static final String SELECT_DIRECTOR_STATS = "SELECT director, "
+			+ "count FROM director_stats ORDER BY count DESC LIMIT ?";
+
+	// deleted movies, kept until maintenance purges them: a delete moves the
+	// row here, so movies, its indexes and its triggers see an ordinary
+	// delete, and an undo moves the row back under its old _id. Rows
+	// deleted together share deleted_at, which identifies them for undo
+	public static final String CREATE_DELETED_MOVIES = "CREATE TABLE "
+			+ "deleted_movies (_id INTEGER primary key, title TEXT, "
+			+ "year INTEGER, director TEXT, runtime INTEGER, "
+			+ "deleted_at INTEGER NOT NULL)";
+	public static final String CREATE_DELETED_MOVIES_INDEX = "CREATE INDEX "
+			+ "deleted_movies_deleted_at ON deleted_movies (deleted_at)";
+	public static final String TRASH_MOVIE = "INSERT OR REPLACE INTO "
+			+ "deleted_movies (_id, title, year, director, runtime, "
+			+ "deleted_at) SELECT _id, title, year, director, runtime, ? "
+			+ "FROM movies WHERE _id=?";
+	public static final String SELECT_DELETED_MOVIES = "SELECT _id, title, "
+			+ "year FROM deleted_movies WHERE deleted_at=?";
+	public static final String RESTORE_MOVIES = "INSERT INTO movies "
+			+ "(_id, title, year, director, runtime) SELECT _id, title, "
+			+ "year, director, runtime FROM deleted_movies WHERE deleted_at=?";
+	public static final String FORGET_DELETED = "DELETE FROM deleted_movies "
+			+ "WHERE deleted_at=?";
+	public static final String PURGE_DELETED = "DELETE FROM deleted_movies "
+			+ "WHERE _id IN (SELECT _id FROM deleted_movies "
+			+ "WHERE deleted_at < ? ORDER BY deleted_at LIMIT ?)";
+
+	// an index for each order a filtered list can be sorted in besides the
+	// title's; after the sort column and the title each holds the year and
+	// runtime it lacks, so MovieQuery's range filters on them are checked
+	// without reading the table
+	public static final String[] CREATE_FILTER_INDEXES = {
+			"CREATE INDEX movies_year "
+					+ "ON movies (year, title COLLATE NOCASE, runtime)",
+			"CREATE INDEX movies_director ON movies (director COLLATE NOCASE, "
+					+ "title COLLATE NOCASE, year, runtime)",
+			"CREATE INDEX movies_runtime "
+					+ "ON movies (runtime, title COLLATE NOCASE, year)" };
+	public static final String[] DROP_FILTER_INDEXES = {
+			"DROP INDEX movies_year", "DROP INDEX movies_director",
+			"DROP INDEX movies_runtime" };
+
+	// the sync change log, kept by triggers. key names a movie on every
+	// device as "<device>:<_id where it was added>"; version is the server's
+	// version the local row is based on (0 until synced), changed_at when it
+	// last changed locally or on the server, and seq numbers unsynced local
+	// changes in order, 0 once the server has them. A deleted movie's row
+	// stays as its tombstone. While sync_state.applying is set the triggers
+	// are off, so changes from the server are not logged to be sent back
+	private static final String NOW_MS = "CAST((julianday('now') "
+			+ "- 2440587.5) * 86400000 AS INTEGER)";
+	private static final String NOT_APPLYING = "(SELECT applying "
+			+ "FROM sync_state WHERE _id=0) = 0";
+
+	public static final String[] CREATE_SYNC = {
+			"CREATE TABLE sync_state (_id INTEGER primary key "
+					+ "CHECK (_id = 0), device TEXT NOT NULL, "
+					+ "seq INTEGER NOT NULL, pulled INTEGER NOT NULL, "
+					+ "applying INTEGER NOT NULL)",
+			"INSERT INTO sync_state (_id, device, seq, pulled, applying) "
+					+ "VALUES (0, lower(hex(randomblob(8))), 0, 0, 0)",
+			"CREATE TABLE movie_versions (_id INTEGER primary key, "
+					+ "key TEXT NOT NULL UNIQUE, version INTEGER NOT NULL, "
+					+ "changed_at INTEGER NOT NULL, seq INTEGER NOT NULL, "
+					+ "deleted INTEGER NOT NULL)",
+			"CREATE INDEX movie_versions_seq ON movie_versions (seq)" };
+	public static final String[] FILL_SYNC = {
+			"INSERT INTO movie_versions (_id, key, version, changed_at, seq, "
+					+ "deleted) SELECT _id, (SELECT device FROM sync_state) "
+					+ "|| ':' || _id, 0, " + NOW_MS + ", _id, 0 FROM movies",
+			"UPDATE sync_state SET seq=coalesce((SELECT max(seq) "
+					+ "FROM movie_versions), 0)" };
+	public static final String[] SYNC_TRIGGERS = {
+			"CREATE TRIGGER sync_insert AFTER INSERT ON movies WHEN "
+					+ NOT_APPLYING + " BEGIN " + logChange("new", 0) + " END",
+			"CREATE TRIGGER sync_update AFTER UPDATE OF title, year, "
+					+ "director, runtime ON movies WHEN " + NOT_APPLYING
+					+ " AND (old.title IS NOT new.title OR old.year IS NOT "
+					+ "new.year OR old.director IS NOT new.director OR "
+					+ "old.runtime IS NOT new.runtime) BEGIN "
+					+ logChange("new", 0) + " END",
+			"CREATE TRIGGER sync_delete AFTER DELETE ON movies WHEN "
+					+ NOT_APPLYING + " BEGIN " + logChange("old", 1) + " END" };
+
+	// sync reads and writes; changes go out in seq order, with the
+	// movie's columns unless it is deleted
+	public static final String SELECT_SYNC_DEVICE = "SELECT device "
+			+ "FROM sync_state WHERE _id=0";
+	public static final String SELECT_SYNC_PULLED = "SELECT pulled "
+			+ "FROM sync_state WHERE _id=0";
+	public static final String SET_SYNC_PULLED = "UPDATE sync_state "
+			+ "SET pulled=? WHERE _id=0";
+	public static final String SET_SYNC_APPLYING = "UPDATE sync_state "
+			+ "SET applying=? WHERE _id=0";
+	public static final String SELECT_PENDING_CHANGES = "SELECT v.seq, "
+			+ "v.key, v.version, v.changed_at, v.deleted, m.title, m.year, "
+			+ "m.director, m.runtime FROM movie_versions v "
+			+ "LEFT JOIN movies m ON m._id=v._id WHERE v.seq > ? "
+			+ "ORDER BY v.seq LIMIT ?";
+	public static final String ACKNOWLEDGE_CHANGE = "UPDATE movie_versions "
+			+ "SET version=?, seq=CASE WHEN seq=? THEN 0 ELSE seq END "
+			+ "WHERE key=?"; // unless it changed again meanwhile
+	public static final String SELECT_SYNC_VERSION = "SELECT _id, version, "
+			+ "changed_at, seq, deleted FROM movie_versions WHERE key=?";
+	public static final String REBASE_SYNC_VERSION = "UPDATE movie_versions "
+			+ "SET version=? WHERE key=?";
+	public static final String PUT_SYNC_VERSION = "INSERT OR REPLACE INTO "
+			+ "movie_versions (_id, key, version, changed_at, seq, deleted) "
+			+ "VALUES (?, ?, ?, ?, 0, ?)";
+	public static final String FORGET_DELETED_MOVIE = "DELETE FROM "
+			+ "deleted_movies WHERE _id=?";
+
+	// collections and tags, together labels, and the movies they hold.
+	// movie_labels keeps a copy of each movie's title, so a label's movies
+	// are listed in title order from movie_labels_title alone, and
+	// label_sections counts them per title section as title_sections does
+	// for the whole list; triggers keep both. A deleted movie's labels wait
+	// in deleted_movie_labels while it can be brought back
+	public static final String[] CREATE_LABELS = {
+			"CREATE TABLE labels (_id INTEGER primary key autoincrement, "
+					+ "kind INTEGER NOT NULL, name TEXT NOT NULL "
+					+ "COLLATE NOCASE, UNIQUE (kind, name))",
+			"CREATE TABLE movie_labels (label_id INTEGER NOT NULL, "
+					+ "movie_id INTEGER NOT NULL, title TEXT)",
+			"CREATE UNIQUE INDEX movie_labels_movie "
+					+ "ON movie_labels (movie_id, label_id)",
+			"CREATE INDEX movie_labels_title ON movie_labels "
+					+ "(label_id, title COLLATE NOCASE, movie_id)",
+			"CREATE TABLE label_sections (label_id INTEGER NOT NULL, "
+					+ "section TEXT NOT NULL, count INTEGER NOT NULL, "
+					+ "PRIMARY KEY (label_id, section))",
+			"CREATE TABLE deleted_movie_labels (movie_id INTEGER NOT NULL, "
+					+ "label_id INTEGER NOT NULL, "
+					+ "PRIMARY KEY (movie_id, label_id))" };
+	public static final String[] LABEL_TRIGGERS = {
+			"CREATE TRIGGER movie_labels_insert AFTER INSERT ON movie_labels "
+					+ "BEGIN " + addToLabelSection(SECTION_OF_NEW) + " END",
+			"CREATE TRIGGER movie_labels_delete AFTER DELETE ON movie_labels "
+					+ "BEGIN " + removeFromLabelSection(SECTION_OF_OLD)
+					+ " END",
+			"CREATE TRIGGER movie_labels_update AFTER UPDATE OF title "
+					+ "ON movie_labels WHEN " + SECTION_OF_OLD + " IS NOT "
+					+ SECTION_OF_NEW + " BEGIN "
+					+ removeFromLabelSection(SECTION_OF_OLD) + " "
+					+ addToLabelSection(SECTION_OF_NEW) + " END",
+			"CREATE TRIGGER labels_delete AFTER DELETE ON labels BEGIN "
+					+ "DELETE FROM label_sections WHERE label_id=old._id; "
+					+ "DELETE FROM movie_labels WHERE label_id=old._id; "
+					+ "DELETE FROM deleted_movie_labels "
+					+ "WHERE label_id=old._id; END",
+			"CREATE TRIGGER labels_title_update AFTER UPDATE OF title "
+					+ "ON movies WHEN old.title IS NOT new.title BEGIN "
+					+ "UPDATE movie_labels SET title=new.title "
+					+ "WHERE movie_id=new._id; END",
+			// a deleted movie keeps its labels only if TRASH_MOVIE kept it
+			"CREATE TRIGGER labels_movie_delete AFTER DELETE ON movies BEGIN "
+					+ "INSERT OR IGNORE INTO deleted_movie_labels (movie_id, "
+					+ "label_id) SELECT movie_id, label_id FROM movie_labels "
+					+ "WHERE movie_id=old._id AND EXISTS (SELECT 1 FROM "
+					+ "deleted_movies WHERE _id=old._id); "
+					+ "DELETE FROM movie_labels WHERE movie_id=old._id; END",
+			"CREATE TRIGGER labels_deleted_movie_delete AFTER DELETE "
+					+ "ON deleted_movies BEGIN DELETE FROM deleted_movie_labels "
+					+ "WHERE movie_id=old._id; END" };
+
+	// a restore empties movies, which drops every movie's labels, so they
+	// wait here while the snapshot's movies go back in under their old row
+	// IDs; each restored batch takes back the labels of its movies, and
+	// those of movies the snapshot did not have are dropped at the end
+	public static final String CREATE_STASHED_MOVIE_LABELS = "CREATE TABLE "
+			+ "stashed_movie_labels (movie_id INTEGER NOT NULL, "
+			+ "label_id INTEGER NOT NULL, PRIMARY KEY (movie_id, label_id))";
+	public static final String STASH_MOVIE_LABELS = "INSERT OR IGNORE INTO "
+			+ "stashed_movie_labels (movie_id, label_id) "
+			+ "SELECT movie_id, label_id FROM movie_labels"; // before DELETE
+	public static final String RESTORE_STASHED_LABELS = "INSERT OR IGNORE "
+			+ "INTO movie_labels (label_id, movie_id, title) SELECT "
+			+ "s.label_id, s.movie_id, m.title FROM stashed_movie_labels s "
+			+ "JOIN movies m ON m._id=s.movie_id "
+			+ "JOIN labels l ON l._id=s.label_id "
+			+ "WHERE s.movie_id BETWEEN ? AND ?";
+	public static final String CLEAR_STASHED_LABELS = "DELETE FROM "
+			+ "stashed_movie_labels";
+
+	// label reads and writes; a label's movies come in the full list's
+	// (title, _id) order, a page by offset or after a key
+	public static final String SELECT_LABELS = "SELECT _id, kind, name, "
+			+ "(SELECT coalesce(SUM(count), 0) FROM label_sections "
+			+ "WHERE label_id=labels._id) FROM labels ORDER BY kind, name";
+	public static final String INSERT_LABEL = "INSERT OR IGNORE INTO labels "
+			+ "(kind, name) VALUES (?, ?)";
+	public static final String SELECT_LABEL_ID = "SELECT _id FROM labels "
+			+ "WHERE kind=? AND name=?";
+	public static final String DELETE_LABEL = "DELETE FROM labels WHERE _id=?";
+	public static final String ADD_TO_LABEL = "INSERT OR IGNORE INTO "
+			+ "movie_labels (label_id, movie_id, title) SELECT ?, _id, title "
+			+ "FROM movies WHERE _id=?";
+	public static final String REMOVE_FROM_LABEL = "DELETE FROM movie_labels "
+			+ "WHERE label_id=? AND movie_id=?";
+	public static final String SELECT_LABEL_SECTIONS = "SELECT section, "
+			+ "count FROM label_sections WHERE label_id=? AND count > 0 "
+			+ "ORDER BY section";
+	public static final String SELECT_LABEL_MOVIES_AT = "SELECT "
+			+ "movie_id AS _id, title FROM movie_labels WHERE label_id=? "
+			+ "ORDER BY title COLLATE NOCASE, movie_id LIMIT ? OFFSET ?";
+	public static final String SELECT_LABEL_MOVIES_FROM = "SELECT "
+			+ "movie_id AS _id, title FROM movie_labels WHERE label_id=? "
+			+ "AND title >= ? COLLATE NOCASE "
+			+ "ORDER BY title COLLATE NOCASE, movie_id LIMIT ? OFFSET ?";
+	public static final String SELECT_LABEL_MOVIES_AFTER = "SELECT "
+			+ "movie_id AS _id, title FROM movie_labels WHERE label_id=? "
+			+ "AND title >= ? COLLATE NOCASE "
+			+ "AND NOT (title = ? COLLATE NOCASE AND movie_id <= ?) "
+			+ "ORDER BY title COLLATE NOCASE, movie_id LIMIT ?";
+	public static final String RESTORE_MOVIE_LABELS = "INSERT OR IGNORE INTO "
+			+ "movie_labels (label_id, movie_id, title) SELECT d.label_id, "
+			+ "d.movie_id, m.title FROM deleted_movies m JOIN "
+			+ "deleted_movie_labels d ON d.movie_id=m._id "
+			+ "WHERE m.deleted_at=?"; // before FORGET_DELETED
+
+	// statements that create the version SCHEMA_VERSION schema
+	public static final String[] SCHEMA = {
+			"CREATE TABLE movies (_id integer primary key autoincrement, "
+					+ "title TEXT, year INTEGER, director TEXT, runtime INTEGER)",
+			"CREATE TABLE import_checkpoints (source TEXT primary key, "
+					+ "offset INTEGER, rows INTEGER, length INTEGER, "
+					+ "modified INTEGER)",
+			"CREATE VIRTUAL TABLE movies_fts USING fts4(title, director)",
+			"CREATE TRIGGER movies_fts_insert AFTER INSERT ON movies "
+					+ "BEGIN INSERT INTO movies_fts (docid, title, director) "
+					+ "VALUES (new._id, new.title, new.director); END",
+			"CREATE TRIGGER movies_fts_update "
+					+ "AFTER UPDATE OF title, director ON movies "
+					+ "BEGIN UPDATE movies_fts SET title=new.title, "
+					+ "director=new.director WHERE docid=old._id; END",
+			"CREATE TRIGGER movies_fts_delete AFTER DELETE ON movies "
+					+ "BEGIN DELETE FROM movies_fts WHERE docid=old._id; END",
+			"CREATE INDEX movies_title ON movies (title COLLATE NOCASE)",
+			CREATE_FILTER_INDEXES[0], CREATE_FILTER_INDEXES[1],
+			CREATE_FILTER_INDEXES[2],
+			CREATE_TITLE_SECTIONS, TITLE_SECTION_TRIGGERS[0],
+			TITLE_SECTION_TRIGGERS[1], TITLE_SECTION_TRIGGERS[2],
+			CREATE_STATS[0], CREATE_STATS[1], CREATE_STATS[2],
+			CREATE_STATS[3], FILL_STATS[2], STATS_TRIGGERS[0],
+			STATS_TRIGGERS[1], STATS_TRIGGERS[2], CREATE_DELETED_MOVIES,
+			CREATE_DELETED_MOVIES_INDEX, CREATE_SYNC[0], CREATE_SYNC[1],
+			CREATE_SYNC[2], CREATE_SYNC[3], SYNC_TRIGGERS[0],
+			SYNC_TRIGGERS[1], SYNC_TRIGGERS[2], CREATE_LABELS[0],
+			CREATE_LABELS[1], CREATE_LABELS[2], CREATE_LABELS[3],
+			CREATE_LABELS[4], CREATE_LABELS[5], LABEL_TRIGGERS[0],
+			LABEL_TRIGGERS[1], LABEL_TRIGGERS[2], LABEL_TRIGGERS[3],
+			LABEL_TRIGGERS[4], LABEL_TRIGGERS[5], LABEL_TRIGGERS[6],
+			CREATE_STASHED_MOVIE_LABELS };
+
+	// movie CRUD; parameters are bound, never concatenated
+	public static final String INSERT_MOVIE = "INSERT INTO movies "
+			+ "(title, year, director, runtime) VALUES (?, ?, ?, ?)";
+	public static final String UPDATE_MOVIE = "UPDATE movies SET title=?, "
+			+ "year=?, director=?, runtime=? WHERE _id=?";
+	public static final String DELETE_MOVIE = "DELETE FROM movies WHERE _id=?";
+	public static final String COUNT_MOVIES = "SELECT COUNT(*) FROM movies";
+	public static final String SELECT_MOVIE_COUNT = "SELECT movies "
+			+ "FROM collection_stats WHERE _id = 0"; // kept by triggers
+	public static final String SELECT_MOVIE = "SELECT title, year, director, "
+			+ "runtime FROM movies WHERE _id=?";
+	public static final String SELECT_ONE_MOVIE = "SELECT * FROM movies "
+			+ "WHERE _id=?";
+	public static final String SELECT_ALL_MOVIES = "SELECT _id, title "
+			+ "FROM movies ORDER BY title COLLATE NOCASE";
+
+	// movies read ahead for the details pane, by row ID; selectMoviesIn
+	// pads its IN list to a multiple of IN_BUCKET parameters, so only a few
+	// statement shapes are ever compiled
+	public static final int IN_BUCKET = 16;
+
+	// snapshot backup and restore: every column, a page at a time in row
+	// ID order, and back in under the same row IDs
+	public static final String SELECT_MOVIES_BY_ID = "SELECT _id, title, "
+			+ "year, director, runtime FROM movies WHERE _id > ? "
+			+ "ORDER BY _id LIMIT ?";
+	public static final String RESTORE_MOVIE = "INSERT INTO movies "
+			+ "(_id, title, year, director, runtime) VALUES (?, ?, ?, ?, ?)";
+	public static final String DELETE_ALL_MOVIES = "DELETE FROM movies";
+	public static final String DELETE_ALL_DELETED = "DELETE FROM deleted_movies";
+
+	private MovieContract() {
+	}
+
+	// SELECT of every column of the movies whose _id is one of count
+	// parameters, count being a multiple of IN_BUCKET; bind repeated IDs
+	// to fill the parameters left over
+	public static String selectMoviesIn(int count) {
+		StringBuilder sql = new StringBuilder("SELECT _id, title, year, "
+				+ "director, runtime FROM movies WHERE _id IN (");
+		for (int i = 0; i < count; ++i)
+			sql.append(i == 0 ? "?" : ", ?");
+		return sql.append(')').toString();
+	}
+
+	// SQL expression for the section of the title in column title; NOCASE
+	// folds only ASCII, so other letters sort after "z" and go in "~"
+	private static String sectionOf(String title) {
+		String first = "substr(" + title + ", 1, 1)";
+		return "(CASE WHEN " + title + " IS NULL OR " + first
+				+ " < 'a' COLLATE NOCASE THEN '#' WHEN " + first
+				+ " <= 'z' COLLATE NOCASE THEN upper(" + first
+				+ ") ELSE '~' END)";
+	}
+
+	// the least title in section, in title COLLATE NOCASE order, for
+	// SELECT_MOVIES_FROM; null for "#", which starts the list
+	public static String sectionStart(String section) {
+		if ("#".equals(section))
+			return null;
+		return "~".equals(section) ? "{" : section; // '{' follows 'z'
+	}
+
+	// trigger statements counting a movie in, or out of, section
+	private static String addToSection(String section) {
+		return "INSERT OR IGNORE INTO title_sections (section, count) VALUES ("
+				+ section + ", 0); UPDATE title_sections SET count=count+1 "
+				+ "WHERE section=" + section + ";";
+	}
+
+	private static String removeFromSection(String section) {
+		return "UPDATE title_sections SET count=count-1 WHERE section="
+				+ section + ";";
+	}
+
+	// trigger statements counting a movie_labels row in, or out of,
+	// section of its label
+	private static String addToLabelSection(String section) {
+		return "INSERT OR IGNORE INTO label_sections (label_id, section, "
+				+ "count) VALUES (new.label_id, " + section + ", 0); "
+				+ "UPDATE label_sections SET count=count+1 "
+				+ "WHERE label_id=new.label_id AND section=" + section + ";";
+	}
+
+	private static String removeFromLabelSection(String section) {
+		return "UPDATE label_sections SET count=count-1 "
+				+ "WHERE label_id=old.label_id AND section=" + section + ";";
+	}
+
+	// trigger statements logging a change to row, keeping its key and the
+	// version it is based on and taking the next seq
+	private static String logChange(String row, int deleted) {
+		String version = "(SELECT %s FROM movie_versions WHERE _id=" + row
+				+ "._id)";
+		return "UPDATE sync_state SET seq=seq+1 WHERE _id=0; "
+				+ "INSERT OR REPLACE INTO movie_versions (_id, key, version, "
+				+ "changed_at, seq, deleted) SELECT " + row + "._id, coalesce("
+				+ String.format(version, "key") + ", device || ':' || " + row
+				+ "._id), coalesce(" + String.format(version, "version")
+				+ ", 0), " + NOW_MS + ", seq, " + deleted
+				+ " FROM sync_state WHERE _id=0;";
+	}
+
+	// trigger statements adding sign times the row to every statistic;
+	// directors whose count drops to zero are removed
+	private static String addStats(String row, int sign, String director,
+			String decade) {
+		String statements = "UPDATE collection_stats SET movies=movies"
+				+ (sign > 0 ? "+1" : "-1") + ", runtime=runtime"
+				+ (sign > 0 ? "+" : "-") + "coalesce(" + row
+				+ ".runtime, 0), timed=timed" + (sign > 0 ? "+" : "-") + "("
+				+ row + ".runtime IS NOT NULL) WHERE _id=0; ";
+		if (sign > 0)
+			return statements
+					+ "INSERT OR IGNORE INTO director_stats (director, count) "
+					+ "VALUES (" + director + ", 0); "
+					+ "UPDATE director_stats SET count=count+1 WHERE director="
+					+ director + "; "
+					+ "INSERT OR IGNORE INTO decade_stats (decade, count) "
+					+ "VALUES (" + decade + ", 0); "
+					+ "UPDATE decade_stats SET count=count+1 WHERE decade="
+					+ decade + ";";
+
+		return statements
+				+ "UPDATE director_stats SET count=count-1 WHERE director="
+				+ director + "; "
+				+ "DELETE FROM director_stats WHERE director=" + director
+				+ " AND count=0; "
+				+ "UPDATE decade_stats SET count=count-1 WHERE decade="
+				+ decade + ";";
+	}
+} // end class MovieContract
@@ -0,0 +1,164 @@
+// MovieDao.java
+// Typed access to the movies table through precompiled statements that
+// bind their arguments; each instance belongs to one database thread
+package com.example.moviecollection;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+public class MovieDao {
+	// a movie's columns, refilled in place by each read
+	public static class Row {
+		public long id;
+		public String title;
+		public int year; // or Movie.UNKNOWN
+		public String director;
+		public int runtime; // or Movie.UNKNOWN
+
+		// copy the row into an immutable Movie
+		public Movie toMovie() {
+			return new Movie(id, title, year, director, runtime);
+		}
+	} // end class Row
+
+	private final SQLiteDatabase database;
+
+	// compiled on first use and kept until close
+	private SQLiteStatement insert;
+	private SQLiteStatement restore;
+	private SQLiteStatement update;
+	private SQLiteStatement trash;
+	private SQLiteStatement delete;
+	private SQLiteStatement count;
+
+	private final String[] idArgument = new String[1]; // reused by read
+
+	// constructor
+	public MovieDao(SQLiteDatabase database) {
+		this.database = database;
+	}
+
+	// true if this DAO's statements belong to database
+	public boolean isFor(SQLiteDatabase database) {
+		return this.database == database;
+	}
+
+	// insert a movie and return its row ID, or -1 on failure
+	public long insert(Movie movie) {
+		if (insert == null)
+			insert = database.compileStatement(MovieContract.INSERT_MOVIE);
+
+		bindMovie(insert, movie);
+		return insert.executeInsert();
+	}
+
+	// insert a movie under its own row ID, as a restore does; return the
+	// row ID, or -1 on failure
+	public long restore(Movie movie) {
+		if (restore == null)
+			restore = database.compileStatement(MovieContract.RESTORE_MOVIE);
+
+		restore.bindLong(1, movie.getId());
+		bindString(restore, 2, movie.getTitle());
+		bindInt(restore, 3, movie.getYear());
+		bindString(restore, 4, movie.getDirector());
+		bindInt(restore, 5, movie.getRuntime());
+		return restore.executeInsert();
+	}
+
+	// update the movie with movie's row ID; return the rows changed
+	public int update(Movie movie) {
+		if (update == null)
+			update = database.compileStatement(MovieContract.UPDATE_MOVIE);
+
+		bindMovie(update, movie);
+		update.bindLong(5, movie.getId());
+		return update.executeUpdateDelete();
+	}
+
+	// move a movie by row ID to deleted_movies, marked deletedAt; return
+	// the rows deleted. The caller supplies the transaction
+	public int delete(long id, long deletedAt) {
+		if (trash == null) {
+			trash = database.compileStatement(MovieContract.TRASH_MOVIE);
+			delete = database.compileStatement(MovieContract.DELETE_MOVIE);
+		}
+
+		trash.bindLong(1, deletedAt);
+		trash.bindLong(2, id);
+		trash.executeInsert();
+		delete.bindLong(1, id);
+		return delete.executeUpdateDelete();
+	}
+
+	// return the number of movies
+	public int count() {
+		if (count == null)
+			count = database.compileStatement(MovieContract.COUNT_MOVIES);
+
+		return (int) count.simpleQueryForLong();
+	}
+
+	// fill row with movie id's columns; return false if it does not exist
+	public boolean read(long id, Row row) {
+		idArgument[0] = Long.toString(id);
+		Cursor cursor = database.rawQuery(MovieContract.SELECT_MOVIE,
+				idArgument);
+
+		try {
+			if (!cursor.moveToFirst())
+				return false;
+
+			row.id = id;
+			row.title = cursor.getString(0);
+			row.year = cursor.getInt(1); // NULL reads as UNKNOWN
+			row.director = cursor.getString(2);
+			row.runtime = cursor.getInt(3);
+			return true;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	// release the compiled statements
+	public void close() {
+		close(insert);
+		close(restore);
+		close(update);
+		close(trash);
+		close(delete);
+		close(count);
+		insert = restore = update = trash = delete = count = null;
+	}
+
+	private static void close(SQLiteStatement statement) {
+		if (statement != null)
+			statement.close();
+	}
+
+	// binds a movie's fields to the first four statement parameters
+	private static void bindMovie(SQLiteStatement statement, Movie movie) {
+		bindString(statement, 1, movie.getTitle());
+		bindInt(statement, 2, movie.getYear());
+		bindString(statement, 3, movie.getDirector());
+		bindInt(statement, 4, movie.getRuntime());
+	}
+
+	// binds an int parameter, binding NULL when it is unknown
+	private static void bindInt(SQLiteStatement statement, int index, int value) {
+		if (value == Movie.UNKNOWN)
+			statement.bindNull(index);
+		else
+			statement.bindLong(index, value);
+	}
+
+	// binds a String parameter that may be null
+	private static void bindString(SQLiteStatement statement, int index,
+			String value) {
+		if (value == null)
+			statement.bindNull(index);
+		else
+			statement.bindString(index, value);
+	}
+} // end class MovieDao
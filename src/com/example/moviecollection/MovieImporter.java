@@ -0,0 +1,351 @@
+// MovieImporter.java
+// Streams movies from a CSV or TSV file into the database
+package com.example.moviecollection;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import android.content.Context;
+import android.database.Cursor;
+
+public class MovieImporter {
+	// callback methods invoked on the importer's writer thread
+	public interface ImportListener {
+		// called after each batch is committed
+		public void onImportProgress(long rows, long bytesRead,
+				long totalBytes, long rowsPerSecond);
+
+		// called once when the import ends or is cancelled
+		public void onImportFinished(long rows, boolean cancelled);
+
+		// called once if the file cannot be read or written
+		public void onImportFailed(Exception error);
+	}
+
+	private static final int BUFFER_SIZE = 64 * 1024; // bytes read at a time
+	private static final int BATCH_SIZE = 2000; // rows per transaction
+	private static final int QUEUE_CAPACITY = 4; // batches parsed ahead
+	private static final int COLUMNS = 4; // title, year, director, runtime
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	// marks the end of the parsed batches
+	private static final Batch END = new Batch(0, 0);
+
+	private final DatabaseConnector databaseConnector;
+	private final File file;
+	private final ImportListener listener;
+	private final String source; // checkpoint key for this file
+	private final long length; // the file's length and modification time
+	private final long modified; // when the import started
+	private final byte delimiter; // ',' for CSV or '\t' for TSV
+
+	// bounded hand-off that makes the parser wait for the writer
+	private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(
+			QUEUE_CAPACITY);
+
+	private volatile boolean cancelled;
+	private volatile Exception error;
+	private volatile Thread parserThread; // started by the writer
+	private Thread writerThread;
+
+	// constructor
+	public MovieImporter(Context context, File file, ImportListener listener) {
+		this.databaseConnector = new DatabaseConnector(context);
+		this.file = file;
+		this.listener = listener;
+
+		this.source = file.getAbsolutePath();
+		this.length = file.length();
+		this.modified = file.lastModified();
+		this.delimiter = file.getName().toLowerCase().endsWith(".tsv") ? (byte) '\t'
+				: (byte) ',';
+	}
+
+	// start importing, resuming from the last checkpoint if there is one;
+	// the checkpoint is read on the writer thread, which then starts the
+	// parser at its offset
+	public void start() {
+		writerThread = new Thread("import-writer") {
+			@Override
+			public void run() {
+				long[] checkpoint;
+				try {
+					checkpoint = readCheckpoint();
+				} catch (Exception e) {
+					// cancel interrupts the read too, which is not a failure
+					if (cancelled)
+						listener.onImportFinished(0, true);
+					else
+						listener.onImportFailed(e);
+					return;
+				}
+
+				final long offset = checkpoint[0];
+				parserThread = new Thread("import-parser") {
+					@Override
+					public void run() {
+						parse(offset);
+					}
+				};
+				parserThread.start();
+				write(checkpoint[1]);
+			}
+		};
+		writerThread.start();
+	}
+
+	// return the offset and rows of this file's checkpoint, or zeros to
+	// start over; the checkpoint of a file that has changed since, grown
+	// or downloaded again, is dropped, and its import starts over,
+	// adding the rows the earlier run committed a second time
+	private long[] readCheckpoint() {
+		long[] checkpoint = new long[2];
+		boolean outdated = false;
+
+		Cursor cursor = databaseConnector.getImportCheckpoint(source);
+		try {
+			if (cursor.moveToFirst()) {
+				long checkedLength = cursor.getLong(cursor
+						.getColumnIndex("length"));
+				long checkedModified = cursor.getLong(cursor
+						.getColumnIndex("modified"));
+				if (checkedLength == length && checkedModified == modified) {
+					checkpoint[0] = cursor.getLong(cursor
+							.getColumnIndex("offset"));
+					checkpoint[1] = cursor.getLong(cursor
+							.getColumnIndex("rows"));
+				} else
+					outdated = true;
+			}
+		} finally {
+			cursor.close();
+		}
+
+		if (outdated)
+			databaseConnector.clearImportCheckpoint(source);
+		return checkpoint;
+	}
+
+	// stop importing; committed batches stay and the next start resumes
+	public void cancel() {
+		cancelled = true;
+		Thread parser = parserThread; // a parser started later sees cancelled
+		if (parser != null)
+			parser.interrupt();
+		if (writerThread != null)
+			writerThread.interrupt();
+	}
+
+	// read the file from offset and queue batches of parsed movies
+	private void parse(long offset) {
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				skipFully(in, offset);
+				new Parser(offset).parse(in);
+			} finally {
+				in.close();
+			}
+		} catch (InterruptedException e) {
+			// cancelled while waiting for the writer
+		} catch (Exception e) {
+			error = e;
+		} finally {
+			// always wake the writer, unless it is the one that stopped
+			try {
+				if (!cancelled)
+					queue.put(END);
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+
+	// commit queued batches and report progress until the parser finishes
+	private void write(long rows) {
+		long startRows = rows;
+		long startTime = System.nanoTime();
+		long totalBytes = length;
+
+		try {
+			while (!cancelled) {
+				Batch batch = queue.take();
+				if (batch == END)
+					break;
+
+				// insert the batch and move the checkpoint in one transaction;
+				// rows counts it only once it has committed
+				long batchRows = rows + batch.movies.size();
+				databaseConnector.importBatch(batch.movies, source, length,
+						modified, batch.endOffset, batchRows);
+				rows = batchRows;
+
+				long elapsed = Math.max(1, System.nanoTime() - startTime);
+				listener.onImportProgress(rows, batch.endOffset, totalBytes,
+						(rows - startRows) * 1000000000L / elapsed);
+			}
+		} catch (InterruptedException e) {
+			// cancelled while waiting for the parser
+		} catch (Exception e) {
+			// cancel interrupts a wait for the database too, which is
+			// not a failure
+			if (!cancelled) {
+				error = e;
+				cancel(); // stop the parser too
+			}
+		}
+
+		if (error != null)
+			listener.onImportFailed(error);
+		else if (cancelled)
+			listener.onImportFinished(rows, true);
+		else {
+			databaseConnector.clearImportCheckpoint(source);
+			listener.onImportFinished(rows, false);
+		}
+	}
+
+	// skip bytes already imported by an earlier run
+	private static void skipFully(InputStream in, long count)
+			throws IOException {
+		while (count > 0) {
+			long skipped = in.skip(count);
+			if (skipped <= 0)
+				throw new IOException("File is shorter than its checkpoint");
+			count -= skipped;
+		}
+	}
+
+	// incremental CSV/TSV parser that works on raw bytes
+	private class Parser {
+		private final boolean quotesEnabled = delimiter == ',';
+		private final String[] fields = new String[COLUMNS];
+		private byte[] field = new byte[256]; // bytes of the current field
+		private int fieldLength;
+		private int fieldIndex;
+		private boolean inQuotes;
+		private boolean afterQuote; // just closed a quoted section
+		private boolean firstRow;
+		private long offset; // file offset of the next byte
+		private Batch batch;
+
+		public Parser(long offset) {
+			this.offset = offset;
+			this.firstRow = offset == 0; // only the file start has a header
+			this.batch = new Batch(BATCH_SIZE, offset);
+		}
+
+		// parse the whole stream, queueing full batches as they fill
+		public void parse(InputStream in) throws IOException,
+				InterruptedException {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int count;
+
+			while ((count = in.read(buffer)) != -1) {
+				if (cancelled)
+					throw new InterruptedException();
+
+				for (int i = 0; i < count; ++i) {
+					byte b = buffer[i];
+
+					if (inQuotes) {
+						if (b == '"') {
+							inQuotes = false;
+							afterQuote = true;
+						} else
+							append(b);
+						continue;
+					}
+
+					if (quotesEnabled && b == '"') {
+						if (afterQuote) { // doubled quote inside quotes
+							append(b);
+							inQuotes = true;
+						} else if (fieldLength == 0)
+							inQuotes = true;
+						else
+							append(b);
+					} else if (b == delimiter)
+						endField();
+					else if (b == '\n') {
+						endField();
+						endRow(offset + i + 1);
+					} else if (b != '\r')
+						append(b);
+
+					afterQuote = false;
+				}
+
+				offset += count;
+			}
+
+			// the last row may not end with a newline
+			if (fieldLength > 0 || fieldIndex > 0) {
+				endField();
+				endRow(offset);
+			}
+
+			if (!batch.movies.isEmpty())
+				queue.put(batch);
+		}
+
+		// add a byte to the current field, growing its buffer if needed
+		private void append(byte b) {
+			if (fieldLength == field.length) {
+				byte[] larger = new byte[field.length * 2];
+				System.arraycopy(field, 0, larger, 0, fieldLength);
+				field = larger;
+			}
+			field[fieldLength++] = b;
+		}
+
+		// finish the current field; extra columns are ignored
+		private void endField() {
+			if (fieldIndex < COLUMNS)
+				fields[fieldIndex] = new String(field, 0, fieldLength, UTF_8)
+						.trim();
+			++fieldIndex;
+			fieldLength = 0;
+		}
+
+		// finish the current row, which ends just before endOffset
+		private void endRow(long endOffset) throws InterruptedException {
+			for (int i = fieldIndex; i < COLUMNS; ++i)
+				fields[i] = null; // missing columns
+
+			boolean header = firstRow && "title".equalsIgnoreCase(fields[0]);
+			firstRow = false;
+			fieldIndex = 0;
+
+			// skip the header row and rows without the required title
+			if (!header && fields[0] != null && fields[0].length() != 0)
+				batch.movies.add(new Movie(fields[0], Movie
+						.parseYear(fields[1]), fields[2], Movie
+						.parseRuntime(fields[3])));
+
+			batch.endOffset = endOffset; // rows so far end here
+
+			if (batch.movies.size() == BATCH_SIZE) {
+				queue.put(batch); // waits while the writer is behind
+				batch = new Batch(BATCH_SIZE, endOffset);
+			}
+		}
+	} // end class Parser
+
+	// parsed movies plus the file offset just past the last one
+	private static class Batch {
+		final List<Movie> movies;
+		long endOffset;
+
+		Batch(int capacity, long endOffset) {
+			this.movies = new ArrayList<Movie>(capacity);
+			this.endOffset = endOffset;
+		}
+	} // end class Batch
+} // end class MovieImporter
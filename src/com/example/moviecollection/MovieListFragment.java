@@ -2,20 +2,36 @@
 // Displays the list of movie names
 package com.example.moviecollection;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.app.ListFragment;
+import android.app.ProgressDialog;
+import android.content.DialogInterface;
+import android.database.ContentObserver;
 import android.database.Cursor;
-import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.ActionMode;
+import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
-import android.widget.CursorAdapter;
+import android.widget.AbsListView.MultiChoiceModeListener;
+import android.widget.CheckBox;
+import android.widget.EditText;
 import android.widget.ListView;
-import android.widget.SimpleCursorAdapter;
+import android.widget.SearchView;
+import android.widget.Spinner;
+import android.widget.Toast;
 
 public class MovieListFragment extends ListFragment {
 	// callback methods implemented by MainActivity
@@ -25,12 +41,44 @@ public class MovieListFragment extends ListFragment {
 
 		// called when user decides to add a movie
 		public void onAddMovie();
+
+		// called when user opens the collection statistics
+		public void onShowStats();
+
+		// called when user opens the debug-only diagnostics screen
+		public void onShowDiagnostics();
 	}
 
 	private MovieListFragmentListener listener;
 
 	private ListView movieListView; // the ListActivity's ListView
-	private CursorAdapter movieAdapter; // adapter for ListView
+	private PagedMovieAdapter movieAdapter; // pages in the full list
+	private SearchResultAdapter searchAdapter; // holds search results
+	private DetailPrefetcher detailPrefetcher; // tablet only, else null
+
+	private MovieImporter movieImporter; // import in progress, if any
+	private ProgressDialog importDialog; // shows import progress
+	private ProgressDialog backupDialog; // shows backup or restore progress
+	private ProgressDialog duplicatesDialog; // shown while comparing titles
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	private static final int SEARCH_LIMIT = 200; // most search results shown
+	private static final long SEARCH_DELAY_MS = 250; // typing pause
+	private String searchQuery = ""; // current search text, "" for all
+	private TaskScheduler.Handle searchHandle; // latest search, if running
+
+	private static final int FILTER_LIMIT = 500; // most filtered rows shown
+	private MovieQuery filter; // filter and sort, null for the full list
+
+	// collection or tag whose movies the paged list holds, null for all;
+	// a search or a filter still looks through every movie
+	private Label label;
+
+	private static final long CHANGE_DELAY_MS = 250; // coalesces changes
+	private static final long NO_UNDO = -1;
+	private long undoToken = NO_UNDO; // latest delete, while it can be undone
+	private long loadedGeneration = -1; // ChangeTracker generation shown
+	private final TaskScheduler taskScheduler = TaskScheduler.getInstance();
 
 	// set ContactListFragmentListener when fragment attached
 	@Override
@@ -59,14 +107,44 @@ public class MovieListFragment extends ListFragment {
 		// get ListView reference and configure ListView
 		movieListView = getListView();
 		movieListView.setOnItemClickListener(viewMovieListener);
-		movieListView.setChoiceMode(ListView.CHOICE_MODE_SINGLE);
+		movieListView.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE_MODAL);
+		movieListView.setMultiChoiceModeListener(selectMoviesListener);
 
-		// map each contact's name to a TextView in the ListView layout
-		String[] from = new String[] { "title" };
-		int[] to = new int[] { android.R.id.text1 };
-		movieAdapter = new SimpleCursorAdapter(getActivity(),
-				android.R.layout.simple_list_item_1, null, from, to, 0);
+		// the full list loads page by page as the user scrolls, and its
+		// fast-scroll thumb jumps straight to a letter
+		PosterLoader posterLoader = new PosterLoader(this);
+		movieAdapter = new PagedMovieAdapter(this, posterLoader);
+		movieAdapter.attach(movieListView);
 		setListAdapter(movieAdapter); // set adapter that supplies data
+		movieListView.setFastScrollEnabled(true);
+		showLabel();
+
+		// until the first page is read, draw the rows the last run saved;
+		// the new adapter holds nothing current, so onResume must load
+		StartupSnapshot snapshot = StartupSnapshot.get();
+		if (snapshot != null && searchQuery.length() == 0 && filter == null
+				&& label == null)
+			movieAdapter.showSnapshot(snapshot);
+		loadedGeneration = -1;
+
+		// search results are rows like the full list's, with thumbnails
+		// from the same loader, so either adapter can cancel their decodes
+		searchAdapter = new SearchResultAdapter(getActivity(), posterLoader);
+		searchAdapter.attach(movieListView);
+		movieListView.setRecyclerListener(movieAdapter);
+	}
+
+	// called once the activity's layout, with any details pane, exists
+	@Override
+	public void onActivityCreated(Bundle savedInstanceState) {
+		super.onActivityCreated(savedInstanceState);
+
+		// beside a details pane, a tap should show its movie at once, so
+		// read ahead the movies around the screen while the list is still
+		detailPrefetcher = null;
+		if (getActivity().findViewById(R.id.rightPaneContainer) != null)
+			detailPrefetcher = new DetailPrefetcher(this, movieListView);
+		movieListView.setOnScrollListener(detailPrefetcher);
 	}
 
 	// responds to the user touching a movie's name in the ListView
@@ -79,41 +157,271 @@ public class MovieListFragment extends ListFragment {
 		}
 	}; // end viewContactListener
 
-	// when fragment resumes, use a GetContactsTask to load contacts
+	// manages the contextual action bar shown while movies are selected
+	MultiChoiceModeListener selectMoviesListener = new MultiChoiceModeListener() {
+		@Override
+		public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+			mode.getMenuInflater().inflate(
+					R.menu.fragment_movie_list_select_menu, menu);
+			menu.findItem(R.id.action_unlabel_selected).setVisible(
+					label != null);
+			return true;
+		}
+
+		@Override
+		public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+			return false;
+		}
+
+		// show how many movies are selected
+		@Override
+		public void onItemCheckedStateChanged(ActionMode mode, int position,
+				long id, boolean checked) {
+			mode.setTitle(getResources().getString(R.string.selected_count,
+					movieListView.getCheckedItemCount()));
+		}
+
+		@Override
+		public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+			long[] checkedIds = movieListView.getCheckedItemIds();
+			List<Long> ids = new ArrayList<Long>(checkedIds.length);
+			for (long id : checkedIds)
+				ids.add(id);
+
+			switch (item.getItemId()) {
+			case R.id.action_delete_selected:
+				// delete every selected movie in one background job
+				taskScheduler.submit(MovieListFragment.this, null,
+						TaskScheduler.PRIORITY_WRITE, new DeleteMoviesTask(ids));
+				mode.finish(); // close the contextual action bar
+				return true;
+			case R.id.action_label_selected:
+				chooseLabelFor(ids);
+				mode.finish();
+				return true;
+			case R.id.action_unlabel_selected:
+				unlabelMovies(ids);
+				mode.finish();
+				return true;
+			}
+
+			return false;
+		}
+
+		@Override
+		public void onDestroyActionMode(ActionMode mode) {
+		}
+	}; // end selectMoviesListener
+
+	// watch for committed changes while the fragment is visible
+	@Override
+	public void onStart() {
+		super.onStart();
+		getActivity().getContentResolver().registerContentObserver(
+				ChangeTracker.MOVIES_URI, true, moviesObserver);
+	}
+
+	// when fragment resumes, reload only if movies changed meanwhile
 	@Override
 	public void onResume() {
 		super.onResume();
-		new GetMovieTask().execute((Object[]) null);
+		refreshIfChanged();
+	}
+
+	// called for each row change; refresh once the burst is over
+	private final ContentObserver moviesObserver = new ContentObserver(handler) {
+		@Override
+		public void onChange(boolean selfChange) {
+			handler.removeCallbacks(refreshRunnable);
+			handler.postDelayed(refreshRunnable, CHANGE_DELAY_MS);
+		}
+	};
+
+	// refreshes the list after a burst of changes
+	private final Runnable refreshRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if (isResumed())
+				refreshIfChanged();
+		}
+	};
+
+	// bring the list up to date with the database, doing as little as
+	// the recorded changes allow
+	private void refreshIfChanged() {
+		ChangeTracker changeTracker = DatabaseConnector
+				.getChangeTracker(getActivity());
+		long generation = changeTracker.getGeneration();
+		if (generation == loadedGeneration)
+			return; // the retained rows are current
+
+		long[] changed = loadedGeneration < 0 ? null : changeTracker
+				.getChangesSince(loadedGeneration);
+		if (changed == null || searchQuery.length() != 0 || filter != null)
+			updateMovieList(); // start over; search results are diffed
+		else {
+			// known rows changed: re-query just the pages in memory
+			loadedGeneration = generation;
+			movieAdapter.refresh();
+		}
+	}
+
+	// deletes the selected movies outside GUI thread
+	private class DeleteMoviesTask extends TaskScheduler.Task<Long> {
+		DatabaseConnector databaseConnector = new DatabaseConnector(
+				getActivity());
+		private final List<Long> ids;
+
+		public DeleteMoviesTask(List<Long> ids) {
+			this.ids = ids;
+		}
+
+		// delete all movies in batched transactions
+		@Override
+		protected Long doInBackground() {
+			return databaseConnector.bulkDelete(ids);
+		}
+
+		// moviesObserver refreshes the list once for the whole batch
+		@Override
+		protected void onResult(Long token) {
+			showUndo(token);
+		}
+	} // end class DeleteMoviesTask
+
+	// offer to undo the delete with token for UNDO_WINDOW_MS
+	public void showUndo(long token) {
+		undoToken = token;
+		handler.removeCallbacks(expireUndoRunnable);
+		handler.postDelayed(expireUndoRunnable,
+				DatabaseConnector.UNDO_WINDOW_MS);
+
+		if (getActivity() != null) {
+			Toast.makeText(getActivity(), R.string.deleted, Toast.LENGTH_SHORT)
+					.show();
+			getActivity().invalidateOptionsMenu(); // shows Undo
+		}
+	}
+
+	// the undo window passed, so hide Undo
+	private final Runnable expireUndoRunnable = new Runnable() {
+		@Override
+		public void run() {
+			undoToken = NO_UNDO;
+			if (getActivity() != null)
+				getActivity().invalidateOptionsMenu();
+		}
+	};
+
+	// put back the movies of the latest delete
+	private void undoDelete() {
+		final long token = undoToken;
+		final DatabaseConnector databaseConnector = new DatabaseConnector(
+				getActivity());
+		handler.removeCallbacks(expireUndoRunnable);
+		expireUndoRunnable.run();
+
+		// moviesObserver refreshes the list when they are back
+		taskScheduler.submit(this, null, TaskScheduler.PRIORITY_WRITE,
+				new TaskScheduler.Task<Object>() {
+					@Override
+					protected Object doInBackground() {
+						databaseConnector.undoDelete(token);
+						return null;
+					}
+				});
 	}
 
-	// performs database query outside GUI thread
-	private class GetMovieTask extends AsyncTask<Object, Object, Cursor> {
+	// performs a title/director search, or runs the list's filter, outside
+	// GUI thread and compares its results with the ones shown
+	private class SearchTask extends TaskScheduler.Task<RowDiff> {
 		DatabaseConnector databaseConnector = new DatabaseConnector(
 				getActivity());
+		private final String query;
+		private final MovieQuery filter; // used if query is ""
+		private final List<MovieRow> shown = searchAdapter.getRows();
+		private List<MovieRow> rows; // results, read in onResult
+
+		public SearchTask(String query, MovieQuery filter) {
+			this.query = query;
+			this.filter = filter;
+		}
 
-		// open database and return Cursor for all contacts
+		// copy the matching movies into rows and diff them
 		@Override
-		protected Cursor doInBackground(Object... params) {
-			databaseConnector.open();
-			return databaseConnector.getAllMovies();
+		protected RowDiff doInBackground() {
+			Cursor cursor = query.length() == 0 ? databaseConnector
+					.queryMovies(filter) : databaseConnector.searchMovies(
+					query, SEARCH_LIMIT);
+			try {
+				rows = new ArrayList<MovieRow>(cursor.getCount());
+				while (cursor.moveToNext())
+					rows.add(new MovieRow(cursor.getLong(0), cursor
+							.getString(1)));
+			} finally {
+				cursor.close();
+			}
+			return RowDiff.compute(shown, rows);
 		}
 
-		// use the Cursor returned from the doInBackground method
+		// show the results of the latest search, redrawing only the rows
+		// that differ if the compared ones are still on screen
 		@Override
-		protected void onPostExecute(Cursor result) {
-			movieAdapter.changeCursor(result); // set the adapter's Cursor
-			databaseConnector.close();
+		protected void onResult(RowDiff result) {
+			searchHandle = null;
+			if (getListAdapter() != searchAdapter) {
+				searchAdapter.setRows(rows, null);
+				setListAdapter(searchAdapter);
+			} else
+				searchAdapter.setRows(rows,
+						searchAdapter.getRows() == shown ? result : null);
 		}
-	} // end class GetContactsTask
+	} // end class SearchTask
 
-	// when fragment stops, close Cursor and remove from contactAdapter
+	// runs the search once the user pauses typing
+	private final Runnable searchRunnable = new Runnable() {
+		@Override
+		public void run() {
+			updateMovieList();
+		}
+	};
+
+	// responds to text typed in the SearchView
+	SearchView.OnQueryTextListener searchListener = new SearchView.OnQueryTextListener() {
+		@Override
+		public boolean onQueryTextChange(String newText) {
+			searchQuery = newText.trim();
+			handler.removeCallbacks(searchRunnable); // debounce keystrokes
+			handler.postDelayed(searchRunnable, SEARCH_DELAY_MS);
+			return true;
+		}
+
+		@Override
+		public boolean onQueryTextSubmit(String query) {
+			searchQuery = query.trim();
+			handler.removeCallbacks(searchRunnable);
+			updateMovieList();
+			return true;
+		}
+	}; // end searchListener
+
+	// when fragment stops, stop loading and watching for changes
 	@Override
 	public void onStop() {
-		Cursor cursor = movieAdapter.getCursor(); // get current Cursor
-		movieAdapter.changeCursor(null); // adapter now has no Cursor
+		getActivity().getContentResolver().unregisterContentObserver(
+				moviesObserver);
+		handler.removeCallbacks(refreshRunnable);
 
-		if (cursor != null)
-			cursor.close(); // release the Cursor's resources
+		// results arriving after this would be thrown away, so if anything
+		// was still loading make onResume load again
+		taskScheduler.cancelAll(this);
+		if (detailPrefetcher != null)
+			detailPrefetcher.cancel();
+		dismissDuplicatesDialog(); // its task may never report back
+		boolean searching = searchHandle != null;
+		searchHandle = null;
+		if (movieAdapter.cancel() || searching)
+			loadedGeneration = -1;
 
 		super.onStop();
 	}
@@ -123,6 +431,23 @@ public class MovieListFragment extends ListFragment {
 	public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
 		super.onCreateOptionsMenu(menu, inflater);
 		inflater.inflate(R.menu.fragment_movie_list_menu, menu);
+
+		// configure the SearchView in the action bar
+		SearchView searchView = (SearchView) menu.findItem(R.id.action_search)
+				.getActionView();
+		searchView.setQueryHint(getResources().getString(R.string.hint_search));
+		searchView.setOnQueryTextListener(searchListener);
+
+		// profiling numbers are for developers and field reports only
+		menu.findItem(R.id.action_diagnostics).setVisible(BuildConfig.DEBUG);
+	}
+
+	// show Undo only while the latest delete can be undone
+	@Override
+	public void onPrepareOptionsMenu(Menu menu) {
+		super.onPrepareOptionsMenu(menu);
+		menu.findItem(R.id.action_undo).setVisible(undoToken != NO_UNDO);
+		menu.findItem(R.id.action_delete_label).setVisible(label != null);
 	}
 
 	// handle choice from options menu
@@ -132,14 +457,631 @@ public class MovieListFragment extends ListFragment {
 		case R.id.action_add:
 			listener.onAddMovie();
 			return true;
+		case R.id.action_undo:
+			undoDelete();
+			return true;
+		case R.id.action_filter:
+			showFilterDialog();
+			return true;
+		case R.id.action_labels:
+			chooseLabel();
+			return true;
+		case R.id.action_delete_label:
+			confirmDeleteLabel();
+			return true;
+		case R.id.action_import:
+			importMovies();
+			return true;
+		case R.id.action_backup:
+			backUpMovies();
+			return true;
+		case R.id.action_restore:
+			confirmRestore();
+			return true;
+		case R.id.action_find_duplicates:
+			findDuplicates();
+			return true;
+		case R.id.action_stats:
+			listener.onShowStats();
+			return true;
+		case R.id.action_diagnostics:
+			listener.onShowDiagnostics();
+			return true;
 		}
 
 		return super.onOptionsItemSelected(item); // call super's method
 	}
 
-	// update data set
+	// let the user filter and sort the list, starting from the current
+	// filter
+	private void showFilterDialog() {
+		View view = LayoutInflater.from(getActivity()).inflate(
+				R.layout.dialog_filter, null);
+		final EditText titleEditText = (EditText) view
+				.findViewById(R.id.filterTitleEditText);
+		final EditText directorEditText = (EditText) view
+				.findViewById(R.id.filterDirectorEditText);
+		final EditText minYearEditText = (EditText) view
+				.findViewById(R.id.filterMinYearEditText);
+		final EditText maxYearEditText = (EditText) view
+				.findViewById(R.id.filterMaxYearEditText);
+		final EditText minRuntimeEditText = (EditText) view
+				.findViewById(R.id.filterMinRuntimeEditText);
+		final EditText maxRuntimeEditText = (EditText) view
+				.findViewById(R.id.filterMaxRuntimeEditText);
+		final Spinner sortSpinner = (Spinner) view
+				.findViewById(R.id.filterSortSpinner);
+		final CheckBox descendingCheckBox = (CheckBox) view
+				.findViewById(R.id.filterDescendingCheckBox);
+
+		if (filter != null) {
+			titleEditText.setText(filter.getTitlePrefix());
+			directorEditText.setText(filter.getDirector());
+			setBound(minYearEditText, filter.getMinYear());
+			setBound(maxYearEditText, filter.getMaxYear());
+			setBound(minRuntimeEditText, filter.getMinRuntime());
+			setBound(maxRuntimeEditText, filter.getMaxRuntime());
+			sortSpinner.setSelection(filter.getSort().ordinal());
+			descendingCheckBox.setChecked(filter.isDescending());
+		}
+
+		new AlertDialog.Builder(getActivity())
+				.setTitle(R.string.filter_title)
+				.setView(view)
+				.setNegativeButton(R.string.button_cancel, null)
+				.setNeutralButton(R.string.button_clear,
+						new DialogInterface.OnClickListener() {
+							@Override
+							public void onClick(DialogInterface dialog,
+									int which) {
+								setFilter(null);
+							}
+						})
+				.setPositiveButton(R.string.button_apply,
+						new DialogInterface.OnClickListener() {
+							@Override
+							public void onClick(DialogInterface dialog,
+									int which) {
+								MovieQuery.Sort sort = MovieQuery.Sort.values()[sortSpinner
+										.getSelectedItemPosition()];
+								MovieQuery query = new MovieQuery()
+										.titleStartsWith(getText(titleEditText))
+										.director(getText(directorEditText))
+										.yearBetween(getBound(minYearEditText),
+												getBound(maxYearEditText))
+										.runtimeBetween(
+												getBound(minRuntimeEditText),
+												getBound(maxRuntimeEditText))
+										.sortBy(sort,
+												descendingCheckBox.isChecked());
+								setFilter(query.isFiltered() ? query
+										.limit(FILTER_LIMIT) : null);
+							}
+						}).show();
+	}
+
+	// editText's text without surrounding spaces
+	private static String getText(EditText editText) {
+		return editText.getText().toString().trim();
+	}
+
+	// show bound in editText, or leave it empty if there is none
+	private static void setBound(EditText editText, int bound) {
+		if (bound != MovieQuery.ANY)
+			editText.setText(String.valueOf(bound));
+	}
+
+	// the number in editText, or MovieQuery.ANY if there is none
+	private static int getBound(EditText editText) {
+		try {
+			return Integer.parseInt(getText(editText));
+		} catch (NumberFormatException e) {
+			return MovieQuery.ANY;
+		}
+	}
+
+	// show the movies query selects, or the full list if it is null
+	private void setFilter(MovieQuery query) {
+		filter = query;
+		updateMovieList();
+	}
+
+	// reads the collections and tags outside GUI thread; onResult offers
+	// them
+	private abstract class LabelsTask extends
+			TaskScheduler.Task<List<Label>> {
+		DatabaseConnector databaseConnector = new DatabaseConnector(
+				getActivity());
+
+		@Override
+		protected List<Label> doInBackground() {
+			return databaseConnector.getLabels();
+		}
+	} // end class LabelsTask
+
+	// let the user list one collection or tag, or every movie again
+	private void chooseLabel() {
+		taskScheduler.submit(this, "labels", TaskScheduler.PRIORITY_UI_READ,
+				new LabelsTask() {
+					@Override
+					protected void onResult(List<Label> labels) {
+						showLabelsDialog(labels);
+					}
+				});
+	}
+
+	private void showLabelsDialog(final List<Label> labels) {
+		String[] items = new String[labels.size() + 1];
+		items[0] = getResources().getString(R.string.labels_all_movies);
+		describeLabels(labels, items, 1);
+
+		new AlertDialog.Builder(getActivity())
+				.setTitle(R.string.labels_title)
+				.setItems(items, new DialogInterface.OnClickListener() {
+					@Override
+					public void onClick(DialogInterface dialog, int which) {
+						setLabel(which == 0 ? null : labels.get(which - 1));
+					}
+				}).setNegativeButton(R.string.button_cancel, null).show();
+	}
+
+	// let the user pick a collection or tag for the movies in ids, or name
+	// a new one
+	private void chooseLabelFor(final List<Long> ids) {
+		taskScheduler.submit(this, "labels", TaskScheduler.PRIORITY_UI_READ,
+				new LabelsTask() {
+					@Override
+					protected void onResult(List<Label> labels) {
+						showLabelsDialogFor(labels, ids);
+					}
+				});
+	}
+
+	private void showLabelsDialogFor(final List<Label> labels,
+			final List<Long> ids) {
+		final int count = labels.size();
+		String[] items = new String[count + 2];
+		describeLabels(labels, items, 0);
+		items[count] = getResources().getString(R.string.labels_new_collection);
+		items[count + 1] = getResources().getString(R.string.labels_new_tag);
+
+		new AlertDialog.Builder(getActivity())
+				.setTitle(R.string.menuitem_label_selected)
+				.setItems(items, new DialogInterface.OnClickListener() {
+					@Override
+					public void onClick(DialogInterface dialog, int which) {
+						if (which < count)
+							labelMovies(labels.get(which).getKind(), labels
+									.get(which).getName(), ids);
+						else
+							nameLabel(which == count ? Label.COLLECTION
+									: Label.TAG, ids);
+					}
+				}).setNegativeButton(R.string.button_cancel, null).show();
+	}
+
+	// ask for the name of a new label of kind for the movies in ids
+	private void nameLabel(final int kind, final List<Long> ids) {
+		final EditText nameEditText = new EditText(getActivity());
+		nameEditText.setSingleLine();
+
+		int titleID = kind == Label.COLLECTION ? R.string.labels_new_collection
+				: R.string.labels_new_tag;
+		new AlertDialog.Builder(getActivity())
+				.setTitle(titleID)
+				.setView(nameEditText)
+				.setNegativeButton(R.string.button_cancel, null)
+				.setPositiveButton(R.string.button_apply,
+						new DialogInterface.OnClickListener() {
+							@Override
+							public void onClick(DialogInterface dialog,
+									int which) {
+								String name = getText(nameEditText);
+								if (name.length() != 0)
+									labelMovies(kind, name, ids);
+							}
+						}).show();
+	}
+
+	// put each label's name and movie count in items from first on
+	private void describeLabels(List<Label> labels, String[] items, int first) {
+		for (int i = 0; i < labels.size(); ++i) {
+			Label each = labels.get(i);
+			items[first + i] = getResources().getString(
+					each.getKind() == Label.TAG ? R.string.labels_tag
+							: R.string.labels_collection, each.getName(),
+					each.getCount());
+		}
+	}
+
+	// give the movies in ids the label of kind named name, adding the label
+	// if it is new, outside GUI thread; moviesObserver refreshes the list
+	private void labelMovies(final int kind, final String name,
+			final List<Long> ids) {
+		final DatabaseConnector databaseConnector = new DatabaseConnector(
+				getActivity());
+
+		taskScheduler.submit(this, null, TaskScheduler.PRIORITY_WRITE,
+				new TaskScheduler.Task<Integer>() {
+					@Override
+					protected Integer doInBackground() {
+						return databaseConnector.addToLabel(
+								databaseConnector.addLabel(kind, name), ids);
+					}
+
+					@Override
+					protected void onResult(Integer added) {
+						String message = getResources().getString(
+								R.string.labels_added, added, name);
+						Toast.makeText(getActivity(), message,
+								Toast.LENGTH_SHORT).show();
+					}
+				});
+	}
+
+	// take the listed label off the movies in ids outside GUI thread
+	private void unlabelMovies(final List<Long> ids) {
+		final long labelId = label.getId();
+		final DatabaseConnector databaseConnector = new DatabaseConnector(
+				getActivity());
+
+		taskScheduler.submit(this, null, TaskScheduler.PRIORITY_WRITE,
+				new TaskScheduler.Task<Object>() {
+					@Override
+					protected Object doInBackground() {
+						databaseConnector.removeFromLabel(labelId, ids);
+						return null;
+					}
+				});
+	}
+
+	// delete the listed label, after asking, and list every movie again
+	private void confirmDeleteLabel() {
+		final long labelId = label.getId();
+		final DatabaseConnector databaseConnector = new DatabaseConnector(
+				getActivity());
+
+		new AlertDialog.Builder(getActivity())
+				.setMessage(
+						getResources().getString(
+								R.string.labels_delete_confirm,
+								label.getName()))
+				.setNegativeButton(R.string.button_cancel, null)
+				.setPositiveButton(R.string.menuitem_delete,
+						new DialogInterface.OnClickListener() {
+							@Override
+							public void onClick(DialogInterface dialog,
+									int which) {
+								setLabel(null);
+								taskScheduler.submit(MovieListFragment.this,
+										null, TaskScheduler.PRIORITY_WRITE,
+										new TaskScheduler.Task<Object>() {
+											@Override
+											protected Object doInBackground() {
+												databaseConnector
+														.deleteLabel(labelId);
+												return null;
+											}
+										});
+							}
+						}).show();
+	}
+
+	// list the movies with newLabel, or every movie if it is null
+	private void setLabel(Label newLabel) {
+		label = newLabel;
+		showLabel();
+		getActivity().invalidateOptionsMenu(); // shows or hides Delete
+		updateMovieList();
+	}
+
+	// point the paged list at label and name it under the title
+	private void showLabel() {
+		movieAdapter.setLabel(label == null ? PagedMovieAdapter.ALL_MOVIES
+				: label.getId());
+		getActivity().getActionBar().setSubtitle(
+				label == null ? null : label.getName());
+	}
+
+	// import movies.csv or movies.tsv from the Downloads directory
+	private void importMovies() {
+		File downloads = Environment
+				.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
+		File file = new File(downloads, "movies.csv");
+		if (!file.exists())
+			file = new File(downloads, "movies.tsv");
+
+		if (!file.exists()) {
+			Toast.makeText(getActivity(), R.string.import_missing,
+					Toast.LENGTH_LONG).show();
+			return;
+		}
+
+		// show progress with a button that pauses the import
+		importDialog = new ProgressDialog(getActivity());
+		importDialog.setTitle(R.string.import_title);
+		importDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+		importDialog.setMax(100);
+		importDialog.setCancelable(false);
+		importDialog.setButton(DialogInterface.BUTTON_NEGATIVE, getResources()
+				.getString(R.string.button_cancel),
+				new DialogInterface.OnClickListener() {
+					@Override
+					public void onClick(DialogInterface dialog, int which) {
+						movieImporter.cancel();
+					}
+				});
+		importDialog.show();
+
+		movieImporter = new MovieImporter(getActivity(), file, importListener);
+		movieImporter.start(); // resumes from a checkpoint if there is one
+	}
+
+	// receives import progress on the importer's thread
+	MovieImporter.ImportListener importListener = new MovieImporter.ImportListener() {
+		@Override
+		public void onImportProgress(final long rows, final long bytesRead,
+				final long totalBytes, final long rowsPerSecond) {
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (importDialog == null || !isAdded())
+						return;
+
+					importDialog.setProgress((int) (bytesRead * 100 / Math.max(
+							1, totalBytes)));
+					importDialog.setMessage(getResources().getString(
+							R.string.import_progress, rows, rowsPerSecond));
+				}
+			});
+		}
+
+		@Override
+		public void onImportFinished(final long rows, final boolean cancelled) {
+			finishImport(cancelled ? R.string.import_cancelled
+					: R.string.import_done, rows);
+		}
+
+		@Override
+		public void onImportFailed(final Exception error) {
+			finishImport(R.string.import_failed, error.getMessage());
+		}
+	}; // end importListener
+
+	// close the progress dialog, report the outcome and reload the list
+	private void finishImport(final int messageID, final Object argument) {
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				movieImporter = null;
+				if (importDialog != null) {
+					importDialog.dismiss();
+					importDialog = null;
+				}
+
+				if (!isAdded())
+					return;
+
+				Toast.makeText(getActivity(),
+						getResources().getString(messageID, argument),
+						Toast.LENGTH_LONG).show();
+			}
+		});
+	}
+
+	// the snapshot that backups write and restores read, or null if
+	// external storage is not available
+	private File getBackupFile() {
+		File directory = getActivity().getExternalFilesDir(null);
+		return directory == null ? null : new File(directory,
+				"movies.snapshot");
+	}
+
+	// write every movie to the backup snapshot
+	private void backUpMovies() {
+		File file = getBackupFile();
+		if (file == null) {
+			Toast.makeText(getActivity(), R.string.backup_unavailable,
+					Toast.LENGTH_LONG).show();
+			return;
+		}
+
+		showBackupDialog(R.string.backup_title);
+		new MovieBackup(getActivity(), file, new BackupProgress(
+				R.string.backup_done, R.string.backup_failed)).backup();
+	}
+
+	// a restore replaces the whole collection, so ask first
+	private void confirmRestore() {
+		final File file = getBackupFile();
+		if (file == null || !file.exists()) {
+			Toast.makeText(getActivity(), R.string.restore_missing,
+					Toast.LENGTH_LONG).show();
+			return;
+		}
+
+		new AlertDialog.Builder(getActivity())
+				.setMessage(R.string.restore_confirm)
+				.setNegativeButton(R.string.button_cancel, null)
+				.setPositiveButton(R.string.menuitem_restore,
+						new DialogInterface.OnClickListener() {
+							@Override
+							public void onClick(DialogInterface dialog,
+									int which) {
+								showBackupDialog(R.string.restore_title);
+								new MovieBackup(getActivity(), file,
+										new BackupProgress(
+												R.string.restore_done,
+												R.string.restore_failed))
+										.restore();
+							}
+						}).show();
+	}
+
+	// show progress; a backup or restore cannot be stopped halfway
+	private void showBackupDialog(int titleID) {
+		backupDialog = new ProgressDialog(getActivity());
+		backupDialog.setTitle(titleID);
+		backupDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+		backupDialog.setMax(100);
+		backupDialog.setCancelable(false);
+		backupDialog.show();
+	}
+
+	// receives backup or restore progress on its thread
+	private class BackupProgress implements MovieBackup.BackupListener {
+		private final int doneID; // message when finished
+		private final int failedID; // message on failure
+
+		public BackupProgress(int doneID, int failedID) {
+			this.doneID = doneID;
+			this.failedID = failedID;
+		}
+
+		@Override
+		public void onBackupProgress(final long rows, final long totalRows,
+				final long rowsPerSecond) {
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (backupDialog == null || !isAdded())
+						return;
+
+					backupDialog.setProgress((int) (rows * 100 / Math.max(1,
+							totalRows)));
+					backupDialog.setMessage(getResources().getString(
+							R.string.backup_progress, rows, totalRows,
+							rowsPerSecond));
+				}
+			});
+		}
+
+		@Override
+		public void onBackupFinished(long rows) {
+			finishBackup(doneID, rows);
+		}
+
+		@Override
+		public void onBackupFailed(Exception error) {
+			finishBackup(failedID, error.getMessage());
+		}
+	} // end class BackupProgress
+
+	// close the progress dialog and report the outcome
+	private void finishBackup(final int messageID, final Object argument) {
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (backupDialog != null) {
+					backupDialog.dismiss();
+					backupDialog = null;
+				}
+
+				if (!isAdded())
+					return;
+
+				Toast.makeText(getActivity(),
+						getResources().getString(messageID, argument),
+						Toast.LENGTH_LONG).show();
+			}
+		});
+	}
+
+	// compare every title with every other, on all cores
+	private void findDuplicates() {
+		duplicatesDialog = ProgressDialog.show(getActivity(), null,
+				getResources().getString(R.string.duplicates_searching), true);
+		taskScheduler.submit(this, "findDuplicates",
+				TaskScheduler.PRIORITY_UI_READ, new FindDuplicatesTask());
+	}
+
+	// groups likely duplicates outside GUI thread
+	private class FindDuplicatesTask extends
+			TaskScheduler.Task<List<List<TitleIndex.Match>>> {
+		DatabaseConnector databaseConnector = new DatabaseConnector(
+				getActivity());
+
+		@Override
+		protected List<List<TitleIndex.Match>> doInBackground() {
+			try {
+				return databaseConnector.getTitleIndex().findDuplicates(
+						TitleIndex.DEFAULT_THRESHOLD,
+						Runtime.getRuntime().availableProcessors());
+			} catch (InterruptedException e) {
+				return new ArrayList<List<TitleIndex.Match>>();
+			}
+		}
+
+		// list each group; choosing one shows its first movie
+		@Override
+		protected void onResult(final List<List<TitleIndex.Match>> groups) {
+			dismissDuplicatesDialog();
+			if (groups.isEmpty()) {
+				Toast.makeText(getActivity(), R.string.duplicates_none,
+						Toast.LENGTH_LONG).show();
+				return;
+			}
+
+			String[] items = new String[groups.size()];
+			for (int i = 0; i < items.length; ++i) {
+				StringBuilder item = new StringBuilder();
+				for (TitleIndex.Match match : groups.get(i)) {
+					if (item.length() != 0)
+						item.append('\n');
+					item.append(match.title);
+					if (match.year != Movie.UNKNOWN)
+						item.append(" (").append(match.year).append(')');
+				}
+				items[i] = item.toString();
+			}
+
+			new AlertDialog.Builder(getActivity())
+					.setTitle(R.string.duplicates_title)
+					.setItems(items, new DialogInterface.OnClickListener() {
+						@Override
+						public void onClick(DialogInterface dialog, int which) {
+							if (listener != null)
+								listener.onMovieSelected(groups.get(which)
+										.get(0).id);
+						}
+					}).setNegativeButton(R.string.ok, null).show();
+		}
+
+		@Override
+		protected void onDiscarded(List<List<TitleIndex.Match>> groups) {
+			dismissDuplicatesDialog();
+		}
+	} // end class FindDuplicatesTask
+
+	private void dismissDuplicatesDialog() {
+		if (duplicatesDialog != null) {
+			duplicatesDialog.dismiss();
+			duplicatesDialog = null;
+		}
+	}
+
+	// reload the whole data set
 	public void updateMovieList() {
-		new GetMovieTask().execute((Object[]) null);
+		loadedGeneration = DatabaseConnector.getChangeTracker(getActivity())
+				.getGeneration();
+
+		// cancel a search still running for older text
+		if (searchHandle != null) {
+			searchHandle.cancel();
+			searchHandle = null;
+		}
+
+		if (searchQuery.length() == 0 && filter == null) {
+			if (getListAdapter() != movieAdapter)
+				setListAdapter(movieAdapter);
+			movieAdapter.reload(); // start again from the first page
+		} else {
+			// each search diffs against the rows shown when it started, so
+			// it is not shared with another; no key
+			searchHandle = taskScheduler.submit(this, null,
+					TaskScheduler.PRIORITY_UI_READ, new SearchTask(searchQuery,
+							filter));
+		}
 	}
 } // end class ContactListFragment
 
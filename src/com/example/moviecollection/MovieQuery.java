@@ -0,0 +1,330 @@
+// MovieQuery.java
+// Builds the SQL for a filtered, sorted list of movies; values are bound as
+// parameters, so queries of the same shape share one SQL string and one
+// compiled statement on each connection
+package com.example.moviecollection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MovieQuery {
+	// no bound on a range, or no limit
+	public static final int ANY = -1;
+
+	// columns the list can be sorted by, each led by the index that keeps
+	// its rows in that order with title as the tie-breaker
+	public enum Sort {
+		TITLE(null), YEAR("year"), DIRECTOR("director COLLATE NOCASE"),
+		RUNTIME("runtime");
+
+		private final String column; // ORDER BY term before the title
+
+		private Sort(String column) {
+			this.column = column;
+		}
+	} // end enum Sort
+
+	private static final int CACHED_SHAPES = 32;
+	private static final int SCAN_COST_TITLE = 20; // per row, see below
+	private static final String BETWEEN = " BETWEEN CAST(? AS INTEGER) "
+			+ "AND CAST(? AS INTEGER)";
+
+	// kinds of SQL built for one shape
+	private static final char INDEXED = 'i';
+	private static final char SCAN = 's';
+	private static final char COUNT = 'c';
+
+	// generated SQL of the most recently used shapes
+	private static final Map<String, String> sqlByShape = new LinkedHashMap<String, String>(
+			CACHED_SHAPES, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > CACHED_SHAPES;
+		}
+	};
+
+	private int minYear = ANY;
+	private int maxYear = ANY;
+	private String director; // exact, ignoring ASCII case; null for any
+	private int minRuntime = ANY;
+	private int maxRuntime = ANY;
+	private String titlePrefix; // ignoring ASCII case; null for any
+	private Sort sort = Sort.TITLE;
+	private boolean descending;
+	private int limit = ANY;
+
+	// keep movies from min to max inclusive; either may be ANY, and movies
+	// whose year is unknown are left out
+	public MovieQuery yearBetween(int min, int max) {
+		minYear = min;
+		maxYear = max;
+		return this;
+	}
+
+	// keep movies by director; null or empty for any
+	public MovieQuery director(String director) {
+		this.director = director == null || director.length() == 0 ? null
+				: director;
+		return this;
+	}
+
+	// keep movies running from min to max minutes inclusive; either may be
+	// ANY, and movies whose runtime is unknown are left out
+	public MovieQuery runtimeBetween(int min, int max) {
+		minRuntime = min;
+		maxRuntime = max;
+		return this;
+	}
+
+	// keep movies whose titles start with prefix; null or empty for any
+	public MovieQuery titleStartsWith(String prefix) {
+		titlePrefix = prefix == null || prefix.length() == 0 ? null : prefix;
+		return this;
+	}
+
+	// order the movies by sort, then title
+	public MovieQuery sortBy(Sort sort, boolean descending) {
+		this.sort = sort;
+		this.descending = descending;
+		return this;
+	}
+
+	// return at most limit movies, or all of them if ANY
+	public MovieQuery limit(int limit) {
+		this.limit = limit;
+		return this;
+	}
+
+	public int getMinYear() {
+		return minYear;
+	}
+
+	public int getMaxYear() {
+		return maxYear;
+	}
+
+	public String getDirector() {
+		return director;
+	}
+
+	public int getMinRuntime() {
+		return minRuntime;
+	}
+
+	public int getMaxRuntime() {
+		return maxRuntime;
+	}
+
+	public String getTitlePrefix() {
+		return titlePrefix;
+	}
+
+	public Sort getSort() {
+		return sort;
+	}
+
+	public boolean isDescending() {
+		return descending;
+	}
+
+	// true if this selects or orders movies differently from the full list
+	public boolean isFiltered() {
+		return hasYear() || director != null || hasRuntime()
+				|| titlePrefix != null || sort != Sort.TITLE || descending;
+	}
+
+	private boolean hasYear() {
+		return minYear != ANY || maxYear != ANY;
+	}
+
+	private boolean hasRuntime() {
+		return minRuntime != ANY || maxRuntime != ANY;
+	}
+
+	// which clauses the SQL has, but not their values
+	public String getShape() {
+		StringBuilder shape = new StringBuilder();
+		if (titlePrefix != null) // T if there is no upper bound
+			shape.append(getUpperBound().length() == 0 ? 'T' : 't');
+		if (director != null)
+			shape.append('d');
+		if (hasYear())
+			shape.append('y');
+		if (hasRuntime())
+			shape.append('r');
+		shape.append(sort.ordinal()).append(descending ? '-' : '+');
+		if (limit != ANY)
+			shape.append('l');
+		return shape.toString();
+	}
+
+	// SELECT _id, title of the movies selected, in order, letting SQLite
+	// read a filter's index and sort what matches
+	public String getSql() {
+		return getSql(INDEXED);
+	}
+
+	// the same selection, but read in order from the sort's index with the
+	// other columns' filters checked row by row; faster when so many rows
+	// match that sorting them costs more than skipping the others, which
+	// SQLite cannot tell from its statistics
+	public String getScanSql() {
+		return getSql(SCAN);
+	}
+
+	// counts matches, stopping at a bound bound to the last parameter
+	public String getCountSql() {
+		return getSql(COUNT);
+	}
+
+	// true if getScanSql() may be worth running: the list is limited, a
+	// range on a column other than the sort's narrows it, and no director
+	// is given, whose index SQLite rightly prefers
+	public boolean canScanInOrder() {
+		boolean otherRange = (titlePrefix != null && sort != Sort.TITLE)
+				|| (hasYear() && sort != Sort.YEAR)
+				|| (hasRuntime() && sort != Sort.RUNTIME);
+		return limit != ANY && director == null && otherRange;
+	}
+
+	// matches above which getScanSql() is the faster query, in a table of
+	// rowCount movies: sorting m matches costs about m, while the scan reads
+	// about limit * rowCount / m rows, and each costs SCAN_COST_TITLE times
+	// as much in title order, whose index holds only the title
+	public long getScanThreshold(long rowCount) {
+		double cost = sort == Sort.TITLE ? SCAN_COST_TITLE : 1;
+		return Math.max(limit, (long) Math.sqrt(rowCount * cost * limit));
+	}
+
+	// the SQL of each shape and variant is built once
+	private String getSql(char variant) {
+		String shape = getShape() + variant;
+		synchronized (sqlByShape) {
+			String sql = sqlByShape.get(shape);
+			if (sql == null) {
+				sql = buildSql(variant);
+				sqlByShape.put(shape, sql);
+			}
+			return sql;
+		}
+	}
+
+	// the values bound to getSql()'s and getScanSql()'s parameters, in order
+	public String[] getArgs() {
+		return getArgs(limit);
+	}
+
+	// the values bound to getCountSql()'s parameters, to count at most
+	// bound matches
+	public String[] getCountArgs(long bound) {
+		return getArgs(bound);
+	}
+
+	private String[] getArgs(long last) {
+		List<String> args = new ArrayList<String>();
+		if (titlePrefix != null) {
+			args.add(foldCase(titlePrefix));
+			String upper = getUpperBound();
+			if (upper.length() != 0)
+				args.add(upper);
+		}
+		if (director != null)
+			args.add(director);
+		if (hasYear()) {
+			args.add(String.valueOf(minYear == ANY ? 1 : minYear));
+			args.add(String.valueOf(maxYear == ANY ? Integer.MAX_VALUE
+					: maxYear));
+		}
+		if (hasRuntime()) {
+			args.add(String.valueOf(minRuntime == ANY ? 1 : minRuntime));
+			args.add(String.valueOf(maxRuntime == ANY ? Integer.MAX_VALUE
+					: maxRuntime));
+		}
+		if (last != ANY)
+			args.add(String.valueOf(last));
+		return args.toArray(new String[args.size()]);
+	}
+
+	// clauses in the order getArgs binds them; comparisons are written
+	// with the indexes' NOCASE collation and a prefix becomes a range, so
+	// each filter can be a range scan of its index. Numbers arrive as
+	// strings, so they are cast, as the column's affinity would; in a
+	// SCAN a unary + keeps SQLite from using the other columns' indexes
+	private String buildSql(char variant) {
+		StringBuilder sql = new StringBuilder(
+				variant == COUNT ? "SELECT COUNT(*) FROM (SELECT 1"
+						: "SELECT _id, title");
+		sql.append(" FROM movies");
+		String where = " WHERE ";
+		if (titlePrefix != null) {
+			String title = column(variant, Sort.TITLE, "title");
+			sql.append(where).append(title).append(" COLLATE NOCASE >= ?");
+			if (getUpperBound().length() != 0)
+				sql.append(" AND ").append(title)
+						.append(" COLLATE NOCASE < ?");
+			where = " AND ";
+		}
+		if (director != null) {
+			sql.append(where).append("director COLLATE NOCASE = ?");
+			where = " AND ";
+		}
+		if (hasYear()) {
+			sql.append(where).append(column(variant, Sort.YEAR, "year"))
+					.append(BETWEEN);
+			where = " AND ";
+		}
+		if (hasRuntime())
+			sql.append(where).append(column(variant, Sort.RUNTIME, "runtime"))
+					.append(BETWEEN);
+
+		if (variant == COUNT)
+			return sql.append(" LIMIT ?)").toString();
+
+		String direction = descending ? " DESC" : "";
+		sql.append(" ORDER BY ");
+		if (sort.column != null)
+			sql.append(sort.column).append(direction).append(", ");
+		sql.append("title COLLATE NOCASE").append(direction);
+
+		if (limit != ANY)
+			sql.append(" LIMIT ?");
+		return sql.toString();
+	}
+
+	// name, or +name if it must not pick the index in a SCAN
+	private String column(char variant, Sort column, String name) {
+		return variant == SCAN && sort != column ? "+" + name : name;
+	}
+
+	// the first string after every title starting with the prefix, or ""
+	// if there is none; NOCASE compares ASCII letters as lower case and
+	// everything else by code point, so the character after '@' is '['
+	private String getUpperBound() {
+		String prefix = foldCase(titlePrefix);
+		for (int i = prefix.length() - 1; i >= 0; --i) {
+			char c = prefix.charAt(i);
+			if (c < Character.MIN_SURROGATE - 1
+					|| (c > Character.MAX_SURROGATE && c < Character.MAX_VALUE))
+				return prefix.substring(0, i)
+						+ (c == '@' ? '[' : (char) (c + 1));
+		}
+		return "";
+	}
+
+	// lower-case ASCII letters only, as NOCASE does
+	private static String foldCase(String text) {
+		char[] chars = text.toCharArray();
+		for (int i = 0; i < chars.length; ++i)
+			if (chars[i] >= 'A' && chars[i] <= 'Z')
+				chars[i] += 'a' - 'A';
+		return new String(chars);
+	}
+
+	@Override
+	public String toString() {
+		return getSql() + " " + Arrays.toString(getArgs());
+	}
+} // end class MovieQuery
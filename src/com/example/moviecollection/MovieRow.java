@@ -0,0 +1,33 @@
+// MovieRow.java
+// One row of a movie list as shown on screen; rows are built on a background
+// thread and never changed afterwards, so they can be diffed there too
+package com.example.moviecollection;
+
+public final class MovieRow {
+	private final long id; // database row ID
+	private final String title; // never null
+
+	// constructor
+	public MovieRow(long id, String title) {
+		this.id = id;
+		this.title = title == null ? "" : title;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	// true if the row would be drawn the same way as other
+	public boolean sameContents(MovieRow other) {
+		return id == other.id && title.equals(other.title);
+	}
+
+	@Override
+	public String toString() {
+		return title;
+	}
+} // end class MovieRow
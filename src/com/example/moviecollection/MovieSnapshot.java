@@ -0,0 +1,507 @@
+// MovieSnapshot.java
+// Versioned, checksummed binary snapshot of the movies table, stored
+// column by column in blocks: directors dictionary-encoded across the
+// file, numbers as varints, and each block optionally deflated
+package com.example.moviecollection;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// File layout, big-endian:
+//
+//   header   "MVSN", int version, int flags
+//   block    int rows (> 0), int stored length, int raw length,
+//            int CRC-32 of the stored bytes, stored bytes
+//   ...
+//   trailer  int 0, long total rows
+//
+// A block's raw bytes are the directors it introduces (varint count,
+// then strings), then one column after another: row ID deltas (zigzag
+// varints), titles (strings), years, director numbers (1 + dictionary
+// index, 0 for none) and runtimes (varints). A string is a varint of its
+// UTF-8 length plus one, 0 for null, then the bytes.
+public class MovieSnapshot {
+	public static final int VERSION = 1;
+	public static final int FLAG_DEFLATE = 1; // blocks are deflated
+
+	private static final int MAGIC = 0x4d56534e; // "MVSN"
+	private static final int HEADER_BYTES = 12;
+	private static final int BLOCK_HEADER_BYTES = 16;
+	private static final int BLOCK_ROWS = 8192; // rows per block
+	private static final int MAX_BLOCK_BYTES = 64 * 1024 * 1024; // sanity
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private MovieSnapshot() {
+	}
+
+	// writes movies, in row ID order for the smallest deltas, to a file
+	// through its channel, one block at a time
+	public static class Writer implements Closeable {
+		private final FileOutputStream output;
+		private final FileChannel channel;
+		private final boolean deflate;
+		private final Deflater deflater;
+
+		// directors numbered so far, and the ones the open block adds
+		private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+		private final List<String> newDirectors = new ArrayList<String>();
+
+		// columns of the open block
+		private final long[] ids = new long[BLOCK_ROWS];
+		private final String[] titles = new String[BLOCK_ROWS];
+		private final int[] years = new int[BLOCK_ROWS];
+		private final int[] directors = new int[BLOCK_ROWS];
+		private final int[] runtimes = new int[BLOCK_ROWS];
+		private int rows; // in the open block
+
+		private final Encoder raw = new Encoder(256 * 1024);
+		private byte[] deflated = new byte[0];
+		private long lastId;
+		private long totalRows;
+
+		// constructor; create or truncate file and write the header
+		public Writer(File file, boolean deflate) throws IOException {
+			this.output = new FileOutputStream(file);
+			this.channel = output.getChannel();
+			this.deflate = deflate;
+			this.deflater = deflate ? new Deflater(Deflater.BEST_SPEED) : null;
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).putInt(VERSION)
+					.putInt(deflate ? FLAG_DEFLATE : 0).flip();
+			writeFully(header);
+		}
+
+		// add one stored movie
+		public void write(Movie movie) throws IOException {
+			String director = movie.getDirector();
+			int number = 0;
+			if (director != null) {
+				Integer index = dictionary.get(director);
+				if (index == null) {
+					index = dictionary.size();
+					dictionary.put(director, index);
+					newDirectors.add(director);
+				}
+				number = index + 1;
+			}
+
+			ids[rows] = movie.getId();
+			titles[rows] = movie.getTitle();
+			years[rows] = movie.getYear();
+			directors[rows] = number;
+			runtimes[rows] = movie.getRuntime();
+			if (++rows == BLOCK_ROWS)
+				writeBlock();
+		}
+
+		// movies written so far
+		public long getRows() {
+			return totalRows + rows;
+		}
+
+		// write the last block and the trailer; the snapshot is complete
+		// only once this returns
+		public void finish() throws IOException {
+			if (rows > 0)
+				writeBlock();
+
+			ByteBuffer trailer = ByteBuffer.allocate(12);
+			trailer.putInt(0).putLong(totalRows).flip();
+			writeFully(trailer);
+			channel.force(false);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (deflater != null)
+				deflater.end();
+			output.close();
+		}
+
+		// encode the open block's columns and write it
+		private void writeBlock() throws IOException {
+			raw.reset();
+			raw.putVarint(newDirectors.size());
+			for (String director : newDirectors)
+				raw.putString(director);
+			for (int i = 0; i < rows; ++i) {
+				raw.putVarLong(zigzag(ids[i] - lastId));
+				lastId = ids[i];
+			}
+			for (int i = 0; i < rows; ++i)
+				raw.putString(titles[i]);
+			for (int i = 0; i < rows; ++i)
+				raw.putVarint(years[i]);
+			for (int i = 0; i < rows; ++i)
+				raw.putVarint(directors[i]);
+			for (int i = 0; i < rows; ++i)
+				raw.putVarint(runtimes[i]);
+
+			byte[] stored = raw.bytes;
+			int storedLength = raw.length;
+			if (deflate) {
+				deflater.reset();
+				deflater.setInput(raw.bytes, 0, raw.length);
+				deflater.finish();
+				if (deflated.length < raw.length + 64)
+					deflated = new byte[raw.length + raw.length / 8 + 64];
+				storedLength = 0;
+				while (!deflater.finished()) {
+					if (storedLength == deflated.length) {
+						byte[] larger = new byte[deflated.length * 2];
+						System.arraycopy(deflated, 0, larger, 0, storedLength);
+						deflated = larger;
+					}
+					storedLength += deflater.deflate(deflated, storedLength,
+							deflated.length - storedLength);
+				}
+				stored = deflated;
+			}
+
+			CRC32 crc = new CRC32();
+			crc.update(stored, 0, storedLength);
+
+			ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+			header.putInt(rows).putInt(storedLength).putInt(raw.length)
+					.putInt((int) crc.getValue()).flip();
+			writeFully(header);
+			writeFully(ByteBuffer.wrap(stored, 0, storedLength));
+
+			totalRows += rows;
+			rows = 0;
+			newDirectors.clear();
+			for (int i = 0; i < BLOCK_ROWS; ++i)
+				titles[i] = null; // let the strings go
+		}
+
+		private void writeFully(ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+	} // end class Writer
+
+	// reads a snapshot through a read-only memory map of the whole file
+	public static class Reader implements Closeable {
+		private final RandomAccessFile file;
+		private final MappedByteBuffer map;
+		private final boolean deflate;
+		private final Inflater inflater;
+
+		private final List<String> dictionary = new ArrayList<String>();
+		private byte[] stored = new byte[0];
+		private byte[] raw = new byte[0];
+		private long lastId;
+		private long rows; // read so far
+		private boolean finished;
+		private int blockRawLength; // of the last block header read
+
+		// constructor; map file and check its header
+		public Reader(File file) throws IOException {
+			this.file = new RandomAccessFile(file, "r");
+			try {
+				long size = this.file.length();
+				if (size < HEADER_BYTES || size > Integer.MAX_VALUE)
+					throw new IOException("Not a movie snapshot");
+				map = this.file.getChannel().map(
+						FileChannel.MapMode.READ_ONLY, 0, size);
+
+				if (map.getInt() != MAGIC)
+					throw new IOException("Not a movie snapshot");
+				int version = map.getInt();
+				if (version != VERSION)
+					throw new IOException("Unsupported snapshot version "
+							+ version);
+				deflate = (map.getInt() & FLAG_DEFLATE) != 0;
+				inflater = deflate ? new Inflater() : null;
+			} catch (IOException e) {
+				this.file.close();
+				throw e;
+			}
+		}
+
+		// check every block's checksum and the trailer without decoding,
+		// so a damaged file is rejected before anything is replaced;
+		// return the rows in the snapshot
+		public long verify() throws IOException {
+			ByteBuffer blocks = map.duplicate();
+			blocks.position(HEADER_BYTES);
+			long total = 0;
+			CRC32 crc = new CRC32();
+
+			while (true) {
+				int blockRows = getInt(blocks);
+				if (blockRows == 0)
+					break;
+
+				int storedLength = readBlockHeader(blocks, blockRows);
+				int expected = blocks.getInt();
+				blocks.get(stored(storedLength), 0, storedLength);
+				crc.reset();
+				crc.update(stored, 0, storedLength);
+				if ((int) crc.getValue() != expected)
+					throw new IOException("Snapshot is damaged");
+				total += blockRows;
+			}
+
+			if (blocks.remaining() < 8 || blocks.getLong() != total)
+				throw new IOException("Snapshot is incomplete");
+			return total;
+		}
+
+		// return the next block's movies, or null after the last one
+		public List<Movie> next() throws IOException {
+			if (finished)
+				return null;
+
+			int blockRows = getInt(map);
+			if (blockRows == 0) {
+				if (map.remaining() < 8 || map.getLong() != rows)
+					throw new IOException("Snapshot is incomplete");
+				finished = true;
+				return null;
+			}
+
+			int storedLength = readBlockHeader(map, blockRows);
+			int rawLength = blockRawLength;
+			int expected = map.getInt();
+			map.get(stored(storedLength), 0, storedLength);
+
+			CRC32 crc = new CRC32();
+			crc.update(stored, 0, storedLength);
+			if ((int) crc.getValue() != expected)
+				throw new IOException("Snapshot is damaged");
+
+			Decoder decoder = new Decoder(inflate(storedLength, rawLength),
+					rawLength);
+			List<Movie> movies = decodeBlock(decoder, blockRows);
+			rows += blockRows;
+			return movies;
+		}
+
+		// bytes of the file read so far, and its size, for progress
+		public long getPosition() {
+			return map.position();
+		}
+
+		public long getSize() {
+			return map.capacity();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (inflater != null)
+				inflater.end();
+			file.close();
+		}
+
+		// decode one block's columns back into rows
+		private List<Movie> decodeBlock(Decoder decoder, int blockRows)
+				throws IOException {
+			int newDirectors = decoder.getVarint();
+			for (int i = 0; i < newDirectors; ++i)
+				dictionary.add(decoder.getString());
+
+			long[] ids = new long[blockRows];
+			String[] titles = new String[blockRows];
+			int[] years = new int[blockRows];
+			for (int i = 0; i < blockRows; ++i) {
+				lastId += unzigzag(decoder.getVarLong());
+				ids[i] = lastId;
+			}
+			for (int i = 0; i < blockRows; ++i)
+				titles[i] = decoder.getString();
+			for (int i = 0; i < blockRows; ++i)
+				years[i] = decoder.getVarint();
+
+			String[] directors = new String[blockRows];
+			for (int i = 0; i < blockRows; ++i) {
+				int number = decoder.getVarint();
+				if (number > dictionary.size())
+					throw new IOException("Snapshot is damaged");
+				directors[i] = number == 0 ? null : dictionary.get(number - 1);
+			}
+
+			List<Movie> movies = new ArrayList<Movie>(blockRows);
+			for (int i = 0; i < blockRows; ++i)
+				movies.add(new Movie(ids[i], titles[i], years[i],
+						directors[i], decoder.getVarint()));
+			if (decoder.position != decoder.length)
+				throw new IOException("Snapshot is damaged");
+			return movies;
+		}
+
+		// read a block header up to its checksum; return the stored length
+		// and keep the raw length in blockRawLength
+		private int readBlockHeader(ByteBuffer buffer, int blockRows)
+				throws IOException {
+			if (blockRows < 0 || buffer.remaining() < BLOCK_HEADER_BYTES - 4)
+				throw new IOException("Snapshot is incomplete");
+			int storedLength = buffer.getInt();
+			int rawLength = buffer.getInt();
+			if (storedLength < 0 || rawLength < 0
+					|| rawLength > MAX_BLOCK_BYTES
+					|| storedLength > buffer.remaining() - 4)
+				throw new IOException("Snapshot is incomplete");
+			blockRawLength = rawLength;
+			return storedLength;
+		}
+
+		// the stored bytes as raw bytes, inflating them if need be
+		private byte[] inflate(int storedLength, int rawLength)
+				throws IOException {
+			if (!deflate)
+				return stored;
+
+			if (raw.length < rawLength)
+				raw = new byte[rawLength];
+			inflater.reset();
+			inflater.setInput(stored, 0, storedLength);
+			try {
+				int length = 0;
+				while (length < rawLength && !inflater.finished()) {
+					int inflated = inflater.inflate(raw, length, rawLength
+							- length);
+					if (inflated == 0 && inflater.needsInput())
+						break;
+					length += inflated;
+				}
+				if (length != rawLength)
+					throw new IOException("Snapshot is damaged");
+			} catch (DataFormatException e) {
+				throw new IOException("Snapshot is damaged");
+			}
+			return raw;
+		}
+
+		// a buffer for a block's stored bytes, grown as needed
+		private byte[] stored(int length) {
+			if (stored.length < length)
+				stored = new byte[length];
+			return stored;
+		}
+
+		private static int getInt(ByteBuffer buffer) throws IOException {
+			if (buffer.remaining() < 4)
+				throw new IOException("Snapshot is incomplete");
+			return buffer.getInt();
+		}
+	} // end class Reader
+
+	// appends varints and strings to a growing byte array
+	private static class Encoder {
+		byte[] bytes;
+		int length;
+
+		Encoder(int capacity) {
+			bytes = new byte[capacity];
+		}
+
+		void reset() {
+			length = 0;
+		}
+
+		void putVarint(int value) {
+			putVarLong(value & 0xffffffffL);
+		}
+
+		// seven bits per byte, low bits first, high bit set on all but
+		// the last byte
+		void putVarLong(long value) {
+			ensure(10);
+			while ((value & ~0x7fL) != 0) {
+				bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			bytes[length++] = (byte) value;
+		}
+
+		void putString(String value) {
+			if (value == null) {
+				putVarint(0);
+				return;
+			}
+			byte[] utf8 = value.getBytes(UTF_8);
+			putVarint(utf8.length + 1);
+			ensure(utf8.length);
+			System.arraycopy(utf8, 0, bytes, length, utf8.length);
+			length += utf8.length;
+		}
+
+		private void ensure(int more) {
+			if (length + more > bytes.length) {
+				byte[] larger = new byte[Math.max(bytes.length * 2, length
+						+ more)];
+				System.arraycopy(bytes, 0, larger, 0, length);
+				bytes = larger;
+			}
+		}
+	} // end class Encoder
+
+	// reads what Encoder wrote, failing on bytes past the end
+	private static class Decoder {
+		final byte[] bytes;
+		final int length;
+		int position;
+
+		Decoder(byte[] bytes, int length) {
+			this.bytes = bytes;
+			this.length = length;
+		}
+
+		int getVarint() throws IOException {
+			long value = getVarLong();
+			if ((value >>> 32) != 0)
+				throw new IOException("Snapshot is damaged");
+			return (int) value;
+		}
+
+		long getVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				if (position == length)
+					throw new IOException("Snapshot is damaged");
+				byte b = bytes[position++];
+				value |= (long) (b & 0x7f) << shift;
+				if (b >= 0)
+					return value;
+			}
+			throw new IOException("Snapshot is damaged");
+		}
+
+		String getString() throws IOException {
+			int size = getVarint();
+			if (size == 0)
+				return null;
+			if (--size > length - position)
+				throw new IOException("Snapshot is damaged");
+			String value = new String(bytes, position, size, UTF_8);
+			position += size;
+			return value;
+		}
+	} // end class Decoder
+
+	// map signed deltas to small unsigned numbers: 0, -1, 1, -2, ...
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+} // end class MovieSnapshot
@@ -0,0 +1,417 @@
+// PagedMovieAdapter.java
+// Supplies the movie list one page at a time using keyset pagination, with
+// a section index for fast scrolling; refreshed pages are diffed against
+// the ones they replace so only the rows that changed are redrawn. The
+// list holds every movie, or only those with one collection or tag
+package com.example.moviecollection;
+
+import java.util.Arrays;
+import java.util.List;
+
+import android.app.Fragment;
+import android.content.Context;
+import android.database.Cursor;
+import android.util.SparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.SectionIndexer;
+
+public class PagedMovieAdapter extends RowAdapter implements SectionIndexer {
+	public static final long ALL_MOVIES = 0; // no label's row ID
+
+	private static final int PAGE_SIZE = 100; // rows fetched per query
+	private static final int PREFETCH_DISTANCE = 30; // rows before page end
+	private static final int KEEP_PAGES = 3; // pages kept on each side
+
+	private final Fragment owner; // fragment displaying the list
+	private final Context context; // for saving the first rows
+	private final DatabaseConnector databaseConnector;
+	private final TaskScheduler taskScheduler = TaskScheduler.getInstance();
+
+	private long labelId = ALL_MOVIES; // label whose movies are listed
+	private int count; // number of movies in the list
+	private Sections sections = new Sections(); // first letters and offsets
+	private int generation; // bumped by reload to ignore stale pages
+	private final SparseArray<Page> pages = new SparseArray<Page>();
+	private final SparseArray<TaskScheduler.Handle> loading = new SparseArray<TaskScheduler.Handle>();
+	private TaskScheduler.Handle countHandle; // count query in flight
+	private boolean showingSnapshot; // the first page holds saved rows
+
+	// last (title, _id) of each page seen so far; kept after the page
+	// itself is dropped so the following page can be fetched by key
+	private final SparseArray<Key> pageEndKeys = new SparseArray<Key>();
+
+	// constructor
+	public PagedMovieAdapter(Fragment owner, PosterLoader posterLoader) {
+		super(LayoutInflater.from(owner.getActivity()), posterLoader);
+		this.owner = owner;
+		this.context = owner.getActivity().getApplicationContext();
+		this.databaseConnector = new DatabaseConnector(owner.getActivity());
+	}
+
+	// show the rows saved by an earlier run until the real first page
+	// replaces them; the list has the saved count until the count arrives
+	public void showSnapshot(StartupSnapshot snapshot) {
+		pages.put(0, new Page(snapshot.getRows()));
+		count = Math.max(snapshot.getCount(), snapshot.getRows().size());
+		showingSnapshot = true;
+		notifyDataSetChanged();
+	}
+
+	// list only the movies with label labelId, or every movie for
+	// ALL_MOVIES; reload shows them
+	public void setLabel(long labelId) {
+		this.labelId = labelId;
+		showingSnapshot = false; // saved rows are the full list's
+	}
+
+	public long getLabel() {
+		return labelId;
+	}
+
+	// discard every page and start again from the first one; saved rows
+	// stay on screen and are diffed against the real ones instead
+	public void reload() {
+		if (showingSnapshot) {
+			refresh();
+			return;
+		}
+
+		cancel();
+		++generation;
+		pages.clear();
+		pageEndKeys.clear();
+
+		countHandle = taskScheduler.submit(owner, "movieCount",
+				TaskScheduler.PRIORITY_UI_READ, new CountTask(generation));
+	}
+
+	// re-query the count and the pages in memory, keeping the rows on
+	// screen until their replacements arrive; pages are fetched by offset
+	// because rows may have moved since their keys were recorded, and each
+	// is diffed against the page it replaces
+	public void refresh() {
+		cancel();
+		++generation;
+		pageEndKeys.clear();
+
+		countHandle = taskScheduler.submit(owner, "movieCount",
+				TaskScheduler.PRIORITY_UI_READ, new CountTask(generation));
+		for (int i = 0; i < pages.size(); ++i) {
+			int pageIndex = pages.keyAt(i);
+			loading.put(pageIndex, taskScheduler.submit(owner, "moviePage:"
+					+ generation + ":" + pageIndex,
+					TaskScheduler.PRIORITY_UI_READ, new PageLoadTask(
+							generation, pageIndex, null, pages.valueAt(i))));
+		}
+	}
+
+	// stop waiting for the count and any pages still loading; return
+	// true if anything was still on its way
+	public boolean cancel() {
+		boolean pending = countHandle != null || loading.size() != 0;
+
+		if (countHandle != null) {
+			countHandle.cancel();
+			countHandle = null;
+		}
+
+		for (int i = 0; i < loading.size(); ++i)
+			loading.valueAt(i).cancel();
+		loading.clear();
+		return pending;
+	}
+
+	@Override
+	public int getCount() {
+		return count;
+	}
+
+	// return the row, or null while its page is loading
+	@Override
+	public MovieRow getRow(int position) {
+		Page page = getLoadedPage(position);
+		return page == null ? null : page.rows.get(position % PAGE_SIZE);
+	}
+
+	// return the loaded page holding position, or null; a page can come
+	// back short if movies were deleted after they were counted
+	private Page getLoadedPage(int position) {
+		Page page = pages.get(position / PAGE_SIZE);
+		if (page == null || position % PAGE_SIZE >= page.rows.size())
+			return null;
+		return page;
+	}
+
+	// section labels for the fast-scroll thumb
+	@Override
+	public Object[] getSections() {
+		return sections.labels;
+	}
+
+	// position of the first movie in section
+	@Override
+	public int getPositionForSection(int section) {
+		if (sections.offsets.length == 0)
+			return 0;
+
+		section = Math.max(0, Math.min(section, sections.offsets.length - 1));
+		return sections.offsets[section];
+	}
+
+	// section holding position
+	@Override
+	public int getSectionForPosition(int position) {
+		return Math.max(0, sections.indexOf(position));
+	}
+
+	// a row whose page is still loading shows as a placeholder
+	@Override
+	public View getView(int position, View convertView, ViewGroup parent) {
+		View view = super.getView(position, convertView, parent);
+
+		int pageIndex = position / PAGE_SIZE;
+		if (getLoadedPage(position) == null)
+			loadPage(pageIndex);
+
+		// fetch the next page before the user scrolls into it
+		if (position % PAGE_SIZE >= PAGE_SIZE - PREFETCH_DISTANCE
+				&& (pageIndex + 1) * PAGE_SIZE < count)
+			loadPage(pageIndex + 1);
+
+		dropDistantPages(pageIndex);
+		return view;
+	}
+
+	// start loading a page unless it is loaded or already on its way
+	private void loadPage(int pageIndex) {
+		if (pages.get(pageIndex) != null || loading.get(pageIndex) != null)
+			return;
+
+		loading.put(pageIndex, taskScheduler.submit(owner, "moviePage:"
+				+ generation + ":" + pageIndex, TaskScheduler.PRIORITY_UI_READ,
+				new PageLoadTask(generation, pageIndex, pageEndKeys
+						.get(pageIndex - 1), null)));
+	}
+
+	// free pages far from the one being displayed
+	private void dropDistantPages(int pageIndex) {
+		for (int i = pages.size() - 1; i >= 0; --i)
+			if (Math.abs(pages.keyAt(i) - pageIndex) > KEEP_PAGES)
+				pages.removeAt(i);
+	}
+
+	// counts the movies from their title sections, then shows the first
+	// page; the sections and the count come from one consistent read
+	private class CountTask extends TaskScheduler.Task<Sections> {
+		private final int taskGeneration;
+		private final long taskLabelId = labelId;
+
+		public CountTask(int taskGeneration) {
+			this.taskGeneration = taskGeneration;
+		}
+
+		@Override
+		protected Sections doInBackground() {
+			Cursor cursor = taskLabelId == ALL_MOVIES ? databaseConnector
+					.getTitleSections() : databaseConnector
+					.getLabelSections(taskLabelId);
+			try {
+				return new Sections(cursor);
+			} finally {
+				cursor.close();
+			}
+		}
+
+		@Override
+		protected void onResult(Sections result) {
+			if (taskGeneration != generation)
+				return; // a newer reload is under way
+
+			countHandle = null;
+			boolean same = result.total == count && result.sameAs(sections);
+			sections = result;
+			count = result.total;
+			if (!same) // else the pages report their own changes
+				notifyDataSetChanged();
+			saveFirstPage();
+		}
+	} // end class CountTask
+
+	// loads one page outside GUI thread
+	private class PageLoadTask extends TaskScheduler.Task<Page> {
+		private final int taskGeneration;
+		private final int pageIndex;
+		private final Key after; // end of the previous page, if known
+		private final Page replacing; // page being refreshed, if any
+		private final long taskLabelId = labelId;
+		private final Sections taskSections = sections;
+
+		public PageLoadTask(int taskGeneration, int pageIndex, Key after,
+				Page replacing) {
+			this.taskGeneration = taskGeneration;
+			this.pageIndex = pageIndex;
+			this.after = after;
+			this.replacing = replacing;
+		}
+
+		// seek by key when the previous page's end is known, else by the
+		// page's position within its title section
+		@Override
+		protected Page doInBackground() {
+			Cursor cursor;
+			if (after != null)
+				cursor = taskLabelId == ALL_MOVIES ? databaseConnector
+						.getMoviesAfter(after.title, after.id, PAGE_SIZE)
+						: databaseConnector.getLabelMoviesAfter(taskLabelId,
+								after.title, after.id, PAGE_SIZE);
+			else
+				cursor = loadAt(pageIndex * PAGE_SIZE);
+
+			try {
+				return new Page(cursor, replacing);
+			} finally {
+				cursor.close();
+			}
+		}
+
+		// a fast-scroll jump seeks to the first title of the section
+		// holding position and skips only that section's earlier rows;
+		// "#" starts the list, and so does everything before the count
+		private Cursor loadAt(int position) {
+			int section = taskSections.indexOf(position);
+			String start = section < 0 ? null : MovieContract
+					.sectionStart(taskSections.keys[section]);
+			if (start == null)
+				return taskLabelId == ALL_MOVIES ? databaseConnector
+						.getMoviesAt(position, PAGE_SIZE) : databaseConnector
+						.getLabelMoviesAt(taskLabelId, position, PAGE_SIZE);
+
+			int offset = position - taskSections.offsets[section];
+			return taskLabelId == ALL_MOVIES ? databaseConnector
+					.getMoviesFrom(start, offset, PAGE_SIZE) : databaseConnector
+					.getLabelMoviesFrom(taskLabelId, start, offset, PAGE_SIZE);
+		}
+
+		// redraw only what changed if the page replaced is still shown
+		@Override
+		protected void onResult(Page result) {
+			if (taskGeneration != generation)
+				return; // a newer reload is under way
+
+			loading.remove(pageIndex);
+			Page replaced = pages.get(pageIndex);
+			pages.put(pageIndex, result);
+			if (!result.rows.isEmpty()) {
+				MovieRow last = result.rows.get(result.rows.size() - 1);
+				pageEndKeys.put(pageIndex, new Key(last.getTitle(), last
+						.getId()));
+			}
+
+			if (replaced != null && replaced == replacing)
+				applyDiff(result.diff, pageIndex * PAGE_SIZE);
+			else
+				notifyDataSetChanged();
+
+			if (pageIndex == 0) {
+				showingSnapshot = false;
+				saveFirstPage();
+			}
+		}
+	} // end class PageLoadTask
+
+	// once the count and the first page are both current, save the first
+	// rows of the full list for the next cold start to draw
+	private void saveFirstPage() {
+		final Page first = pages.get(0);
+		if (first == null || showingSnapshot || countHandle != null
+				|| loading.get(0) != null || labelId != ALL_MOVIES)
+			return;
+
+		StartupTrace.finish("fullList");
+		final int total = count;
+		taskScheduler.submit(owner, "startupSnapshot",
+				TaskScheduler.PRIORITY_MAINTENANCE,
+				new TaskScheduler.Task<Object>() {
+					@Override
+					protected Object doInBackground() {
+						StartupSnapshot.save(context, first.rows, total);
+						return null;
+					}
+				});
+	}
+
+	// one page of rows, copied out of its Cursor
+	private static class Page {
+		final List<MovieRow> rows;
+		final RowDiff diff; // from the page this one replaced, if any
+
+		Page(List<MovieRow> rows) {
+			this.rows = rows;
+			this.diff = null;
+		}
+
+		Page(Cursor cursor, Page replacing) {
+			MovieRow[] array = new MovieRow[cursor.getCount()];
+			for (int i = 0; cursor.moveToNext(); ++i)
+				array[i] = new MovieRow(cursor.getLong(0), cursor.getString(1));
+			rows = Arrays.asList(array);
+			diff = replacing == null ? null : RowDiff.compute(replacing.rows,
+					rows);
+		}
+	} // end class Page
+
+	// each title section's key and label and the position of its first
+	// movie
+	private static class Sections {
+		final String[] keys; // as in title_sections
+		final String[] labels;
+		final int[] offsets;
+		final int total; // movies in all sections
+
+		Sections() {
+			keys = new String[0];
+			labels = new String[0];
+			offsets = new int[0];
+			total = 0;
+		}
+
+		Sections(Cursor cursor) {
+			keys = new String[cursor.getCount()];
+			labels = new String[keys.length];
+			offsets = new int[keys.length];
+			int position = 0;
+			for (int i = 0; cursor.moveToNext(); ++i) {
+				keys[i] = cursor.getString(0);
+				labels[i] = "~".equals(keys[i]) ? "\u2026" : keys[i];
+				offsets[i] = position;
+				position += cursor.getInt(1);
+			}
+			total = position;
+		}
+
+		// index of the section holding position, or -1 if there are none
+		int indexOf(int position) {
+			int section = Arrays.binarySearch(offsets, position);
+			return section >= 0 ? section : -section - 2;
+		}
+
+		// true if other has the same labels at the same offsets
+		boolean sameAs(Sections other) {
+			return Arrays.equals(labels, other.labels)
+					&& Arrays.equals(offsets, other.offsets);
+		}
+	} // end class Sections
+
+	// position of a row in (title, _id) order
+	private static class Key {
+		final String title;
+		final long id;
+
+		Key(String title, long id) {
+			this.title = title;
+			this.id = id;
+		}
+	} // end class Key
+} // end class PagedMovieAdapter
@@ -0,0 +1,165 @@
+// PosterLoader.java
+// Shows posters in a fragment's ImageViews: from memory when possible,
+// else decoded in the background, with decodes for views that were
+// rebound or scrolled away cancelled before they start
+package com.example.moviecollection;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import android.app.Fragment;
+import android.graphics.Bitmap;
+import android.view.View;
+import android.widget.ImageView;
+
+public class PosterLoader {
+	private static BitmapCache memoryCache; // shared by every loader
+
+	private final Fragment owner;
+	private final PosterStore posterStore;
+	private final TaskScheduler taskScheduler = TaskScheduler.getInstance();
+
+	// main thread: each view's decode in flight and the bitmap it shows
+	private final Map<ImageView, Request> requests = new WeakHashMap<ImageView, Request>();
+	private final Map<ImageView, Bitmap> shown = new WeakHashMap<ImageView, Bitmap>();
+
+	// constructor
+	public PosterLoader(Fragment owner) {
+		this.owner = owner;
+		this.posterStore = PosterStore.getInstance(owner.getActivity());
+	}
+
+	// return the process-wide memory cache, an eighth of the heap
+	public static synchronized BitmapCache getMemoryCache() {
+		if (memoryCache == null)
+			memoryCache = new BitmapCache((int) Math.min(Integer.MAX_VALUE,
+					Runtime.getRuntime().maxMemory() / 8));
+		return memoryCache;
+	}
+
+	// show movie id's poster in view as a size x size thumbnail
+	public void loadThumbnail(ImageView view, long id, int size) {
+		load(view, new Request(id, size, size, true));
+	}
+
+	// show movie id's poster in view downsampled to about maxWidth x
+	// maxHeight, hiding view if there is none
+	public void loadPoster(ImageView view, long id, int maxWidth, int maxHeight) {
+		load(view, new Request(id, maxWidth, maxHeight, false));
+	}
+
+	// stop loading into view, e.g. when its row scrolls out of sight
+	public void cancel(ImageView view) {
+		Request request = requests.remove(view);
+		if (request != null && request.handle != null)
+			request.handle.cancel();
+	}
+
+	// stop loading into view and leave it empty
+	public void clear(ImageView view) {
+		cancel(view);
+		Bitmap previous = shown.remove(view);
+		if (previous != null)
+			getMemoryCache().detach(previous);
+		view.setImageBitmap(null);
+	}
+
+	// forget movie id's decoded posters after it gets a new one
+	public void invalidate(long id) {
+		getMemoryCache().removeAll(id + ":");
+	}
+
+	private void load(ImageView view, Request request) {
+		Request current = requests.get(view);
+		if (current != null && current.key.equals(request.key)
+				&& !current.handle.isCancelled())
+			return; // already on its way
+		cancel(view);
+
+		BitmapCache cache = getMemoryCache();
+		Bitmap bitmap = cache.get(request.key);
+		if (bitmap != null || !posterStore.mayHavePoster(request.id)) {
+			show(view, bitmap, request);
+			return;
+		}
+
+		show(view, null, request); // blank while decoding
+		request.handle = taskScheduler.submit(owner, "poster:" + request.key,
+				TaskScheduler.PRIORITY_IMAGE, new DecodeTask(view, request));
+		requests.put(view, request);
+	}
+
+	// put bitmap in view, keeping count of the views showing each bitmap
+	// so none is reused while on screen
+	private void show(ImageView view, Bitmap bitmap, Request request) {
+		BitmapCache cache = getMemoryCache();
+		Bitmap previous = bitmap == null ? shown.remove(view) : shown.put(
+				view, bitmap);
+		if (bitmap != null)
+			cache.attach(bitmap);
+		if (previous != null)
+			cache.detach(previous);
+
+		view.setImageBitmap(bitmap);
+		if (!request.thumbnail)
+			view.setVisibility(bitmap == null ? View.GONE : View.VISIBLE);
+	}
+
+	// one poster wanted at one size
+	private static class Request {
+		final long id;
+		final int width;
+		final int height;
+		final boolean thumbnail; // cropped square, from the disk cache
+		final String key; // memory cache key, "<id>:<kind><width>x<height>"
+		TaskScheduler.Handle handle;
+
+		Request(long id, int width, int height, boolean thumbnail) {
+			this.id = id;
+			this.width = width;
+			this.height = height;
+			this.thumbnail = thumbnail;
+			this.key = id + ":" + (thumbnail ? "t" : "p") + width + "x"
+					+ height;
+		}
+	} // end class Request
+
+	// decodes one poster outside GUI thread
+	private class DecodeTask extends TaskScheduler.Task<Bitmap> {
+		private final ImageView view;
+		private final Request request;
+
+		public DecodeTask(ImageView view, Request request) {
+			this.view = view;
+			this.request = request;
+		}
+
+		@Override
+		protected Bitmap doInBackground() {
+			if (request.thumbnail)
+				return posterStore.decodeThumbnail(request.id, request.width,
+						getMemoryCache());
+			return posterStore.decodePoster(request.id, request.width,
+					request.height);
+		}
+
+		// cache the bitmap and show it if view still wants it
+		@Override
+		protected void onResult(Bitmap bitmap) {
+			if (bitmap != null)
+				getMemoryCache().put(request.key, bitmap);
+
+			if (requests.get(view) == request) {
+				requests.remove(view);
+				show(view, bitmap, request);
+			}
+		}
+
+		// nobody is showing it, but it is still worth keeping
+		@Override
+		protected void onDiscarded(Bitmap bitmap) {
+			if (bitmap != null)
+				getMemoryCache().put(request.key, bitmap);
+		}
+	} // end class DecodeTask
+} // end class PosterLoader
@@ -0,0 +1,246 @@
+// PosterStore.java
+// Keeps each movie's cover image in app storage, with a disk cache of
+// thumbnails pre-scaled to list size, and decodes both downsampled
+package com.example.moviecollection;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.net.Uri;
+
+public class PosterStore {
+	// posters are opaque, so half the memory of ARGB_8888
+	static final Bitmap.Config CONFIG = Bitmap.Config.RGB_565;
+	private static final int THUMBNAIL_QUALITY = 90; // JPEG quality
+
+	private static PosterStore instance;
+
+	private final Context context;
+	private final File posterDirectory; // originals, named by row ID
+	private final File thumbnailDirectory; // <id>-<size>.jpg, disposable
+	private final Profiler profiler = Profiler.getInstance();
+
+	// row IDs with a poster; null until a background thread lists them
+	private Set<Long> posterIds;
+
+	// return the process-wide store
+	public static synchronized PosterStore getInstance(Context context) {
+		if (instance == null)
+			instance = new PosterStore(context.getApplicationContext());
+		return instance;
+	}
+
+	// constructor
+	private PosterStore(Context context) {
+		this.context = context;
+		posterDirectory = new File(context.getFilesDir(), "posters");
+		thumbnailDirectory = new File(context.getCacheDir(), "thumbnails");
+	}
+
+	// false only if movie id is known to have no poster; cheap enough for
+	// the main thread, and true until the posters have been listed
+	public synchronized boolean mayHavePoster(long id) {
+		return posterIds == null || posterIds.contains(id);
+	}
+
+	// list the posters once; call off the main thread
+	private synchronized Set<Long> getPosterIds() {
+		if (posterIds == null) {
+			posterIds = new HashSet<Long>();
+			String[] names = posterDirectory.list();
+			if (names != null)
+				for (String name : names)
+					if (name.endsWith(".img"))
+						posterIds.add(Long.parseLong(name.substring(0,
+								name.length() - 4)));
+		}
+		return posterIds;
+	}
+
+	// copy the image at source as movie id's poster, replacing any other;
+	// call off the main thread
+	public void setPoster(long id, Uri source) throws IOException {
+		posterDirectory.mkdirs();
+		File file = getPosterFile(id);
+		File partial = new File(file.getPath() + ".tmp");
+
+		InputStream input = context.getContentResolver().openInputStream(
+				source);
+		if (input == null)
+			throw new IOException("cannot open " + source);
+		try {
+			OutputStream output = new FileOutputStream(partial);
+			try {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = input.read(buffer)) != -1)
+					output.write(buffer, 0, read);
+			} finally {
+				output.close();
+			}
+		} finally {
+			input.close();
+		}
+
+		if (!partial.renameTo(file))
+			throw new IOException("cannot save " + file);
+		deleteThumbnails(id);
+		setHasPoster(id, true);
+	}
+
+	// delete movie id's poster and thumbnails; call off the main thread
+	public void removePoster(long id) {
+		getPosterFile(id).delete();
+		deleteThumbnails(id);
+		setHasPoster(id, false);
+	}
+
+	// true if movie id has a poster; call off the main thread
+	private synchronized boolean hasPoster(long id) {
+		return getPosterIds().contains(id);
+	}
+
+	private synchronized void setHasPoster(long id, boolean hasPoster) {
+		if (hasPoster)
+			getPosterIds().add(id);
+		else
+			getPosterIds().remove(id);
+	}
+
+	// row IDs of every poster; call off the main thread
+	public synchronized long[] getAllPosterIds() {
+		long[] ids = new long[getPosterIds().size()];
+		int i = 0;
+		for (long id : posterIds)
+			ids[i++] = id;
+		return ids;
+	}
+
+	// return movie id's poster as a size x size thumbnail cropped to fill
+	// it, from the disk cache if possible, decoding into a reusable bitmap
+	// from memoryCache; null if there is no poster. Call off the main
+	// thread
+	public Bitmap decodeThumbnail(long id, int size, BitmapCache memoryCache) {
+		if (!hasPoster(id))
+			return null;
+
+		long start = System.nanoTime();
+		File thumbnail = new File(thumbnailDirectory, id + "-" + size + ".jpg");
+		if (thumbnail.exists()) {
+			BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inPreferredConfig = CONFIG;
+			options.inMutable = true; // so it can be reused in turn
+			options.inBitmap = memoryCache.takeReusable(size, size, CONFIG);
+
+			Bitmap bitmap;
+			try {
+				bitmap = BitmapFactory.decodeFile(thumbnail.getPath(), options);
+			} catch (IllegalArgumentException e) {
+				options.inBitmap = null; // did not fit after all
+				bitmap = BitmapFactory.decodeFile(thumbnail.getPath(), options);
+			}
+			if (bitmap != null) {
+				profiler.record("poster.thumbnail.disk", start, -1);
+				return bitmap;
+			}
+		}
+
+		// scale the poster down and crop its middle to a square
+		Bitmap poster = decodeSampled(getPosterFile(id), size, size);
+		if (poster == null)
+			return null;
+
+		float scale = Math.max((float) size / poster.getWidth(), (float) size
+				/ poster.getHeight());
+		int cropWidth = Math.round(size / scale);
+		int cropHeight = Math.round(size / scale);
+		int left = (poster.getWidth() - cropWidth) / 2;
+		int top = (poster.getHeight() - cropHeight) / 2;
+
+		Bitmap bitmap = Bitmap.createBitmap(size, size, CONFIG);
+		new Canvas(bitmap).drawBitmap(poster, new Rect(left, top, left
+				+ cropWidth, top + cropHeight), new Rect(0, 0, size, size),
+				new Paint(Paint.FILTER_BITMAP_FLAG));
+		poster.recycle();
+
+		saveThumbnail(bitmap, thumbnail);
+		profiler.record("poster.thumbnail.scale", start, -1);
+		return bitmap;
+	}
+
+	// return movie id's poster downsampled to no less than maxWidth x
+	// maxHeight, or null if there is none; call off the main thread
+	public Bitmap decodePoster(long id, int maxWidth, int maxHeight) {
+		if (!hasPoster(id))
+			return null;
+
+		long start = System.nanoTime();
+		Bitmap bitmap = decodeSampled(getPosterFile(id), maxWidth, maxHeight);
+		profiler.record("poster.decode", start, -1);
+		return bitmap;
+	}
+
+	// decode file at the largest power-of-two reduction that still covers
+	// width x height, so the full image is never in memory
+	private static Bitmap decodeSampled(File file, int width, int height) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(file.getPath(), options);
+		if (options.outWidth <= 0 || options.outHeight <= 0)
+			return null; // missing or not an image
+
+		int sampleSize = 1;
+		while (options.outWidth / (sampleSize * 2) >= width
+				&& options.outHeight / (sampleSize * 2) >= height)
+			sampleSize *= 2;
+
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = sampleSize;
+		options.inPreferredConfig = CONFIG;
+		return BitmapFactory.decodeFile(file.getPath(), options);
+	}
+
+	// write a thumbnail to the disk cache; a failure only costs a rescale
+	private void saveThumbnail(Bitmap bitmap, File file) {
+		thumbnailDirectory.mkdirs();
+		File partial = new File(file.getPath() + ".tmp");
+		try {
+			OutputStream output = new FileOutputStream(partial);
+			try {
+				bitmap.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY,
+						output);
+			} finally {
+				output.close();
+			}
+			partial.renameTo(file);
+		} catch (IOException e) {
+			partial.delete();
+		}
+	}
+
+	private void deleteThumbnails(long id) {
+		String[] names = thumbnailDirectory.list();
+		if (names == null)
+			return;
+
+		String prefix = id + "-";
+		for (String name : names)
+			if (name.startsWith(prefix))
+				new File(thumbnailDirectory, name).delete();
+	}
+
+	private File getPosterFile(long id) {
+		return new File(posterDirectory, id + ".img");
+	}
+} // end class PosterStore
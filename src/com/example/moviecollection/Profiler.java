@@ -0,0 +1,216 @@
+// Profiler.java
+// Records latency histograms and row counts for database operations and
+// background tasks, plus query plans of slow queries, for diagnostics
+package com.example.moviecollection;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.Context;
+
+public class Profiler {
+	private static final int BUCKETS = 32; // powers of two of microseconds
+	private static final int MAX_PLANS = 16; // slow query plans kept
+	private static final long DEFAULT_SLOW_QUERY_NANOS = 50 * 1000000L;
+
+	private static Profiler instance;
+
+	// latency histogram and totals for one named operation
+	public static class Histogram {
+		private final long[] buckets = new long[BUCKETS];
+		private long count;
+		private long totalNanos;
+		private long maxNanos;
+		private long rows;
+
+		// add one timed call that returned rows rows, or -1 if not known
+		public synchronized void record(long nanos, int rows) {
+			++count;
+			totalNanos += nanos;
+			maxNanos = Math.max(maxNanos, nanos);
+			if (rows > 0)
+				this.rows += rows;
+
+			long micros = nanos / 1000;
+			int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+			++buckets[Math.min(bucket, BUCKETS - 1)];
+		}
+
+		// return the upper bound in microseconds of the bucket holding the
+		// given fraction of calls, e.g. 0.99
+		public synchronized long getPercentileMicros(double fraction) {
+			long target = (long) Math.ceil(count * fraction);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; ++i) {
+				seen += buckets[i];
+				if (seen >= target && seen != 0)
+					return 1L << i;
+			}
+			return maxNanos / 1000;
+		}
+
+		public synchronized long getCount() {
+			return count;
+		}
+
+		// one line of totals and percentiles
+		@Override
+		public synchronized String toString() {
+			if (count == 0)
+				return "n=0";
+
+			return "n=" + count + " mean=" + totalNanos / count / 1000
+					+ "us p50<=" + getPercentileMicros(0.5) + "us p90<="
+					+ getPercentileMicros(0.9) + "us p99<="
+					+ getPercentileMicros(0.99) + "us max=" + maxNanos / 1000
+					+ "us rows=" + rows;
+		}
+	} // end class Histogram
+
+	private final Map<String, Histogram> histograms = new TreeMap<String, Histogram>();
+	private final AtomicLong connectionOpens = new AtomicLong();
+	private final AtomicLong windowFills = new AtomicLong();
+
+	// EXPLAIN QUERY PLAN output of recent slow queries, oldest first
+	private final List<String> plans = new ArrayList<String>();
+	private volatile boolean capturePlans;
+	private volatile long slowQueryNanos = DEFAULT_SLOW_QUERY_NANOS;
+
+	// return the process-wide profiler
+	public static synchronized Profiler getInstance() {
+		if (instance == null)
+			instance = new Profiler();
+		return instance;
+	}
+
+	// return the histogram for operation, creating it on first use
+	public Histogram get(String operation) {
+		synchronized (histograms) {
+			Histogram histogram = histograms.get(operation);
+			if (histogram == null) {
+				histogram = new Histogram();
+				histograms.put(operation, histogram);
+			}
+			return histogram;
+		}
+	}
+
+	// record one call of operation that started at startNanos
+	public void record(String operation, long startNanos, int rows) {
+		get(operation).record(System.nanoTime() - startNanos, rows);
+	}
+
+	// count a database connection being opened
+	public void connectionOpened() {
+		connectionOpens.incrementAndGet();
+	}
+
+	// count a cursor window being filled
+	public void windowFilled() {
+		windowFills.incrementAndGet();
+	}
+
+	// true if a query that took nanos should have its plan captured
+	public boolean shouldCapturePlan(long nanos) {
+		return capturePlans && nanos >= slowQueryNanos;
+	}
+
+	// keep the plan of a slow query
+	public void recordPlan(String sql, long nanos, String plan) {
+		synchronized (plans) {
+			if (plans.size() == MAX_PLANS)
+				plans.remove(0);
+			plans.add(nanos / 1000000 + "ms " + sql + "\n" + plan);
+		}
+	}
+
+	// turn capture of slow query plans on or off
+	public void setCapturePlans(boolean capturePlans) {
+		this.capturePlans = capturePlans;
+	}
+
+	public boolean isCapturingPlans() {
+		return capturePlans;
+	}
+
+	// queries slower than this many milliseconds have their plans captured
+	public void setSlowQueryMillis(long millis) {
+		slowQueryNanos = millis * 1000000L;
+	}
+
+	// forget everything recorded so far
+	public void reset() {
+		synchronized (histograms) {
+			histograms.clear();
+		}
+		synchronized (plans) {
+			plans.clear();
+		}
+		connectionOpens.set(0);
+		windowFills.set(0);
+	}
+
+	// everything recorded, plus the schedulers' and caches' counters
+	public String dump() {
+		StringBuilder text = new StringBuilder();
+		text.append("connection opens: ").append(connectionOpens.get())
+				.append("\ncursor window fills: ").append(windowFills.get())
+				.append("\ndatabase scheduler: ")
+				.append(DatabaseConnector.getScheduler())
+				.append("\ntask scheduler: ")
+				.append(TaskScheduler.getInstance())
+				.append("\nmovie cache: ")
+				.append(DatabaseConnector.getMovieCache())
+				.append("\nposter cache: ")
+				.append(PosterLoader.getMemoryCache())
+				.append("\ntitle index: ")
+				.append(DatabaseConnector.getLoadedTitleIndex())
+				.append("\nsave journal: ")
+				.append(SaveJournal.getOpenInstance()).append("\n\n");
+
+		synchronized (histograms) {
+			for (Map.Entry<String, Histogram> entry : histograms.entrySet())
+				text.append(entry.getKey()).append(": ")
+						.append(entry.getValue()).append('\n');
+		}
+
+		synchronized (plans) {
+			if (!plans.isEmpty())
+				text.append("\nslow query plans:\n");
+			for (String plan : plans)
+				text.append(plan).append('\n');
+		}
+		return text.toString();
+	}
+
+	// write dump() to a timestamped file in the app's external files
+	// directory, or internal storage if there is none; return the file
+	public File dumpToFile(Context context) throws IOException {
+		File directory = context.getExternalFilesDir(null);
+		if (directory == null)
+			directory = context.getFilesDir();
+
+		String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US)
+				.format(new Date());
+		File file = new File(directory, "profile-" + stamp + ".txt");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8");
+		try {
+			writer.write(dump());
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+} // end class Profiler
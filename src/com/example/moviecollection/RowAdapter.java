@@ -0,0 +1,156 @@
+// RowAdapter.java
+// Base for adapters that show MovieRows through view holders; applies a
+// RowDiff by redrawing only the changed rows on screen when nothing moved,
+// and otherwise keeps the top row in place while the list is rebuilt
+package com.example.moviecollection;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.ImageView;
+import android.widget.ListView;
+import android.widget.TextView;
+
+public abstract class RowAdapter extends BaseAdapter implements
+		AbsListView.RecyclerListener {
+	private final LayoutInflater inflater;
+	private final PosterLoader posterLoader; // thumbnails for the rows
+	private final int thumbnailSize; // in pixels
+	private ListView listView; // showing this adapter, if any
+
+	// a row's views, found once when the row is inflated
+	private static class ViewHolder {
+		final TextView titleTextView;
+		final ImageView posterImageView;
+
+		ViewHolder(View view) {
+			titleTextView = (TextView) view.findViewById(android.R.id.text1);
+			posterImageView = (ImageView) view
+					.findViewById(R.id.posterImageView);
+		}
+	} // end class ViewHolder
+
+	// constructor
+	protected RowAdapter(LayoutInflater inflater, PosterLoader posterLoader) {
+		this.inflater = inflater;
+		this.posterLoader = posterLoader;
+		this.thumbnailSize = inflater.getContext().getResources()
+				.getDimensionPixelSize(R.dimen.thumbnail_size);
+	}
+
+	// the list whose visible rows applyDiff redraws
+	public void attach(ListView listView) {
+		this.listView = listView;
+	}
+
+	// return the row at position, or null while it is loading
+	public abstract MovieRow getRow(int position);
+
+	@Override
+	public Object getItem(int position) {
+		return getRow(position);
+	}
+
+	// return the row's _id, or -1 while it is loading
+	@Override
+	public long getItemId(int position) {
+		MovieRow row = getRow(position);
+		return row == null ? -1 : row.getId();
+	}
+
+	@Override
+	public boolean hasStableIds() {
+		return true;
+	}
+
+	@Override
+	public View getView(int position, View convertView, ViewGroup parent) {
+		View view = convertView;
+		if (view == null) {
+			view = inflater.inflate(R.layout.list_item_movie, parent, false);
+			view.setTag(new ViewHolder(view));
+		}
+
+		bind((ViewHolder) view.getTag(), getRow(position));
+		return view;
+	}
+
+	// show row, or a blank placeholder if it is null
+	private void bind(ViewHolder holder, MovieRow row) {
+		if (row == null) {
+			holder.titleTextView.setText(null);
+			posterLoader.clear(holder.posterImageView);
+		} else {
+			holder.titleTextView.setText(row.getTitle());
+			posterLoader.loadThumbnail(holder.posterImageView, row.getId(),
+					thumbnailSize);
+		}
+	}
+
+	// a row scrolled out of sight, so its thumbnail need not be decoded
+	@Override
+	public void onMovedToScrapHeap(View view) {
+		Object tag = view.getTag();
+		if (tag instanceof ViewHolder)
+			posterLoader.cancel(((ViewHolder) tag).posterImageView);
+	}
+
+	// the rows from firstPosition on were replaced and diff describes how;
+	// call after the new rows are in place
+	protected void applyDiff(RowDiff diff, int firstPosition) {
+		if (!diff.hasChanges())
+			return;
+
+		if (listView == null || listView.getAdapter() != this) {
+			notifyDataSetChanged();
+			return;
+		}
+
+		int firstVisible = listView.getFirstVisiblePosition();
+		if (diff.isStructural()) {
+			rebuild(diff, firstPosition, firstVisible);
+			return;
+		}
+
+		// same rows in the same places, so redraw just the changed ones
+		final int first = firstVisible;
+		final int offset = firstPosition;
+		diff.dispatchTo(new RowDiff.Callback() {
+			@Override
+			public void onChanged(int newPosition) {
+				View view = listView.getChildAt(offset + newPosition - first);
+				if (view != null && view.getTag() instanceof ViewHolder)
+					bind((ViewHolder) view.getTag(), getRow(offset
+							+ newPosition));
+			}
+
+			@Override
+			public void onRemoved(int oldPosition) {
+			}
+
+			@Override
+			public void onInserted(int newPosition) {
+			}
+
+			@Override
+			public void onMoved(int oldPosition, int newPosition) {
+			}
+		});
+	}
+
+	// rows shifted, so rebuild the list, moving the top row to wherever it
+	// went if it was among the replaced rows
+	private void rebuild(RowDiff diff, int firstPosition, int firstVisible) {
+		View top = listView.getChildAt(0);
+		int anchor = diff.getNewPosition(firstVisible - firstPosition);
+		notifyDataSetChanged();
+
+		if (top != null && anchor >= 0) {
+			anchor += firstPosition;
+			if (anchor != firstVisible)
+				listView.setSelectionFromTop(anchor, top.getTop());
+		}
+	}
+} // end class RowAdapter
@@ -0,0 +1,162 @@
+// RowDiff.java
+// Compares two snapshots of a movie list by row ID and reports which rows
+// were inserted, removed, moved or changed, so only those need redrawing
+package com.example.moviecollection;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RowDiff {
+	// receives the differences; old positions are in the old snapshot and
+	// new positions in the new one
+	public interface Callback {
+		public void onRemoved(int oldPosition);
+
+		public void onInserted(int newPosition);
+
+		public void onMoved(int oldPosition, int newPosition);
+
+		// the row kept its place relative to the others but looks different
+		public void onChanged(int newPosition);
+	}
+
+	private final int[] newPositions; // of each old row, or -1 if removed
+	private final int[] oldPositions; // of each new row, or -1 if inserted
+	private final boolean[] moved; // of each new row
+	private final boolean[] changed; // of each new row
+	private int removedCount;
+	private int insertedCount;
+	private int movedCount;
+	private int changedCount;
+
+	// compare oldRows with newRows; a row that appears twice in newRows is
+	// matched once and inserted the second time
+	public static RowDiff compute(List<MovieRow> oldRows,
+			List<MovieRow> newRows) {
+		return new RowDiff(oldRows, newRows);
+	}
+
+	private RowDiff(List<MovieRow> oldRows, List<MovieRow> newRows) {
+		newPositions = new int[oldRows.size()];
+		oldPositions = new int[newRows.size()];
+		moved = new boolean[oldPositions.length];
+		changed = new boolean[oldPositions.length];
+
+		Map<Long, Integer> oldIndex = new HashMap<Long, Integer>(
+				oldRows.size() * 2);
+		for (int i = oldRows.size() - 1; i >= 0; --i) {
+			oldIndex.put(oldRows.get(i).getId(), i); // first one wins
+			newPositions[i] = -1;
+		}
+
+		for (int j = 0; j < oldPositions.length; ++j) {
+			MovieRow row = newRows.get(j);
+			Integer i = oldIndex.remove(row.getId());
+			if (i == null) {
+				oldPositions[j] = -1;
+				++insertedCount;
+			} else {
+				oldPositions[j] = i;
+				newPositions[i] = j;
+				if (!oldRows.get(i).sameContents(row)) {
+					changed[j] = true;
+					++changedCount;
+				}
+			}
+		}
+		removedCount = newPositions.length
+				- (oldPositions.length - insertedCount);
+		markMoves();
+	}
+
+	// the kept rows whose old positions form the longest increasing run in
+	// new order stay put; every other kept row counts as moved
+	private void markMoves() {
+		int n = oldPositions.length;
+		int[] tails = new int[n]; // new position ending each run length
+		int[] previous = new int[n]; // new position before each in its run
+		int length = 0;
+
+		for (int j = 0; j < n; ++j) {
+			int oldPosition = oldPositions[j];
+			if (oldPosition < 0)
+				continue;
+
+			// find the shortest run whose end has a larger old position
+			int low = 0;
+			int high = length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (oldPositions[tails[middle]] < oldPosition)
+					low = middle + 1;
+				else
+					high = middle;
+			}
+			previous[j] = low == 0 ? -1 : tails[low - 1];
+			tails[low] = j;
+			if (low == length)
+				++length;
+		}
+
+		boolean[] staying = new boolean[n];
+		int j = length == 0 ? -1 : tails[length - 1];
+		for (; j >= 0; j = previous[j])
+			staying[j] = true;
+
+		for (j = 0; j < n; ++j)
+			if (oldPositions[j] >= 0 && !staying[j]) {
+				moved[j] = true;
+				++movedCount;
+			}
+	}
+
+	// true if any row was inserted, removed or moved, so positions shifted
+	public boolean isStructural() {
+		return removedCount + insertedCount + movedCount != 0;
+	}
+
+	// true if the snapshots would be drawn differently at all
+	public boolean hasChanges() {
+		return isStructural() || changedCount != 0;
+	}
+
+	// new position of the row at oldPosition; a removed row maps to the next
+	// kept row after it, or the last one before it; -1 if none was kept or
+	// oldPosition is outside the old snapshot
+	public int getNewPosition(int oldPosition) {
+		if (oldPosition < 0 || oldPosition >= newPositions.length)
+			return -1;
+
+		for (int i = oldPosition; i < newPositions.length; ++i)
+			if (newPositions[i] >= 0)
+				return newPositions[i];
+		for (int i = oldPosition - 1; i >= 0; --i)
+			if (newPositions[i] >= 0)
+				return newPositions[i];
+		return -1;
+	}
+
+	// report removals from the last to the first, then insertions, moves
+	// and changes in new order
+	public void dispatchTo(Callback callback) {
+		for (int i = newPositions.length - 1; i >= 0; --i)
+			if (newPositions[i] < 0)
+				callback.onRemoved(i);
+
+		for (int j = 0; j < oldPositions.length; ++j) {
+			if (oldPositions[j] < 0)
+				callback.onInserted(j);
+			else if (moved[j])
+				callback.onMoved(oldPositions[j], j);
+			if (changed[j])
+				callback.onChanged(j);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "removed=" + removedCount + " inserted=" + insertedCount
+				+ " moved=" + movedCount + " changed=" + changedCount;
+	}
+} // end class RowDiff
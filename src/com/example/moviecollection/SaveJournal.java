@@ -0,0 +1,365 @@
+// SaveJournal.java
+// Write-behind queue for saved movies: each change is appended to a
+// journal file and returns at once, repeated saves of a row are merged,
+// and a background thread writes them to the database a batch per
+// transaction. New movies are written straight through for their row IDs
+package com.example.moviecollection;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+public class SaveJournal {
+	private static final String TAG = "SaveJournal";
+	private static final String FILE_NAME = "save-journal";
+
+	// import_checkpoints row holding the last sequence number written to
+	// the database, in the same transaction as the saves themselves
+	static final String CHECKPOINT = "save-journal";
+
+	private static final long FLUSH_DELAY_MS = 2000; // gathers a batch
+	private static final int FLUSH_BATCH = 100; // saves that flush at once
+
+	private static volatile SaveJournal instance; // set once opened
+
+	// writes batches to the database, and opens the journal
+	private static final ScheduledExecutorService flusher = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					return new Thread(runnable, "save-journal");
+				}
+			});
+
+	// one journaled save; sequence numbers only grow
+	private static class Entry {
+		final long sequence;
+		final Movie movie; // row ID -1 for a new movie
+
+		Entry(long sequence, Movie movie) {
+			this.sequence = sequence;
+			this.movie = movie;
+		}
+	} // end class Entry
+
+	private final File file;
+	private final DatabaseConnector databaseConnector;
+	private final Context context;
+
+	// guarded by this: the journal's end and the saves not yet written,
+	// new movies in order (only from a journal replayed after a crash)
+	// and the latest save of each existing one
+	private DataOutputStream output;
+	private long lastSequence;
+	private final List<Entry> inserts = new ArrayList<Entry>();
+	private final Map<Long, Entry> updates = new LinkedHashMap<Long, Entry>();
+	private boolean flushScheduled;
+
+	// guarded by this: the saves the current flush is writing, by row ID;
+	// still the newest copies until its transaction commits
+	private Map<Long, Entry> writing = Collections.emptyMap();
+
+	// counters for diagnostics
+	private long saves;
+	private long coalesced;
+	private long flushes;
+
+	private final Object flushLock = new Object(); // one flush at a time
+
+	// return the process-wide journal, replaying saves a previous process
+	// journaled but never wrote; call off the main thread
+	public static synchronized SaveJournal getInstance(Context context) {
+		if (instance == null)
+			instance = new SaveJournal(context.getApplicationContext());
+		return instance;
+	}
+
+	// open the journal in the background, so saves left by a crash reach
+	// the database without waiting for the next save
+	public static void start(final Context context) {
+		flusher.execute(new Runnable() {
+			@Override
+			public void run() {
+				getInstance(context);
+			}
+		});
+	}
+
+	// write everything journaled so far, if the journal is open; writes
+	// that must not overtake a save, like deletes, call this first
+	public static void flushPending() {
+		SaveJournal journal = getOpenInstance();
+		if (journal != null)
+			journal.flush();
+	}
+
+	// the journal if it is open, else null; never blocks on opening it
+	static SaveJournal getOpenInstance() {
+		return instance;
+	}
+
+	// constructor
+	private SaveJournal(Context context) {
+		this.context = context;
+		this.file = new File(context.getFilesDir(), FILE_NAME);
+		this.databaseConnector = new DatabaseConnector(context);
+		recover();
+	}
+
+	// journal the new fields of an existing movie, to be written shortly;
+	// readers of the movie see the change at once. A new movie is inserted
+	// at once instead, so the caller can show it. Return the movie's row
+	// ID, or -1 if a new one could not be inserted. Call off the main
+	// thread
+	public long save(Movie movie) {
+		if (movie.getId() == -1)
+			return databaseConnector.insertMovie(movie);
+
+		synchronized (this) {
+			Entry entry = new Entry(++lastSequence, movie);
+			try {
+				write(output, entry);
+				output.flush(); // out of the process, so a crash keeps it
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+
+			++saves;
+			if (updates.put(movie.getId(), entry) != null)
+				++coalesced; // the earlier save is never written
+
+			if (inserts.size() + updates.size() >= FLUSH_BATCH)
+				scheduleFlush(0);
+			else if (!flushScheduled)
+				scheduleFlush(FLUSH_DELAY_MS);
+		}
+
+		DatabaseConnector.getMovieCache().update(movie);
+		DatabaseConnector.getChangeTracker(context).rowChanged(movie.getId());
+		return movie.getId();
+	}
+
+	// the latest save of movie id not yet in the database, or null; the
+	// cache may have dropped it, and the row on disk is older
+	public synchronized Movie getPendingMovie(long id) {
+		Entry entry = updates.get(id);
+		if (entry == null)
+			entry = writing.get(id);
+		return entry == null ? null : entry.movie;
+	}
+
+	// write the pending saves in one transaction, then shorten the
+	// journal to the saves that arrived meanwhile
+	public void flush() {
+		synchronized (flushLock) {
+			List<Entry> newMovies;
+			List<Entry> changedMovies;
+			long sequence;
+
+			synchronized (this) {
+				flushScheduled = false;
+				if (inserts.isEmpty() && updates.isEmpty())
+					return;
+
+				newMovies = new ArrayList<Entry>(inserts);
+				changedMovies = new ArrayList<Entry>(updates.values());
+				writing = new LinkedHashMap<Long, Entry>(updates);
+				inserts.clear();
+				updates.clear();
+				sequence = lastSequence;
+			}
+
+			try {
+				databaseConnector.applySaves(moviesOf(newMovies),
+						moviesOf(changedMovies), CHECKPOINT, sequence);
+			} catch (RuntimeException e) {
+				// put them back behind any newer save of the same row
+				synchronized (this) {
+					writing = Collections.emptyMap();
+					inserts.addAll(0, newMovies);
+					for (Entry entry : changedMovies)
+						if (!updates.containsKey(entry.movie.getId()))
+							updates.put(entry.movie.getId(), entry);
+				}
+				throw e;
+			}
+
+			synchronized (this) {
+				++flushes;
+				writing = Collections.emptyMap(); // the rows are current
+
+				// the write dropped the rows from the cache; newer saves of
+				// them are still only in the journal
+				for (Entry entry : changedMovies) {
+					Entry newer = updates.get(entry.movie.getId());
+					if (newer != null)
+						DatabaseConnector.getMovieCache().update(newer.movie);
+				}
+
+				try {
+					rewrite();
+				} catch (IOException e) {
+					// the checkpoint already skips what was written
+					Log.w(TAG, "journal not compacted", e);
+				}
+			}
+		}
+	}
+
+	// the movies of entries
+	private static List<Movie> moviesOf(List<Entry> entries) {
+		List<Movie> movies = new ArrayList<Movie>(entries.size());
+		for (Entry entry : entries)
+			movies.add(entry.movie);
+		return movies;
+	}
+
+	// saves, merged saves and flushes so far
+	@Override
+	public synchronized String toString() {
+		return "saves=" + saves + " coalesced=" + coalesced + " flushes="
+				+ flushes + " pending=" + (inserts.size() + updates.size());
+	}
+
+	// run flush after delayMs on the flusher thread
+	private void scheduleFlush(long delayMs) {
+		flushScheduled = true;
+		flusher.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flush();
+				} catch (RuntimeException e) {
+					// the saves stay in the journal for the next start
+					Log.e(TAG, "flush failed", e);
+				}
+			}
+		}, delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	// reload the saves journaled after the database's checkpoint
+	private void recover() {
+		long written = 0;
+		Cursor cursor = databaseConnector.getImportCheckpoint(CHECKPOINT);
+		try {
+			if (cursor.moveToFirst())
+				written = cursor.getLong(0);
+		} finally {
+			cursor.close();
+		}
+		lastSequence = written;
+
+		try {
+			DataInputStream input = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(file)));
+			try {
+				while (true) {
+					Entry entry = read(input);
+					lastSequence = Math.max(lastSequence, entry.sequence);
+					if (entry.sequence <= written)
+						continue; // already in the database
+
+					if (entry.movie.getId() == -1)
+						inserts.add(entry);
+					else
+						updates.put(entry.movie.getId(), entry);
+				}
+			} catch (EOFException e) {
+				// end of the journal, or a save cut off by a crash
+			} finally {
+				input.close();
+			}
+		} catch (FileNotFoundException e) {
+			// nothing journaled yet
+		} catch (IOException e) {
+			Log.e(TAG, "journal unreadable", e);
+		}
+
+		try {
+			rewrite();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		if (!inserts.isEmpty() || !updates.isEmpty())
+			scheduleFlush(0);
+	}
+
+	// replace the journal with the pending saves and append from there
+	private void rewrite() throws IOException {
+		if (output != null)
+			output.close();
+
+		File partial = new File(file.getPath() + ".tmp");
+		DataOutputStream rewritten = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(partial)));
+		try {
+			for (Entry entry : inserts)
+				write(rewritten, entry);
+			for (Entry entry : updates.values())
+				write(rewritten, entry);
+		} finally {
+			rewritten.close();
+		}
+		if (!partial.renameTo(file))
+			throw new IOException("cannot replace " + file);
+
+		output = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file, true)));
+	}
+
+	// one save: sequence, row ID, then the four fields
+	private static void write(DataOutputStream output, Entry entry)
+			throws IOException {
+		Movie movie = entry.movie;
+		output.writeLong(entry.sequence);
+		output.writeLong(movie.getId());
+		writeString(output, movie.getTitle());
+		output.writeInt(movie.getYear());
+		writeString(output, movie.getDirector());
+		output.writeInt(movie.getRuntime());
+	}
+
+	private static Entry read(DataInputStream input) throws IOException {
+		long sequence = input.readLong();
+		long id = input.readLong();
+		String title = readString(input);
+		int year = input.readInt();
+		String director = readString(input);
+		int runtime = input.readInt();
+		return new Entry(sequence, new Movie(id, title, year, director,
+				runtime));
+	}
+
+	// a String that may be null
+	private static void writeString(DataOutputStream output, String value)
+			throws IOException {
+		output.writeBoolean(value != null);
+		if (value != null)
+			output.writeUTF(value);
+	}
+
+	private static String readString(DataInputStream input) throws IOException {
+		return input.readBoolean() ? input.readUTF() : null;
+	}
+} // end class SaveJournal
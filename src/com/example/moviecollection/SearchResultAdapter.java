@@ -0,0 +1,44 @@
+// SearchResultAdapter.java
+// Supplies the rows of the latest search; new results are diffed against
+// the old ones off the GUI thread so a repeated search redraws only changes
+package com.example.moviecollection;
+
+import java.util.Collections;
+import java.util.List;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+
+public class SearchResultAdapter extends RowAdapter {
+	private List<MovieRow> rows = Collections.emptyList();
+
+	// constructor
+	public SearchResultAdapter(Context context, PosterLoader posterLoader) {
+		super(LayoutInflater.from(context), posterLoader);
+	}
+
+	// the rows shown, which are never modified
+	public List<MovieRow> getRows() {
+		return rows;
+	}
+
+	// show newRows; diff compares them with getRows(), or is null if they
+	// were not compared
+	public void setRows(List<MovieRow> newRows, RowDiff diff) {
+		rows = newRows;
+		if (diff == null)
+			notifyDataSetChanged();
+		else
+			applyDiff(diff, 0);
+	}
+
+	@Override
+	public int getCount() {
+		return rows.size();
+	}
+
+	@Override
+	public MovieRow getRow(int position) {
+		return rows.get(position);
+	}
+} // end class SearchResultAdapter
@@ -0,0 +1,180 @@
+// StartupSnapshot.java
+// The first rows of the movie list and the number of movies, saved to a
+// small file so a cold start can draw them before the database is open
+package com.example.moviecollection;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.content.Context;
+import android.util.Log;
+
+public class StartupSnapshot {
+	public static final int ROWS = 30; // enough to fill a tablet's list
+
+	private static final String TAG = "StartupSnapshot";
+	private static final String FILE_NAME = "startup_rows";
+	private static final int VERSION = 1;
+	private static final long WAIT_MS = 50; // longest get waits for preload
+
+	private static FutureTask<StartupSnapshot> reading; // started by preload
+	private static StartupSnapshot latest; // read or saved most recently
+	private static final Object saveLock = new Object(); // one save at a time
+
+	private final List<MovieRow> rows; // first rows in list order
+	private final int count; // movies in the whole list
+
+	// constructor
+	private StartupSnapshot(List<MovieRow> rows, int count) {
+		this.rows = rows;
+		this.count = count;
+	}
+
+	public List<MovieRow> getRows() {
+		return rows;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	// start reading the file on a background thread; call as early as
+	// possible, so it is read while the views are inflated
+	public static synchronized void preload(Context context) {
+		if (reading != null)
+			return;
+
+		final File file = new File(context.getFilesDir(), FILE_NAME);
+		reading = new FutureTask<StartupSnapshot>(
+				new Callable<StartupSnapshot>() {
+					@Override
+					public StartupSnapshot call() {
+						return read(file);
+					}
+				});
+		new Thread(reading, "startup-snapshot").start();
+	}
+
+	// return the latest snapshot, waiting up to WAIT_MS for preload to read
+	// it; null if there is none, or it is not read in time
+	public static StartupSnapshot get() {
+		FutureTask<StartupSnapshot> task;
+		synchronized (StartupSnapshot.class) {
+			if (latest != null)
+				return latest;
+			task = reading;
+		}
+		if (task == null)
+			return null;
+
+		try {
+			return task.get(WAIT_MS, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			return null; // draw the empty list rather than wait longer
+		} catch (ExecutionException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	// save the first ROWS of rows and the list's count for the next cold
+	// start, unless they are already saved; call off the GUI thread
+	public static void save(Context context, List<MovieRow> rows, int count) {
+		rows = rows.subList(0, Math.min(rows.size(), ROWS));
+		synchronized (saveLock) {
+			synchronized (StartupSnapshot.class) {
+				if (latest != null && latest.sameAs(rows, count))
+					return;
+				latest = new StartupSnapshot(rows, count);
+			}
+
+			File file = new File(context.getFilesDir(), FILE_NAME);
+			File partial = new File(file.getPath() + ".tmp");
+			try {
+				DataOutputStream output = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(
+								partial)));
+				try {
+					output.writeInt(VERSION);
+					output.writeInt(count);
+					output.writeInt(rows.size());
+					for (MovieRow row : rows) {
+						output.writeLong(row.getId());
+						output.writeUTF(row.getTitle());
+					}
+				} finally {
+					output.close();
+				}
+				if (!partial.renameTo(file))
+					throw new IOException("cannot replace " + file);
+			} catch (IOException e) {
+				partial.delete();
+				Log.w(TAG, "snapshot not saved", e);
+			}
+		}
+	}
+
+	// read the file; null if it is missing, damaged or from another version
+	private static StartupSnapshot read(File file) {
+		long start = System.nanoTime();
+		StartupSnapshot snapshot = null;
+		try {
+			DataInputStream input = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (input.readInt() == VERSION) {
+					int count = input.readInt();
+					MovieRow[] rows = new MovieRow[Math.min(input.readInt(),
+							ROWS)];
+					for (int i = 0; i < rows.length; ++i)
+						rows[i] = new MovieRow(input.readLong(), input
+								.readUTF());
+					snapshot = new StartupSnapshot(Collections
+							.unmodifiableList(Arrays.asList(rows)), count);
+				}
+			} finally {
+				input.close();
+			}
+		} catch (FileNotFoundException e) {
+			return null; // first start
+		} catch (IOException e) {
+			Log.w(TAG, "snapshot unreadable", e);
+			return null;
+		}
+
+		synchronized (StartupSnapshot.class) {
+			if (latest == null)
+				latest = snapshot;
+		}
+		Profiler.getInstance().record("readStartupSnapshot", start,
+				snapshot == null ? -1 : snapshot.rows.size());
+		return snapshot;
+	}
+
+	// true if this snapshot holds exactly rows and count
+	private boolean sameAs(List<MovieRow> otherRows, int otherCount) {
+		if (count != otherCount || rows.size() != otherRows.size())
+			return false;
+		for (int i = 0; i < rows.size(); ++i)
+			if (!rows.get(i).sameContents(otherRows.get(i)))
+				return false;
+		return true;
+	}
+} // end class StartupSnapshot
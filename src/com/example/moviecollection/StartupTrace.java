@@ -0,0 +1,63 @@
+// StartupTrace.java
+// Times a cold start from MainActivity.onCreate to each startup step, such
+// as the first frame and the first full page of the movie list; each step
+// is logged and recorded in the Profiler under "startup."
+package com.example.moviecollection;
+
+import android.app.Activity;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+public class StartupTrace {
+	private static final String TAG = "StartupTrace";
+
+	private static long startNanos; // when the first activity was created
+	private static boolean tracing; // until the list is complete
+
+	// start timing if this is the process's first activity; later
+	// activities find the process warm, so they are not traced
+	public static synchronized void begin() {
+		if (startNanos != 0)
+			return;
+
+		startNanos = System.nanoTime();
+		tracing = true;
+	}
+
+	// record how long after begin step was reached, if still tracing
+	public static synchronized void mark(String step) {
+		if (!tracing)
+			return;
+
+		long nanos = System.nanoTime() - startNanos;
+		Profiler.getInstance().get("startup." + step).record(nanos, -1);
+		Log.i(TAG, step + " after " + nanos / 1000000 + "ms");
+	}
+
+	// record the last step and stop tracing
+	public static synchronized void finish(String step) {
+		mark(step);
+		tracing = false;
+	}
+
+	// mark "firstFrame" just before activity's window is first drawn
+	public static void traceFirstFrame(Activity activity) {
+		synchronized (StartupTrace.class) {
+			if (!tracing)
+				return;
+		}
+
+		final View decorView = activity.getWindow().getDecorView();
+		decorView.getViewTreeObserver().addOnPreDrawListener(
+				new ViewTreeObserver.OnPreDrawListener() {
+					@Override
+					public boolean onPreDraw() {
+						decorView.getViewTreeObserver()
+								.removeOnPreDrawListener(this);
+						mark("firstFrame");
+						return true;
+					}
+				});
+	}
+} // end class StartupTrace
@@ -0,0 +1,151 @@
+// StatsFragment.java
+// Displays collection statistics read from the trigger-maintained tables
+package com.example.moviecollection;
+
+import android.app.Fragment;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+public class StatsFragment extends Fragment {
+	private static final int TOP_DIRECTORS = 25; // directors listed
+	private static final long CHANGE_DELAY_MS = 250; // batches change bursts
+
+	private TextView summaryTextView; // totals
+	private TextView decadesTextView; // one line per decade
+	private TextView directorsTextView; // one line per director
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	// called when StatsFragment's view needs to be created
+	@Override
+	public View onCreateView(LayoutInflater inflater, ViewGroup container,
+			Bundle savedInstanceState) {
+		super.onCreateView(inflater, container, savedInstanceState);
+		View view = inflater.inflate(R.layout.fragment_stats, container, false);
+
+		summaryTextView = (TextView) view.findViewById(R.id.summaryTextView);
+		decadesTextView = (TextView) view.findViewById(R.id.decadesTextView);
+		directorsTextView = (TextView) view
+				.findViewById(R.id.directorsTextView);
+		return view;
+	}
+
+	// follow changes to any movie while the fragment is visible
+	@Override
+	public void onStart() {
+		super.onStart();
+		getActivity().getContentResolver().registerContentObserver(
+				ChangeTracker.MOVIES_URI, true, moviesObserver);
+		loadStats();
+	}
+
+	@Override
+	public void onStop() {
+		getActivity().getContentResolver().unregisterContentObserver(
+				moviesObserver);
+		handler.removeCallbacks(loadRunnable);
+		TaskScheduler.getInstance().cancelAll(this);
+		super.onStop();
+	}
+
+	// the statistics are a few rows, so simply read them again once a
+	// burst of changes, such as an import, goes quiet
+	private final ContentObserver moviesObserver = new ContentObserver(handler) {
+		@Override
+		public void onChange(boolean selfChange) {
+			handler.removeCallbacks(loadRunnable);
+			handler.postDelayed(loadRunnable, CHANGE_DELAY_MS);
+		}
+	};
+
+	private final Runnable loadRunnable = new Runnable() {
+		@Override
+		public void run() {
+			loadStats();
+		}
+	};
+
+	// read the statistics; a read in flight may predate the change, so this
+	// one is never merged with it
+	private void loadStats() {
+		TaskScheduler.getInstance().submit(this, null,
+				TaskScheduler.PRIORITY_UI_READ, new LoadStatsTask(getActivity()
+						.getApplicationContext()));
+	}
+
+	// reads and formats the statistics outside GUI thread
+	private class LoadStatsTask extends TaskScheduler.Task<String[]> {
+		private final Context context;
+		private final DatabaseConnector databaseConnector;
+
+		public LoadStatsTask(Context context) {
+			this.context = context;
+			this.databaseConnector = new DatabaseConnector(context);
+		}
+
+		// return the summary, decades and directors texts
+		@Override
+		protected String[] doInBackground() {
+			CollectionStats stats = databaseConnector.getCollectionStats();
+			int average = stats.getAverageRuntime();
+			String summary = context.getString(R.string.stats_summary, stats
+					.getMovies(), stats.getTotalRuntime() / 60, stats
+					.getTotalRuntime() % 60,
+					average == Movie.UNKNOWN ? context
+							.getString(R.string.stats_unknown) : Movie
+							.formatRuntime(average));
+
+			StringBuilder decades = new StringBuilder();
+			Cursor cursor = databaseConnector.getDecadeStats();
+			try {
+				while (cursor.moveToNext()) {
+					int decade = cursor.getInt(0);
+					appendRow(decades, decade == 0 ? context
+							.getString(R.string.stats_unknown) : context
+							.getString(R.string.stats_decade, decade), cursor
+							.getInt(1));
+				}
+			} finally {
+				cursor.close();
+			}
+
+			StringBuilder directors = new StringBuilder();
+			cursor = databaseConnector.getDirectorStats(TOP_DIRECTORS);
+			try {
+				while (cursor.moveToNext()) {
+					String director = cursor.getString(0);
+					appendRow(directors, director.length() == 0 ? context
+							.getString(R.string.stats_unknown) : director,
+							cursor.getInt(1));
+				}
+			} finally {
+				cursor.close();
+			}
+
+			return new String[] { summary, decades.toString(),
+					directors.toString() };
+		}
+
+		// display the texts returned from doInBackground
+		@Override
+		protected void onResult(String[] texts) {
+			summaryTextView.setText(texts[0]);
+			decadesTextView.setText(texts[1]);
+			directorsTextView.setText(texts[2]);
+		}
+
+		// add one "label: count" line
+		private void appendRow(StringBuilder text, String label, int count) {
+			if (text.length() != 0)
+				text.append('\n');
+			text.append(context.getString(R.string.stats_row, label, count));
+		}
+	} // end class LoadStatsTask
+} // end class StatsFragment
@@ -0,0 +1,89 @@
+// SyncEngine.java
+// Brings the local collection and the sync server's up to date with each
+// other by exchanging only the changes made since the last sync: local
+// changes are pushed first, so the server settles conflicts, then other
+// devices' changes are pulled from the last watermark on
+package com.example.moviecollection;
+
+import java.io.IOException;
+import java.util.List;
+
+import android.content.Context;
+
+public class SyncEngine {
+	public static final int BATCH_SIZE = 500; // changes per message
+
+	private final DatabaseConnector databaseConnector;
+	private final SyncTransport transport;
+	private final Profiler profiler = Profiler.getInstance();
+
+	// what one sync did
+	public static class Result {
+		public int pushed; // local changes the server took
+		public int pulled; // changes from other devices applied here
+		public int conflicts; // local changes the server's rows won over
+		public long bytesSent;
+		public long bytesReceived;
+	} // end class Result
+
+	// constructor
+	public SyncEngine(Context context, SyncTransport transport) {
+		this.databaseConnector = new DatabaseConnector(context);
+		this.transport = transport;
+	}
+
+	// push, then pull, a batch at a time; call off the GUI thread. Each
+	// batch is committed on its own, so a sync that fails partway is
+	// resumed by the next one
+	public Result sync() throws IOException {
+		long start = System.nanoTime();
+		Result result = new Result();
+		SaveJournal.flushPending(); // journaled saves go out too
+		String device = databaseConnector.getSyncDevice();
+
+		List<SyncProtocol.Change> pending;
+		long afterSequence = 0;
+		do {
+			pending = databaseConnector.getPendingChanges(device,
+					afterSequence, BATCH_SIZE);
+			if (pending.isEmpty())
+				break;
+
+			SyncProtocol.Message response = exchange(
+					SyncProtocol.Message.push(device, pending),
+					SyncProtocol.PUSHED, result);
+			databaseConnector.acknowledgeChanges(response.acknowledgments);
+			databaseConnector.applyRemoteChanges(response.changes, device, -1);
+			result.pushed += response.acknowledgments.size();
+			result.conflicts += response.changes.size();
+			afterSequence = pending.get(pending.size() - 1).sequence;
+		} while (pending.size() == BATCH_SIZE);
+
+		long watermark = databaseConnector.getSyncWatermark();
+		SyncProtocol.Message response;
+		do {
+			response = exchange(SyncProtocol.Message.pull(device, watermark,
+					BATCH_SIZE), SyncProtocol.PULLED, result);
+			result.pulled += databaseConnector.applyRemoteChanges(
+					response.changes, device, response.position);
+			watermark = response.position;
+		} while (response.more);
+
+		profiler.record("sync", start, result.pushed + result.pulled);
+		return result;
+	}
+
+	// send request and return the response, which must be of type
+	private SyncProtocol.Message exchange(SyncProtocol.Message request,
+			int type, Result result) throws IOException {
+		byte[] bytes = SyncProtocol.encode(request);
+		result.bytesSent += bytes.length;
+		byte[] answer = transport.exchange(bytes);
+		result.bytesReceived += answer.length;
+
+		SyncProtocol.Message response = SyncProtocol.decode(answer);
+		if (response.type != type)
+			throw new IOException("Unexpected sync message " + response.type);
+		return response;
+	}
+} // end class SyncEngine
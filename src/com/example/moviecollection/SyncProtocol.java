@@ -0,0 +1,232 @@
+// SyncProtocol.java
+// Messages exchanged with the sync server: batches of row changes, each
+// message deflated as a whole
+package com.example.moviecollection;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// Message layout, big-endian:
+//
+//   int "MVSY", int version, then deflated:
+//   int type, string device, long position, int limit, boolean more,
+//   int count, changes, int count, acknowledgments
+//
+// A change is string key, long version, long changed_at, string device,
+// long sequence, boolean present, and if present the movie's title,
+// int year, director and int runtime. Strings are DataOutput UTF, and
+// those that may be null are preceded by a boolean.
+public class SyncProtocol {
+	public static final int VERSION = 1;
+
+	// message types: a device sends PUSH and PULL, the server answers
+	// with PUSHED and PULLED
+	public static final int PUSH = 1; // changes made on the device
+	public static final int PUSHED = 2; // accepted, and the server's winners
+	public static final int PULL = 3; // changes after position, up to limit
+	public static final int PULLED = 4; // them, and the new position
+
+	private static final int MAGIC = 0x4d565359; // "MVSY"
+	private static final int MAX_CHANGES = 100000; // per message, sanity
+
+	private SyncProtocol() {
+	}
+
+	// one movie's latest change
+	public static class Change {
+		public final String key; // the movie's name on every device
+		public final long version; // see below
+		public final long changedAt; // milliseconds since the epoch
+		public final String device; // where the change was made
+		public final long sequence; // sender's change number, or 0
+		public final Movie movie; // contents, null for a delete or an ack
+
+		// constructor; in a PUSH version is the server version the change
+		// is based on, elsewhere the server version it has or gets
+		public Change(String key, long version, long changedAt,
+				String device, long sequence, Movie movie) {
+			this.key = key;
+			this.version = version;
+			this.changedAt = changedAt;
+			this.device = device;
+			this.sequence = sequence;
+			this.movie = movie;
+		}
+
+		public boolean isDeleted() {
+			return movie == null;
+		}
+
+		// true if this change wins over one made at otherChangedAt on
+		// otherDevice: the later one wins, and ties go to the greater
+		// device name so every device picks the same winner
+		public boolean isNewerThan(long otherChangedAt, String otherDevice) {
+			if (changedAt != otherChangedAt)
+				return changedAt > otherChangedAt;
+			return device.compareTo(otherDevice) > 0;
+		}
+	} // end class Change
+
+	// one request or response
+	public static class Message {
+		public final int type;
+		public final String device; // sender, or "" from the server
+		public final long position; // server change number, see factories
+		public final int limit; // most changes a PULLED may hold
+		public final boolean more; // PULLED: changes remain after position
+		public final List<Change> changes;
+		public final List<Change> acknowledgments; // PUSHED: key, version
+
+		private Message(int type, String device, long position, int limit,
+				boolean more, List<Change> changes,
+				List<Change> acknowledgments) {
+			this.type = type;
+			this.device = device;
+			this.position = position;
+			this.limit = limit;
+			this.more = more;
+			this.changes = changes;
+			this.acknowledgments = acknowledgments;
+		}
+
+		// send device's changes
+		public static Message push(String device, List<Change> changes) {
+			return new Message(PUSH, device, 0, 0, false, changes,
+					Collections.<Change> emptyList());
+		}
+
+		// answer a PUSH: the new versions of the changes taken, each with
+		// its sequence, and the server's rows that won over the others
+		public static Message pushed(List<Change> acknowledgments,
+				List<Change> winners) {
+			return new Message(PUSHED, "", 0, 0, false, winners,
+					acknowledgments);
+		}
+
+		// ask for up to limit changes from other devices after position
+		public static Message pull(String device, long position, int limit) {
+			return new Message(PULL, device, position, limit, false,
+					Collections.<Change> emptyList(),
+					Collections.<Change> emptyList());
+		}
+
+		// answer a PULL: the changes, and the position to pull after next
+		public static Message pulled(List<Change> changes, long position,
+				boolean more) {
+			return new Message(PULLED, "", position, 0, more, changes,
+					Collections.<Change> emptyList());
+		}
+	} // end class Message
+
+	// return message's bytes
+	public static byte[] encode(Message message) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(bytes);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+
+		DataOutputStream output = new DataOutputStream(
+				new DeflaterOutputStream(bytes));
+		try {
+			output.writeInt(message.type);
+			output.writeUTF(message.device);
+			output.writeLong(message.position);
+			output.writeInt(message.limit);
+			output.writeBoolean(message.more);
+			writeChanges(output, message.changes);
+			writeChanges(output, message.acknowledgments);
+		} finally {
+			output.close(); // finishes the deflated stream
+		}
+		return bytes.toByteArray();
+	}
+
+	// return the message in bytes; fails if they are not one
+	public static Message decode(byte[] bytes) throws IOException {
+		DataInputStream header = new DataInputStream(new ByteArrayInputStream(
+				bytes));
+		if (bytes.length < 8 || header.readInt() != MAGIC)
+			throw new IOException("Not a sync message");
+		int version = header.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported sync version " + version);
+
+		DataInputStream input = new DataInputStream(new InflaterInputStream(
+				header));
+		try {
+			int type = input.readInt();
+			if (type < PUSH || type > PULLED)
+				throw new IOException("Unknown sync message " + type);
+			String device = input.readUTF();
+			long position = input.readLong();
+			int limit = input.readInt();
+			boolean more = input.readBoolean();
+			List<Change> changes = readChanges(input);
+			return new Message(type, device, position, limit, more, changes,
+					readChanges(input));
+		} finally {
+			input.close();
+		}
+	}
+
+	private static void writeChanges(DataOutputStream output,
+			List<Change> changes) throws IOException {
+		output.writeInt(changes.size());
+		for (Change change : changes) {
+			output.writeUTF(change.key);
+			output.writeLong(change.version);
+			output.writeLong(change.changedAt);
+			output.writeUTF(change.device);
+			output.writeLong(change.sequence);
+			output.writeBoolean(change.movie != null);
+			if (change.movie != null) {
+				writeString(output, change.movie.getTitle());
+				output.writeInt(change.movie.getYear());
+				writeString(output, change.movie.getDirector());
+				output.writeInt(change.movie.getRuntime());
+			}
+		}
+	}
+
+	private static List<Change> readChanges(DataInputStream input)
+			throws IOException {
+		int count = input.readInt();
+		if (count < 0 || count > MAX_CHANGES)
+			throw new IOException("Sync message is damaged");
+
+		List<Change> changes = new ArrayList<Change>(count);
+		for (int i = 0; i < count; ++i) {
+			String key = input.readUTF();
+			long version = input.readLong();
+			long changedAt = input.readLong();
+			String device = input.readUTF();
+			long sequence = input.readLong();
+			Movie movie = null;
+			if (input.readBoolean())
+				movie = new Movie(readString(input), input.readInt(),
+						readString(input), input.readInt());
+			changes.add(new Change(key, version, changedAt, device, sequence,
+					movie));
+		}
+		return changes;
+	}
+
+	private static void writeString(DataOutputStream output, String value)
+			throws IOException {
+		output.writeBoolean(value != null);
+		if (value != null)
+			output.writeUTF(value);
+	}
+
+	private static String readString(DataInputStream input) throws IOException {
+		return input.readBoolean() ? input.readUTF() : null;
+	}
+} // end class SyncProtocol
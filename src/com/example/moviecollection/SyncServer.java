@@ -0,0 +1,121 @@
+// SyncServer.java
+// In-memory stand-in for the sync server, for tests and benchmarks: keeps
+// each movie's latest change under a server version and a change number,
+// and can be used in process as a SyncTransport
+package com.example.moviecollection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class SyncServer implements SyncTransport {
+	private final Map<String, SyncProtocol.Change> changes = new HashMap<String, SyncProtocol.Change>();
+	private final Map<String, Long> positions = new HashMap<String, Long>();
+	private final TreeMap<Long, String> keysByPosition = new TreeMap<Long, String>();
+	private long position; // last change number given out
+
+	private long bytesReceived;
+	private long bytesSent;
+
+	// answer one request
+	@Override
+	public synchronized byte[] exchange(byte[] request) throws IOException {
+		bytesReceived += request.length;
+		SyncProtocol.Message message = SyncProtocol.decode(request);
+
+		SyncProtocol.Message response;
+		if (message.type == SyncProtocol.PUSH)
+			response = push(message);
+		else if (message.type == SyncProtocol.PULL)
+			response = pull(message);
+		else
+			throw new IOException("Unexpected sync message "
+					+ message.type);
+
+		byte[] bytes = SyncProtocol.encode(response);
+		bytesSent += bytes.length;
+		return bytes;
+	}
+
+	// bytes of all requests and responses so far
+	public synchronized long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	public synchronized long getBytesSent() {
+		return bytesSent;
+	}
+
+	// movies known, deleted ones included
+	public synchronized int size() {
+		return changes.size();
+	}
+
+	// take each change based on the current version; a change based on an
+	// older one conflicts, and the later of the two wins
+	private SyncProtocol.Message push(SyncProtocol.Message message) {
+		List<SyncProtocol.Change> acknowledgments = new ArrayList<SyncProtocol.Change>();
+		List<SyncProtocol.Change> winners = new ArrayList<SyncProtocol.Change>();
+
+		for (SyncProtocol.Change change : message.changes) {
+			SyncProtocol.Change current = changes.get(change.key);
+			long version = current == null ? 0 : current.version;
+
+			if (current != null && change.version != version) {
+				if (current.changedAt == change.changedAt
+						&& current.device.equals(change.device)) {
+					// sent again after its answer was lost
+					acknowledgments.add(acknowledge(current, change));
+					continue;
+				}
+				if (!change.isNewerThan(current.changedAt, current.device)) {
+					winners.add(current);
+					continue;
+				}
+			}
+
+			SyncProtocol.Change stored = new SyncProtocol.Change(change.key,
+					version + 1, change.changedAt, change.device, 0,
+					change.movie);
+			changes.put(change.key, stored);
+			Long old = positions.put(change.key, ++position);
+			if (old != null)
+				keysByPosition.remove(old);
+			keysByPosition.put(position, change.key);
+			acknowledgments.add(acknowledge(stored, change));
+		}
+		return SyncProtocol.Message.pushed(acknowledgments, winners);
+	}
+
+	// the version stored for change, under the sender's sequence
+	private static SyncProtocol.Change acknowledge(SyncProtocol.Change stored,
+			SyncProtocol.Change change) {
+		return new SyncProtocol.Change(change.key, stored.version,
+				stored.changedAt, stored.device, change.sequence, null);
+	}
+
+	// the latest change of each movie changed after the request's
+	// position, leaving out those the requesting device made: it learned
+	// their versions when it pushed them
+	private SyncProtocol.Message pull(SyncProtocol.Message message) {
+		List<SyncProtocol.Change> pulled = new ArrayList<SyncProtocol.Change>();
+		long last = message.position;
+		int limit = Math.max(1, message.limit);
+
+		for (Map.Entry<Long, String> entry : keysByPosition.tailMap(
+				message.position, false).entrySet()) {
+			if (pulled.size() == limit)
+				return SyncProtocol.Message.pulled(pulled, last, true);
+
+			SyncProtocol.Change change = changes.get(entry.getValue());
+			if (!change.device.equals(message.device))
+				pulled.add(change);
+			last = entry.getKey();
+		}
+		return SyncProtocol.Message.pulled(pulled, Math.max(last, position),
+				false);
+	}
+} // end class SyncServer
@@ -0,0 +1,12 @@
+// SyncTransport.java
+// Carries one encoded SyncProtocol request to the sync server and brings
+// back its response
+package com.example.moviecollection;
+
+import java.io.IOException;
+
+public interface SyncTransport {
+	// send request and return the server's response; called off the GUI
+	// thread, and may block
+	public byte[] exchange(byte[] request) throws IOException;
+}
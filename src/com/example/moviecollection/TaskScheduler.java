@@ -0,0 +1,298 @@
+// TaskScheduler.java
+// Runs fragments' background work by priority and delivers results only
+// to fragments whose views are still alive
+package com.example.moviecollection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.app.Fragment;
+import android.os.Handler;
+import android.os.Looper;
+
+public class TaskScheduler {
+	// priorities, most urgent first
+	public static final int PRIORITY_UI_READ = 0; // data a screen is waiting on
+	public static final int PRIORITY_WRITE = 1; // user changes
+	public static final int PRIORITY_IMAGE = 2; // pictures for rows on screen
+	public static final int PRIORITY_PREFETCH = 3; // rows the user may open
+	public static final int PRIORITY_MAINTENANCE = 4; // nobody is waiting
+
+	private static final int THREADS = 3;
+	private static TaskScheduler instance;
+
+	// background work plus the callbacks run on the main thread
+	public static abstract class Task<T> {
+		// runs on a worker thread
+		protected abstract T doInBackground();
+
+		// runs on the main thread if the owner's view is still alive
+		protected void onResult(T result) {
+		}
+
+		// runs on the main thread when nobody received the result, so
+		// resources such as Cursors can be released
+		protected void onDiscarded(T result) {
+		}
+	} // end class Task
+
+	// lets the submitter cancel delivery of one task's result
+	public class Handle {
+		private final Fragment owner;
+		private final Task<?> task;
+		private final Job job;
+		private boolean cancelled;
+
+		private Handle(Fragment owner, Task<?> task, Job job) {
+			this.owner = owner;
+			this.task = task;
+			this.job = job;
+		}
+
+		// stop the result from being delivered; reads nobody else is
+		// waiting for are dropped from the queue, writes still run
+		public void cancel() {
+			if (cancelled)
+				return;
+			cancelled = true;
+			cancelledCount.incrementAndGet();
+			forget(this);
+
+			if (job.handles.isEmpty() && job.priority != PRIORITY_WRITE) {
+				job.cancelled = true; // skipped if not started yet
+				if (job.key != null && inFlight.get(job.key) == job)
+					inFlight.remove(job.key);
+			}
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	} // end class Handle
+
+	private final ThreadPoolExecutor executor;
+	private final Profiler profiler = Profiler.getInstance();
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final AtomicLong sequence = new AtomicLong(); // FIFO within priority
+
+	// main-thread bookkeeping: queries in flight and each owner's handles
+	private final Map<String, Job> inFlight = new HashMap<String, Job>();
+	private final Map<Fragment, List<Handle>> handlesByOwner = new HashMap<Fragment, List<Handle>>();
+
+	// counters showing how much work was saved
+	private final AtomicLong submittedCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong cancelledCount = new AtomicLong();
+	private final AtomicLong skippedCount = new AtomicLong();
+	private final AtomicLong discardedCount = new AtomicLong();
+	private final AtomicLong completedCount = new AtomicLong();
+
+	// return the process-wide scheduler
+	public static synchronized TaskScheduler getInstance() {
+		if (instance == null)
+			instance = new TaskScheduler();
+		return instance;
+	}
+
+	// constructor
+	private TaskScheduler() {
+		executor = new ThreadPoolExecutor(THREADS, THREADS, 0,
+				TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						return new Thread(runnable, "task-"
+								+ count.incrementAndGet());
+					}
+				});
+	}
+
+	// queue task for owner; call on the main thread. If key is not null
+	// and a task with the same key is still in flight, task joins it and
+	// receives the same result instead of running again, so tasks sharing
+	// a key must return equal, immutable results
+	public <T> Handle submit(Fragment owner, String key, int priority,
+			Task<T> task) {
+		submittedCount.incrementAndGet();
+
+		Job job = key == null ? null : inFlight.get(key);
+		if (job != null)
+			coalescedCount.incrementAndGet();
+		else {
+			job = new Job(key, priority, task);
+			if (key != null)
+				inFlight.put(key, job);
+			executor.execute(job);
+		}
+
+		Handle handle = new Handle(owner, task, job);
+		job.handles.add(handle);
+
+		List<Handle> handles = handlesByOwner.get(owner);
+		if (handles == null) {
+			handles = new ArrayList<Handle>();
+			handlesByOwner.put(owner, handles);
+		}
+		handles.add(handle);
+		return handle;
+	}
+
+	// cancel every pending result for owner; call from its lifecycle
+	// methods on the main thread
+	public void cancelAll(Fragment owner) {
+		List<Handle> handles = handlesByOwner.get(owner);
+		if (handles == null)
+			return;
+
+		for (Handle handle : new ArrayList<Handle>(handles))
+			handle.cancel();
+	}
+
+	// number of tasks submitted
+	public long getSubmittedCount() {
+		return submittedCount.get();
+	}
+
+	// number of tasks that joined an identical task already in flight
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	// number of results cancelled by their submitters
+	public long getCancelledCount() {
+		return cancelledCount.get();
+	}
+
+	// number of queued tasks dropped before they ran
+	public long getSkippedCount() {
+		return skippedCount.get();
+	}
+
+	// number of results dropped because the owner's view was gone
+	public long getDiscardedCount() {
+		return discardedCount.get();
+	}
+
+	// number of tasks that ran to completion
+	public long getCompletedCount() {
+		return completedCount.get();
+	}
+
+	// counters as one line for logging
+	@Override
+	public String toString() {
+		return "submitted=" + getSubmittedCount() + " coalesced="
+				+ getCoalescedCount() + " cancelled=" + getCancelledCount()
+				+ " skipped=" + getSkippedCount() + " discarded="
+				+ getDiscardedCount() + " completed=" + getCompletedCount();
+	}
+
+	// remove a handle from its job and its owner's list
+	private void forget(Handle handle) {
+		handle.job.handles.remove(handle);
+
+		List<Handle> handles = handlesByOwner.get(handle.owner);
+		if (handles != null) {
+			handles.remove(handle);
+			if (handles.isEmpty())
+				handlesByOwner.remove(handle.owner);
+		}
+	}
+
+	// true if the fragment can still show a result
+	private static boolean isAlive(Fragment owner) {
+		return owner.isAdded() && owner.getView() != null;
+	}
+
+	// hand a finished job's result to each live handle, on the main thread
+	@SuppressWarnings("unchecked")
+	private void deliver(Job job, Object result) {
+		if (job.key != null && inFlight.get(job.key) == job)
+			inFlight.remove(job.key);
+
+		boolean delivered = false;
+		for (Handle handle : new ArrayList<Handle>(job.handles)) {
+			forget(handle);
+
+			if (isAlive(handle.owner)) {
+				long start = System.nanoTime();
+				((Task<Object>) handle.task).onResult(result);
+				profiler.record("bind:" + job.name, start, -1);
+				delivered = true;
+			} else
+				discardedCount.incrementAndGet();
+		}
+
+		if (!delivered)
+			((Task<Object>) job.task).onDiscarded(result);
+	}
+
+	// one queued unit of work, shared by every handle with its key
+	private class Job implements Runnable, Comparable<Job> {
+		final String key;
+		final int priority;
+		final long order = sequence.getAndIncrement();
+		final Task<?> task; // the task whose doInBackground runs
+		final String name; // task class without its package, for profiling
+		final List<Handle> handles = new ArrayList<Handle>(1); // main thread
+		volatile boolean cancelled;
+
+		Job(String key, int priority, Task<?> task) {
+			this.key = key;
+			this.priority = priority;
+			this.task = task;
+			String className = task.getClass().getName();
+			this.name = className.substring(className.lastIndexOf('.') + 1);
+		}
+
+		@Override
+		public void run() {
+			if (cancelled) {
+				skippedCount.incrementAndGet();
+				return;
+			}
+
+			final Object result;
+			try {
+				long start = System.nanoTime();
+				result = task.doInBackground();
+				profiler.record("task:" + name, start, -1);
+			} catch (final RuntimeException e) {
+				// fail on the main thread, as an AsyncTask would
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						throw e;
+					}
+				});
+				return;
+			}
+
+			completedCount.incrementAndGet();
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					deliver(Job.this, result);
+				}
+			});
+		}
+
+		// lower priority values first, then in submission order
+		@Override
+		public int compareTo(Job other) {
+			if (priority != other.priority)
+				return priority < other.priority ? -1 : 1;
+			return order < other.order ? -1 : (order == other.order ? 0 : 1);
+		}
+	} // end class Job
+} // end class TaskScheduler
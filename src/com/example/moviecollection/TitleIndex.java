@@ -0,0 +1,560 @@
+// TitleIndex.java
+// In-memory trigram index of normalized titles that finds likely
+// duplicates, such as "The Matrix (1999)" and "Matrix, The", without
+// comparing a title against every other
+package com.example.moviecollection;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+public class TitleIndex {
+	// Dice coefficient of two titles' trigram sets that counts as a match
+	public static final float DEFAULT_THRESHOLD = 0.8f;
+
+	// a year in brackets, an article moved to the end, accents and
+	// anything that is not a letter or digit
+	private static final Pattern BRACKETED_YEAR = Pattern
+			.compile("[(\\[]\\s*\\d{4}\\s*[)\\]]");
+	private static final Pattern TRAILING_ARTICLE = Pattern
+			.compile(",\\s*(the|a|an)\\s*$");
+	private static final Pattern LEADING_ARTICLE = Pattern
+			.compile("^(the|a|an)\\s+");
+	private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+	private static final Pattern SEPARATORS = Pattern
+			.compile("[^\\p{L}\\p{N}]+");
+	private static final Pattern YEAR = Pattern.compile(".*[(\\[]\\s*(\\d{4})\\s*[)\\]].*");
+
+	// one likely duplicate of a title
+	public static class Match {
+		public final long id;
+		public final String title;
+		public final int year; // or Movie.UNKNOWN
+		public final float score; // 1 for the same normalized title
+
+		Match(long id, String title, int year, float score) {
+			this.id = id;
+			this.title = title;
+			this.year = year;
+			this.score = score;
+		}
+	} // end class Match
+
+	private enum State {
+		EMPTY, LOADING, LOADED
+	}
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// guarded by lock: slot i holds one movie and its sorted trigrams;
+	// postings list the slots of each trigram, including slots that were
+	// since reused or freed, which queries check and rebuild drops
+	private long[] ids = new long[0];
+	private String[] titles = new String[0];
+	private int[] years = new int[0];
+	private long[][] grams = new long[0][];
+	private int slots; // slots used, including free ones
+	private final List<Integer> freeSlots = new ArrayList<Integer>();
+	private final Map<Long, Integer> slotOf = new HashMap<Long, Integer>();
+	private final Map<Long, Postings> postings = new HashMap<Long, Postings>();
+	private long postingCount;
+	private long stalePostings;
+
+	// changes made while a load reads the table, replayed after it
+	private State state = State.EMPTY;
+	private final List<Match> changesWhileLoading = new ArrayList<Match>();
+
+	// per thread: the query stamp each slot was last scored under
+	private static class Visits {
+		int[] stamps = new int[0];
+		int stamp;
+
+		// a fresh stamp for a query over slots slots
+		int next(int slots) {
+			if (stamps.length < slots || stamp == Integer.MAX_VALUE) {
+				stamps = new int[Math.max(slots, stamps.length)];
+				stamp = 0;
+			}
+			return ++stamp;
+		}
+	} // end class Visits
+
+	private static final ThreadLocal<Visits> VISITS = new ThreadLocal<Visits>() {
+		@Override
+		protected Visits initialValue() {
+			return new Visits();
+		}
+	};
+
+	// a growable list of slots, each packed with its title's trigram
+	// count so the length filter need not touch the slot itself
+	private static class Postings {
+		int[] entries = new int[4];
+		int size;
+
+		void add(int slot, int length) {
+			if (size == entries.length)
+				entries = Arrays.copyOf(entries, size * 2);
+			entries[size++] = slot << 8 | Math.min(length, 255);
+		}
+	} // end class Postings
+
+	// true once load has finished; writes are only tracked from then on,
+	// or queued while it runs
+	public boolean isLoaded() {
+		lock.readLock().lock();
+		try {
+			return state == State.LOADED;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// start a load; from here on changes are kept until finishLoad, so
+	// none committed while the table is read is lost
+	public void beginLoad() {
+		lock.writeLock().lock();
+		try {
+			clearSlots();
+			changesWhileLoading.clear();
+			state = State.LOADING;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// add one movie read by a load
+	public void load(long id, String title, int year) {
+		lock.writeLock().lock();
+		try {
+			add(id, title, year);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// replay the changes made during the load; the index is now current
+	public void finishLoad() {
+		lock.writeLock().lock();
+		try {
+			for (Match change : changesWhileLoading)
+				if (change.title == null)
+					removeSlot(change.id);
+				else
+					add(change.id, change.title, change.year);
+			changesWhileLoading.clear();
+			state = State.LOADED;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// a movie was inserted or changed; call after the write commits
+	public void put(long id, String title, int year) {
+		lock.writeLock().lock();
+		try {
+			if (state == State.LOADING)
+				changesWhileLoading.add(new Match(id, title == null ? ""
+						: title, year, 0));
+			else if (state == State.LOADED)
+				add(id, title, year);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// a movie was deleted; call after the write commits
+	public void remove(long id) {
+		lock.writeLock().lock();
+		try {
+			if (state == State.LOADING)
+				changesWhileLoading.add(new Match(id, null, Movie.UNKNOWN, 0));
+			else if (state == State.LOADED)
+				removeSlot(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// every movie was deleted
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			clearSlots();
+			if (state == State.LOADING)
+				changesWhileLoading.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// return up to limit movies whose titles look like title, best first,
+	// leaving out excludeId; a known year different from year by more
+	// than one rules a movie out, since remakes share titles
+	public List<Match> findSimilar(String title, int year, long excludeId,
+			float threshold, int limit) {
+		long[] query = trigramsOf(title);
+		if (year == Movie.UNKNOWN)
+			year = yearOf(title);
+
+		lock.readLock().lock();
+		try {
+			return findSimilar(query, year, excludeId, threshold, limit);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// group every set of movies that look like duplicates of each other,
+	// querying the index for each movie on threads threads; each query
+	// holds the read lock on its own, so writes are never held up long
+	public List<List<Match>> findDuplicates(final float threshold,
+			int threads) throws InterruptedException {
+		final int parts = Math.max(1, threads);
+		ExecutorService executor = Executors.newFixedThreadPool(parts);
+		final Map<Long, Long> parent = new HashMap<Long, Long>();
+		final Map<Long, Match> movies = new HashMap<Long, Match>();
+
+		try {
+			List<Future<List<Match[]>>> results = new ArrayList<Future<List<Match[]>>>();
+			for (int part = 0; part < parts; ++part) {
+				final int first = part;
+				results.add(executor.submit(new Callable<List<Match[]>>() {
+					@Override
+					public List<Match[]> call() {
+						// each thread takes every parts-th slot
+						List<Match[]> pairs = new ArrayList<Match[]>();
+						for (int slot = first;; slot += parts) {
+							lock.readLock().lock();
+							try {
+								if (slot >= slots)
+									break;
+								if (titles[slot] == null)
+									continue;
+
+								Match movie = new Match(ids[slot],
+										titles[slot], years[slot], 1);
+								for (Match match : findSimilar(grams[slot],
+										years[slot], ids[slot], threshold,
+										Integer.MAX_VALUE))
+									if (match.id > movie.id) // each pair once
+										pairs.add(new Match[] { movie, match });
+							} finally {
+								lock.readLock().unlock();
+							}
+						}
+						return pairs;
+					}
+				}));
+			}
+
+			// join the pairs into groups
+			for (Future<List<Match[]>> result : results)
+				for (Match[] pair : result.get()) {
+					union(parent, pair[0].id, pair[1].id);
+					for (Match movie : pair)
+						movies.put(movie.id, movie);
+				}
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		Map<Long, List<Match>> groups = new HashMap<Long, List<Match>>();
+		for (Match movie : movies.values()) {
+			long root = find(parent, movie.id);
+			List<Match> group = groups.get(root);
+			if (group == null) {
+				group = new ArrayList<Match>();
+				groups.put(root, group);
+			}
+			group.add(movie);
+		}
+
+		List<List<Match>> sorted = new ArrayList<List<Match>>(groups.values());
+		for (List<Match> group : sorted)
+			Collections.sort(group, BY_TITLE);
+		Collections.sort(sorted, new Comparator<List<Match>>() {
+			@Override
+			public int compare(List<Match> first, List<Match> second) {
+				return BY_TITLE.compare(first.get(0), second.get(0));
+			}
+		});
+		return sorted;
+	}
+
+	// movies, trigrams and postings, for diagnostics
+	@Override
+	public String toString() {
+		lock.readLock().lock();
+		try {
+			return "state=" + state + " movies=" + slotOf.size()
+					+ " trigrams=" + postings.size() + " postings="
+					+ postingCount + " stale=" + stalePostings;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// lower-case title without accents, a bracketed year, a leading or
+	// trailing article or punctuation, so spelling variants compare equal
+	public static String normalize(String title) {
+		if (title == null)
+			return "";
+		String text = Normalizer.normalize(title.toLowerCase(),
+				Normalizer.Form.NFD);
+		text = MARKS.matcher(text).replaceAll("");
+		text = BRACKETED_YEAR.matcher(text).replaceAll(" ").trim();
+		text = TRAILING_ARTICLE.matcher(text).replaceFirst("");
+		text = SEPARATORS.matcher(text).replaceAll(" ").trim();
+		return LEADING_ARTICLE.matcher(text).replaceFirst("");
+	}
+
+	// the sorted, distinct trigrams of title's normalized form padded with
+	// a space at each end, each packed into a long
+	static long[] trigramsOf(String title) {
+		String text = " " + normalize(title) + " ";
+		if (text.length() < 3)
+			return new long[0];
+
+		long[] trigrams = new long[text.length() - 2];
+		for (int i = 0; i < trigrams.length; ++i)
+			trigrams[i] = (long) text.charAt(i) << 32
+					| (long) text.charAt(i + 1) << 16 | text.charAt(i + 2);
+		Arrays.sort(trigrams);
+
+		int distinct = 0;
+		for (int i = 0; i < trigrams.length; ++i)
+			if (i == 0 || trigrams[i] != trigrams[i - 1])
+				trigrams[distinct++] = trigrams[i];
+		return Arrays.copyOf(trigrams, distinct);
+	}
+
+	// a year in brackets in title, or UNKNOWN
+	private static int yearOf(String title) {
+		if (title == null)
+			return Movie.UNKNOWN;
+		java.util.regex.Matcher matcher = YEAR.matcher(title);
+		return matcher.matches() ? Integer.parseInt(matcher.group(1))
+				: Movie.UNKNOWN;
+	}
+
+	// any title shares at least minOverlap trigrams with a match, so a
+	// match must contain one of the query's rarest size - minOverlap + 1
+	// trigrams; only their postings are read, then each candidate is
+	// scored exactly. Call with the read lock held
+	private List<Match> findSimilar(long[] query, int year, long excludeId,
+			float threshold, int limit) {
+		List<Match> matches = new ArrayList<Match>();
+		if (query.length == 0)
+			return matches;
+
+		Postings[] lists = new Postings[query.length];
+		for (int i = 0; i < query.length; ++i)
+			lists[i] = postings.get(query[i]);
+		Arrays.sort(lists, BY_SIZE);
+
+		// a match has between t / (2 - t) and (2 - t) / t as many trigrams
+		int minOverlap = (int) Math.ceil(threshold * query.length
+				/ (2 - threshold));
+		int prefix = query.length - Math.max(1, minOverlap) + 1;
+		int maxLength = (int) Math.floor(query.length * (2 - threshold)
+				/ threshold);
+
+		// each slot is scored once, however many lists it is in
+		Visits visits = VISITS.get();
+		int stamp = visits.next(slots);
+
+		for (int i = 0; i < prefix; ++i) {
+			if (lists[i] == null)
+				continue;
+			for (int j = 0; j < lists[i].size; ++j) {
+				int entry = lists[i].entries[j];
+				int length = entry & 0xff;
+				if (length < minOverlap || length > maxLength)
+					continue;
+				int slot = entry >>> 8;
+				if (visits.stamps[slot] == stamp)
+					continue;
+				visits.stamps[slot] = stamp;
+
+				// a freed slot has no trigrams and never scores
+				long[] candidate = grams[slot];
+				float score = 2f * overlap(query, candidate)
+						/ (query.length + candidate.length);
+				if (score < threshold || ids[slot] == excludeId)
+					continue;
+				if (year != Movie.UNKNOWN && years[slot] != Movie.UNKNOWN
+						&& Math.abs(year - years[slot]) > 1)
+					continue;
+				matches.add(new Match(ids[slot], titles[slot], years[slot],
+						score));
+			}
+		}
+
+		Collections.sort(matches, BY_SCORE);
+		return matches.size() > limit ? new ArrayList<Match>(matches.subList(
+				0, limit)) : matches;
+	}
+
+	// number of trigrams two sorted arrays share
+	private static int overlap(long[] first, long[] second) {
+		int common = 0;
+		for (int i = 0, j = 0; i < first.length && j < second.length;) {
+			if (first[i] < second[j])
+				++i;
+			else if (first[i] > second[j])
+				++j;
+			else {
+				++common;
+				++i;
+				++j;
+			}
+		}
+		return common;
+	}
+
+	// put a movie in a slot, replacing any earlier version of it; call
+	// with the write lock held
+	private void add(long id, String title, int year) {
+		removeSlot(id);
+
+		int slot;
+		if (!freeSlots.isEmpty())
+			slot = freeSlots.remove(freeSlots.size() - 1);
+		else {
+			if (slots == ids.length) {
+				int capacity = Math.max(16, slots * 2);
+				ids = Arrays.copyOf(ids, capacity);
+				titles = Arrays.copyOf(titles, capacity);
+				years = Arrays.copyOf(years, capacity);
+				grams = Arrays.copyOf(grams, capacity);
+			}
+			slot = slots++;
+		}
+
+		long[] trigrams = trigramsOf(title);
+		ids[slot] = id;
+		titles[slot] = title == null ? "" : title;
+		years[slot] = year != Movie.UNKNOWN ? year : yearOf(title);
+		grams[slot] = trigrams;
+		slotOf.put(id, slot);
+
+		for (long trigram : trigrams) {
+			Postings list = postings.get(trigram);
+			if (list == null) {
+				list = new Postings();
+				postings.put(trigram, list);
+			}
+			list.add(slot, trigrams.length);
+		}
+		postingCount += trigrams.length;
+	}
+
+	// free a movie's slot; its postings go stale until the next rebuild
+	private void removeSlot(long id) {
+		Integer slot = slotOf.remove(id);
+		if (slot == null)
+			return;
+
+		stalePostings += grams[slot].length;
+		titles[slot] = null;
+		grams[slot] = new long[0];
+		freeSlots.add(slot);
+
+		// a reused slot would otherwise collect the old postings as well
+		if (stalePostings > postingCount / 2)
+			rebuildPostings();
+	}
+
+	// list every live slot's trigrams again, dropping stale postings
+	private void rebuildPostings() {
+		postings.clear();
+		postingCount = 0;
+		for (int slot = 0; slot < slots; ++slot) {
+			if (titles[slot] == null)
+				continue;
+			for (long trigram : grams[slot]) {
+				Postings list = postings.get(trigram);
+				if (list == null) {
+					list = new Postings();
+					postings.put(trigram, list);
+				}
+				list.add(slot, grams[slot].length);
+			}
+			postingCount += grams[slot].length;
+		}
+		stalePostings = 0;
+	}
+
+	private void clearSlots() {
+		ids = new long[0];
+		titles = new String[0];
+		years = new int[0];
+		grams = new long[0][];
+		slots = 0;
+		freeSlots.clear();
+		slotOf.clear();
+		postings.clear();
+		postingCount = 0;
+		stalePostings = 0;
+	}
+
+	// union-find over row IDs, for grouping pairs
+	private static void union(Map<Long, Long> parent, long first, long second) {
+		long firstRoot = find(parent, first);
+		long secondRoot = find(parent, second);
+		if (firstRoot != secondRoot)
+			parent.put(firstRoot, secondRoot);
+	}
+
+	private static long find(Map<Long, Long> parent, long id) {
+		Long next;
+		while ((next = parent.get(id)) != null && next != id) {
+			Long grandparent = parent.get(next);
+			if (grandparent != null)
+				parent.put(id, grandparent); // halve the path
+			id = next;
+		}
+		return id;
+	}
+
+	// rarest trigrams first; a trigram nobody has costs nothing to read
+	private static final Comparator<Postings> BY_SIZE = new Comparator<Postings>() {
+		@Override
+		public int compare(Postings first, Postings second) {
+			int firstSize = first == null ? 0 : first.size;
+			int secondSize = second == null ? 0 : second.size;
+			return firstSize < secondSize ? -1 : firstSize == secondSize ? 0
+					: 1;
+		}
+	};
+
+	private static final Comparator<Match> BY_SCORE = new Comparator<Match>() {
+		@Override
+		public int compare(Match first, Match second) {
+			return Float.compare(second.score, first.score);
+		}
+	};
+
+	private static final Comparator<Match> BY_TITLE = new Comparator<Match>() {
+		@Override
+		public int compare(Match first, Match second) {
+			return first.title.compareToIgnoreCase(second.title);
+		}
+	};
+} // end class TitleIndex